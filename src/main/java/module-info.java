@@ -1,8 +1,10 @@
 module uk.ac.soton.comp1206 {
     requires java.scripting;
     requires javafx.controls;
+    requires transitive javafx.base;
     requires javafx.fxml;
     requires javafx.media;
+    requires jdk.management;
     requires org.apache.logging.log4j;
     requires nv.websocket.client;
     opens uk.ac.soton.comp1206.ui to javafx.fxml;
@@ -13,4 +15,5 @@ module uk.ac.soton.comp1206 {
     exports uk.ac.soton.comp1206.event;
     exports uk.ac.soton.comp1206.component;
     exports uk.ac.soton.comp1206.game;
+    exports uk.ac.soton.comp1206.score;
 }
\ No newline at end of file
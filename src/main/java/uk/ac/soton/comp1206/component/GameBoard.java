@@ -11,6 +11,7 @@ import uk.ac.soton.comp1206.game.Game;
 import uk.ac.soton.comp1206.game.Grid;
 
 import java.util.HashSet;
+import java.util.Set;
 
 /**
  * A GameBoard is a visual component to represent the visual GameBoard.
@@ -221,12 +222,9 @@ public class GameBoard extends GridPane {
         }
     }
 
-    public void fade(HashSet<GameBlockCoordinate> coordinates) {
+    public void fade(Set<GameBlockCoordinate> coordinates) {
         for (GameBlockCoordinate block : coordinates) {
-            int x = block.getX();
-            int y = block.getY();
-            grid.set(x, y, 0);
-            this.blocks[x][y].fadeOut();
+            this.blocks[block.getX()][block.getY()].fadeOut();
         }
     }
 
@@ -0,0 +1,15 @@
+package uk.ac.soton.comp1206.event;
+
+import uk.ac.soton.comp1206.game.GameEvent;
+
+/**
+ * The Game Event Listener is used for listening to events of a particular type published by a game.
+ */
+public interface GameEventListener {
+
+    /**
+     * Handle an event. The event is reused for the next occurrence, so must not be kept after this returns.
+     * @param event the event
+     */
+    void handleEvent(GameEvent event);
+}
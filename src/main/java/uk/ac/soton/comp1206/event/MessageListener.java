@@ -0,0 +1,15 @@
+package uk.ac.soton.comp1206.event;
+
+import uk.ac.soton.comp1206.network.Message;
+
+/**
+ * The Message Listener is used for listening to parsed messages of a particular type received by the communicator.
+ */
+public interface MessageListener {
+
+    /**
+     * Handle an incoming message
+     * @param message the parsed message
+     */
+    void receiveMessage(Message message);
+}
@@ -1,11 +0,0 @@
-package uk.ac.soton.comp1206.event;
-
-/**
- * This listener is used for the piece placed event.
- */
-public interface PiecePlacedListener {
-    /**
-     * Called when a piece has been played.
-     */
-    void piecePlayed();
-}
@@ -0,0 +1,241 @@
+package uk.ac.soton.comp1206.game;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.ac.soton.comp1206.score.AtomicFiles;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+
+/**
+ * Scores how good a board is to carry on playing from, for bots searching ahead through moves. The score is a weighted
+ * sum of features of the board:
+ * <ul>
+ *     <li>fillable lines: lines which one piece could complete now</li>
+ *     <li>isolated cells: empty blocks which no piece fits over, so which can never be filled until a line clears</li>
+ *     <li>piece fits: pieces which fit somewhere, so could be played if they came next</li>
+ *     <li>edge contact: sides of filled blocks touching another filled block or the edge of the board</li>
+ * </ul>
+ * The search adds the points a move scores to this, so the weights are in points: how many points each feature is
+ * worth giving up for now. Works on the occupied block mask alone, without creating any objects.
+ *
+ * The weights the game uses are loaded from a resource written by WeightTuner, with defaults for any it does not give.
+ */
+public class BoardEvaluator {
+
+    private static final Logger logger = LogManager.getLogger(BoardEvaluator.class);
+
+    /**
+     * The resource the game loads its weights from
+     */
+    public static final String RESOURCE = "/bot/weights.properties";
+
+    /**
+     * Where that resource is kept in the source tree, for WeightTuner to write to
+     */
+    public static final String DEFAULT_FILE = "src/main/resources/bot/weights.properties";
+
+    public static final int FILLABLE_LINES = 0;
+    public static final int ISOLATED_CELLS = 1;
+    public static final int PIECE_FITS = 2;
+    public static final int EDGE_CONTACT = 3;
+
+    /**
+     * Names of the features, in order
+     */
+    public static final String[] FEATURES = {"fillableLines", "isolatedCells", "pieceFits", "edgeContact"};
+
+    /**
+     * Weights used when no others are given
+     */
+    private static final double[] DEFAULT_WEIGHTS = {20, -30, 10, 2};
+
+    private static final int FULL = (1 << GameState.CELLS) - 1;
+
+    /**
+     * Every distinct set of blocks each piece can cover, in any rotation
+     */
+    private static final int[][] MASKS = new int[GamePiece.PIECES][];
+
+    /**
+     * Block masks for each full column then each full row
+     */
+    private static final int[] LINES = new int[GameState.COLS + GameState.ROWS];
+
+    /**
+     * Blocks with a block below them in the same column, and blocks on each edge of the board
+     */
+    private static final int NOT_BOTTOM;
+    private static final int EDGES_X;
+    private static final int EDGES_Y;
+
+    static {
+        for (int piece = 0; piece < GamePiece.PIECES; piece++) {
+            var masks = new LinkedHashSet<Integer>();
+            for (int rotation = 0; rotation < 4; rotation++) {
+                for (int cell = 0; cell < GameState.CELLS; cell++) {
+                    int mask = GameState.getPlacement(piece, rotation, cell);
+                    if (mask != 0) {
+                        masks.add(mask);
+                    }
+                }
+            }
+            MASKS[piece] = masks.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        int notBottom = 0;
+        int edgesX = 0;
+        int edgesY = 0;
+        for (int x = 0; x < GameState.COLS; x++) {
+            for (int y = 0; y < GameState.ROWS; y++) {
+                int bit = 1 << (x * GameState.ROWS + y);
+                LINES[x] |= bit;
+                LINES[GameState.COLS + y] |= bit;
+                if (y < GameState.ROWS - 1) {
+                    notBottom |= bit;
+                }
+                if (x == 0 || x == GameState.COLS - 1) {
+                    edgesX |= bit;
+                }
+                if (y == 0 || y == GameState.ROWS - 1) {
+                    edgesY |= bit;
+                }
+            }
+        }
+        NOT_BOTTOM = notBottom;
+        EDGES_X = edgesX;
+        EDGES_Y = edgesY;
+    }
+
+    private final double[] weights;
+
+    /**
+     * Create an evaluator with the default weights
+     */
+    public BoardEvaluator() {
+        this(DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * Create an evaluator with the given weights
+     * @param weights a weight for each feature, in the order of FEATURES
+     * @throws IllegalArgumentException if there is not a weight for every feature
+     */
+    public BoardEvaluator(double[] weights) {
+        if (weights.length != FEATURES.length) {
+            throw new IllegalArgumentException("Expected " + FEATURES.length + " weights, got " + weights.length);
+        }
+        this.weights = weights.clone();
+    }
+
+    /**
+     * Score a board
+     * @param state state holding the board
+     * @return weighted sum of the board's features
+     */
+    public double evaluate(GameState state) {
+        int occupied = state.getOccupied();
+
+        //Only lines with a few blocks left empty can be finished by one piece
+        int candidates = 0;
+        for (int i = 0; i < LINES.length; i++) {
+            int empty = Integer.bitCount(LINES[i] & ~occupied);
+            if (empty > 0 && empty <= 3) {
+                candidates |= 1 << i;
+            }
+        }
+
+        int reachable = 0;
+        int fillable = 0;
+        int pieceFits = 0;
+        for (int[] masks : MASKS) {
+            boolean fits = false;
+            for (int mask : masks) {
+                if ((mask & occupied) != 0) {
+                    continue;
+                }
+                fits = true;
+                reachable |= mask;
+                for (int lines = candidates & ~fillable; lines != 0; lines &= lines - 1) {
+                    int line = Integer.numberOfTrailingZeros(lines);
+                    if ((LINES[line] & ~occupied & ~mask) == 0) {
+                        fillable |= 1 << line;
+                    }
+                }
+            }
+            if (fits) {
+                pieceFits++;
+            }
+        }
+
+        int isolated = Integer.bitCount(FULL & ~occupied & ~reachable);
+        int contact = 2 * Integer.bitCount(occupied & (occupied >>> 1) & NOT_BOTTOM)
+                + 2 * Integer.bitCount(occupied & (occupied >>> GameState.ROWS))
+                + Integer.bitCount(occupied & EDGES_X) + Integer.bitCount(occupied & EDGES_Y);
+
+        return weights[FILLABLE_LINES] * Integer.bitCount(fillable)
+                + weights[ISOLATED_CELLS] * isolated
+                + weights[PIECE_FITS] * pieceFits
+                + weights[EDGE_CONTACT] * contact;
+    }
+
+    /**
+     * Create an evaluator with the weights in the game's resource, or the defaults for any it does not have
+     * @return evaluator
+     */
+    public static BoardEvaluator load() {
+        double[] weights = DEFAULT_WEIGHTS.clone();
+        try (var in = BoardEvaluator.class.getResourceAsStream(RESOURCE)) {
+            if (in == null) {
+                logger.info("No tuned weights, using the defaults");
+                return new BoardEvaluator(weights);
+            }
+            var properties = new Properties();
+            properties.load(in);
+            for (int i = 0; i < FEATURES.length; i++) {
+                String value = properties.getProperty(FEATURES[i]);
+                if (value != null) {
+                    weights[i] = Double.parseDouble(value.trim());
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.error("Unable to load weights, using the defaults: " + e.getMessage());
+            return new BoardEvaluator(DEFAULT_WEIGHTS);
+        }
+        return new BoardEvaluator(weights);
+    }
+
+    /**
+     * Save the weights in the format load() reads
+     * @param file file to write, replaced in one step so the game never loads it half written
+     * @param comment comment written at the top of the file
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path file, String comment) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        var builder = new StringBuilder("# " + comment + "\n");
+        for (int i = 0; i < FEATURES.length; i++) {
+            builder.append(FEATURES[i]).append('=').append(weights[i]).append('\n');
+        }
+        AtomicFiles.write(file, builder.toString());
+    }
+
+    /**
+     * Get the weights
+     * @return a copy of the weights, in the order of FEATURES
+     */
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "BoardEvaluator" + Arrays.toString(weights);
+    }
+}
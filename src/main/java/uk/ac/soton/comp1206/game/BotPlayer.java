@@ -0,0 +1,154 @@
+package uk.ac.soton.comp1206.game;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A computer opponent which plays a game running in a GameEngine.
+ *
+ * The bot thinks on a low priority thread of its own, so it never holds up the engine's game loop or the JavaFX
+ * thread. Every so often it copies the game's state on the engine thread, searches for a move within its time budget,
+ * then posts the move back to the engine, which plays it only if the game has not changed in the meantime. The UI sees
+ * the moves through the engine's snapshots like any other change to the game.
+ */
+public class BotPlayer {
+
+    private static final Logger logger = LogManager.getLogger(BotPlayer.class);
+
+    /**
+     * How long to wait for the engine to copy the game's state
+     */
+    private static final long STATE_TIMEOUT = 1000;
+
+    /**
+     * How hard the bot plays: how many pieces it looks ahead, how long it may think about each move, and how long it
+     * waits between moves
+     */
+    public enum Difficulty {
+        EASY(1, 50, 2000),
+        MEDIUM(2, 150, 1200),
+        HARD(3, 400, 800);
+
+        private final int depth;
+        private final long budget;
+        private final long interval;
+
+        Difficulty(int depth, long budget, long interval) {
+            this.depth = depth;
+            this.budget = budget;
+            this.interval = interval;
+        }
+
+        /**
+         * Get how many pieces ahead the bot searches
+         * @return search depth
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Get the time the bot may spend thinking about each move
+         * @return budget in milliseconds
+         */
+        public long getBudget() {
+            return budget;
+        }
+
+        /**
+         * Get the time between the bot's moves
+         * @return interval in milliseconds
+         */
+        public long getInterval() {
+            return interval;
+        }
+    }
+
+    private final GameEngine engine;
+    private final Difficulty difficulty;
+    private final MoveSearch search;
+    private final ScheduledExecutorService thread;
+
+    /**
+     * Create a bot for a game. It does nothing until started.
+     * @param engine engine running the game to play
+     * @param difficulty how hard to play
+     * @param evaluator evaluator to judge boards with
+     */
+    public BotPlayer(GameEngine engine, Difficulty difficulty, BoardEvaluator evaluator) {
+        this.engine = engine;
+        this.difficulty = difficulty;
+        this.search = new MoveSearch(evaluator, difficulty.getDepth());
+        this.thread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "bot");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Start making moves
+     */
+    public void start() {
+        logger.info("Starting " + difficulty + " bot");
+        thread.scheduleWithFixedDelay(this::move, difficulty.getInterval(), difficulty.getInterval(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop making moves. A move already posted to the engine may still be played.
+     */
+    public void stop() {
+        thread.shutdownNow();
+    }
+
+    /**
+     * Copy the game's state, search for a move and post it to the engine
+     */
+    private void move() {
+        try {
+            var state = new GameState();
+            var copied = new CompletableFuture<Void>();
+            engine.run(game -> {
+                game.saveState(state);
+                copied.complete(null);
+            });
+            copied.get(STATE_TIMEOUT, TimeUnit.MILLISECONDS);
+
+            if (state.isOver()) {
+                logger.info("Bot's game is over");
+                thread.shutdown();
+                return;
+            }
+
+            long started = System.nanoTime();
+            int move = search.findMove(state, TimeUnit.MILLISECONDS.toNanos(difficulty.getBudget()));
+            logger.debug("Bot thought for " + (System.nanoTime() - started) / 1000 + "us");
+            if (move == MoveSearch.NONE) {
+                //Nothing fits, so wait for the timer to run out
+                return;
+            }
+
+            engine.run(game -> {
+                var now = new GameState();
+                game.saveState(now);
+                if (now.equals(state)) {
+                    MoveSearch.play(game, move);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            logger.debug("Bot's game has stopped");
+        } catch (Exception e) {
+            logger.error("Bot move failed: " + e.getMessage(), e);
+        }
+    }
+}
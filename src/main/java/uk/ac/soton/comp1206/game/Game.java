@@ -8,16 +8,14 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import uk.ac.soton.comp1206.component.GameBlock;
 import uk.ac.soton.comp1206.component.GameBlockCoordinate;
-import uk.ac.soton.comp1206.event.GameEndedListener;
-import uk.ac.soton.comp1206.event.GameLoopListener;
-import uk.ac.soton.comp1206.event.LineClearedListener;
-import uk.ac.soton.comp1206.event.PiecePlacedListener;
-import uk.ac.soton.comp1206.scene.Multimedia;
-import uk.ac.soton.comp1206.scene.ScoreScene;
-
-import java.io.BufferedReader;
-import java.io.FileReader;
+import uk.ac.soton.comp1206.score.ScoreStore;
+
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The Game class handles the main logic, state and properties of the TetrECS game. Methods to manipulate the game state
@@ -26,7 +24,6 @@ import java.util.*;
 public class Game {
 
     private static final Logger logger = LogManager.getLogger(Game.class);
-    private final Multimedia myMultimedia = new Multimedia();
 
     /**
      * Number of rows
@@ -49,12 +46,77 @@ public class Game {
     protected SimpleIntegerProperty multiplier;
     protected SimpleIntegerProperty lives;
     protected SimpleIntegerProperty highScore;
-    protected LineClearedListener lineClearedListener;
-    protected GameLoopListener gameLoopListener;
-    protected PiecePlacedListener piecePlayedListener;
-    protected GameEndedListener gameEndedListener;
-    protected Timer timer;
-    private final String scoresFile = "src/main/resources/scores";
+
+    /**
+     * Where the game publishes what happens in it, for the UI, audio, recording and anything else listening
+     */
+    protected final GameEventBus events = new GameEventBus();
+
+    /**
+     * The latest snapshot of the game, replaced after every change, for other threads to read
+     */
+    protected final AtomicReference<GameSnapshot> snapshot = new AtomicReference<>();
+
+    /**
+     * One timer thread for every game in the process, as starting a thread per game is slow and each one costs memory
+     */
+    private static final Timer TIMER = new Timer("game-loop", true);
+    protected TimerTask loopTask;
+
+    /**
+     * When the game runs on a thread of its own: the scheduler timing the game loop, the executor which runs the game
+     * on its thread, and the game loop scheduled. Each scheduled loop, on the timer or the scheduler, has a number, so
+     * one which was already on its way to the game's thread when it was cancelled does nothing.
+     */
+    protected ScheduledExecutorService scheduler;
+    protected Executor executor;
+    protected ScheduledFuture<?> loopFuture;
+    protected int loopNumber;
+
+    /**
+     * Source of the piece sequence. Seeded so a game can be reproduced.
+     */
+    protected final PieceRandom random;
+
+    /**
+     * The seed the piece sequence was drawn from, and how many pieces have been drawn from it
+     */
+    protected final long seed;
+    protected int draws;
+    protected boolean gameOver = false;
+
+    /**
+     * Total lines cleared this game
+     */
+    protected int linesCleared;
+
+    /**
+     * Counters describing how the game went, kept for the game history
+     */
+    protected long startTime;
+    protected long endTime;
+    protected int placements;
+    protected int maxMultiplier;
+    protected int livesLost;
+    protected int[] pieceCounts;
+
+    /**
+     * When the current game loop timer was started, and how long it was set for
+     */
+    protected long loopStartedAt;
+    protected long loopDelay;
+
+    /**
+     * Where the game is saved as it is played, if anywhere
+     */
+    protected GameJournal journal;
+
+    /**
+     * States to go back to with undo, oldest first around a ring, if undo is allowed
+     */
+    protected GameState[] undoStates;
+    protected int undoCount;
+    protected int undoNext;
 
 
     /**
@@ -63,8 +125,21 @@ public class Game {
      * @param rows number of rows
      */
     public Game(int cols, int rows) {
+        this(cols, rows, new Random().nextLong());
+    }
+
+    /**
+     * Create a new game with the specified rows and columns, whose pieces are drawn from a generator with the given
+     * seed. Two games with the same seed are dealt the same pieces.
+     * @param cols number of columns
+     * @param rows number of rows
+     * @param seed seed for the piece sequence
+     */
+    public Game(int cols, int rows, long seed) {
         this.cols = cols;
         this.rows = rows;
+        this.seed = seed;
+        this.random = new PieceRandom(seed);
 
         initialiseGame();
 
@@ -89,6 +164,14 @@ public class Game {
         lives = new SimpleIntegerProperty(3);
         multiplier = new SimpleIntegerProperty(1);
         level = new SimpleIntegerProperty(0);
+        linesCleared = 0;
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+        placements = 0;
+        maxMultiplier = 1;
+        livesLost = 0;
+        pieceCounts = new int[GamePiece.PIECES];
+        draws = 0;
 
         currentPiece = spawnPiece();
         nextPiece = spawnPiece();
@@ -96,6 +179,7 @@ public class Game {
         initialiseHighScore();
 
         startGameLoop();
+        publishSnapshot();
 
     }
 
@@ -105,15 +189,25 @@ public class Game {
      */
     public void blockClicked(GameBlock gameBlock) {
         //Get the position of this block
-        int x = gameBlock.getX();
-        int y = gameBlock.getY();
+        placePiece(gameBlock.getX(), gameBlock.getY());
+    }
 
+    /**
+     * Try to play the current piece centred on the given position
+     * @param x column
+     * @param y row
+     * @return true if the piece was played, false if it does not fit there
+     */
+    public boolean placePiece(int x, int y) {
         Pair temp = grid.canPlayPiece(currentPiece, x, y);
         if (Boolean.TRUE.equals(temp.getKey())) {
+            pushUndo();
             startGameLoop();
             playPiece(x, y);
+            return true;
         } else {
-            myMultimedia.unsuccessfulPlacement();
+            publish(GameEventType.PIECE_REJECTED, x, y, false, 0, null);
+            return false;
         }
     }
 
@@ -138,10 +232,8 @@ public class Game {
      * @return GamePiece
      */
     private GamePiece spawnPiece() {
-        Random myRandom = new Random();
-        int random = myRandom.nextInt(15);
-
-        return GamePiece.createPiece(random);
+        draws++;
+        return GamePiece.createPiece(random.nextInt(GamePiece.PIECES));
     }
 
 
@@ -168,12 +260,11 @@ public class Game {
      */
     private void updateScore (int linesCleared, int blocksCleared) {
         score.set(score.get() + (linesCleared * blocksCleared * 10 * multiplier.get()));
-        System.out.println(score);
     }
 
     private void updateLevel() {
         int level = (int) Math.round(Math.floor(this.level.get()/1000));
-        System.out.println(level);
+        logger.debug("Level " + level);
     }
 
     /**
@@ -185,6 +276,7 @@ public class Game {
             multiplier.set(1);
         } else {
             multiplier.set(multiplier.get() + 1);
+            maxMultiplier = Math.max(maxMultiplier, multiplier.get());
         }
     }
 
@@ -198,6 +290,74 @@ public class Game {
     public Integer getIntScore() {
         return score.get();
     }
+    public int getIntLives() {
+        return lives.get();
+    }
+
+    /**
+     * Get the number of lines cleared so far this game
+     * @return lines cleared
+     */
+    public int getLinesCleared() {
+        return linesCleared;
+    }
+
+    /**
+     * Get the level reached
+     * @return level
+     */
+    public int getIntLevel() {
+        return level.get();
+    }
+
+    /**
+     * Get when the game started
+     * @return milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Get how long the game lasted, or has lasted so far if it is still going
+     * @return duration in milliseconds
+     */
+    public long getDurationMillis() {
+        return (gameOver ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * Get the number of pieces played
+     * @return placements
+     */
+    public int getPlacements() {
+        return placements;
+    }
+
+    /**
+     * Get the highest multiplier reached
+     * @return max multiplier
+     */
+    public int getMaxMultiplier() {
+        return maxMultiplier;
+    }
+
+    /**
+     * Get the number of lives lost
+     * @return lives lost
+     */
+    public int getLivesLost() {
+        return livesLost;
+    }
+
+    /**
+     * Get how many of each piece were played
+     * @param value the piece's value, from 1 to GamePiece.PIECES
+     * @return number played
+     */
+    public int getPieceCount(int value) {
+        return pieceCounts[value - 1];
+    }
     public StringBinding getHighScore() {
         return highScore.asString();
     }
@@ -232,34 +392,37 @@ public class Game {
 
 
     /**
-     * This method handles all the changes that needs to happen when a piece is played including sound effects
+     * This method handles all the changes that needs to happen when a piece is played
      * @param x X coordinate of where the piece is going to be played
      * @param y Y coordinate of where the piece is going to be played
      */
     private void playPiece(int x, int y) {
-        //Audio
-        myMultimedia.successfulPlacement();
-
         grid.playPiece(currentPiece, x, y);
+        placements++;
+        pieceCounts[currentPiece.getValue() - 1]++;
         Pair<Pair<Integer, Integer>, HashSet<GameBlockCoordinate>> info = grid.clearLines();
         HashSet<GameBlockCoordinate> coordinatesToClear = info.getValue();
 
-        //Listener updates
-        lineClearedListener.lineCleared(coordinatesToClear);
-        piecePlayedListener.piecePlayed();
-
+        //Empty the cleared lines in the model, listeners animate them
+        for (GameBlockCoordinate coordinate : coordinatesToClear) {
+            grid.set(coordinate.getX(), coordinate.getY(), 0);
+        }
 
         Pair<Integer, Integer> pair = info.getKey();
         int linesCleared = pair.getKey();
         int blocksCleared = pair.getValue();
 
-        if (linesCleared > 0) {
-            myMultimedia.linesCleared();
-        }
+        this.linesCleared += linesCleared;
         // Update all the variables (score, multiplier, level)
         updateVariables(linesCleared, blocksCleared);
 
+        save();
 
+        publishSnapshot();
+        if (linesCleared > 0) {
+            publish(GameEventType.LINES_CLEARED, 0, 0, false, linesCleared, coordinatesToClear);
+        }
+        publish(GameEventType.PIECE_PLACED, x, y, false, linesCleared, null);
 
     }
 
@@ -272,6 +435,8 @@ public class Game {
         } else {
             currentPiece.rotate(3);
         }
+        publishSnapshot();
+        publish(GameEventType.PIECE_ROTATED, 0, 0, right, 0, null);
     }
 
     /**
@@ -297,36 +462,41 @@ public class Game {
         GamePiece temp = currentPiece;
         currentPiece = nextPiece;
         nextPiece = temp;
+        publishSnapshot();
+        publish(GameEventType.PIECES_SWAPPED, 0, 0, false, 0, null);
     }
 
     /**
-     * Initialising listener
-     * @param listener Takes in a LineClearedListener
+     * Get the bus the game publishes its events on, to subscribe to them
+     * @return event bus
      */
-    public void setOnLineCleared(LineClearedListener listener) {
-        lineClearedListener = listener;
+    public GameEventBus getEvents() {
+        return events;
     }
+
     /**
-     * Initialising listener
-     * @param listener Takes in a LineClearedListener
+     * Get the latest snapshot of the game. Safe to call from any thread, and the snapshot returned never changes.
+     * @return snapshot, published after the last change to the game
      */
-    public void setOnPiecePlayed(PiecePlacedListener listener) {
-        piecePlayedListener = listener;
+    public GameSnapshot getSnapshot() {
+        return snapshot.get();
     }
+
     /**
-     * Initialising listener
-     * @param listener Takes in a gameEndedListener
+     * Take a snapshot of the game as it is now and publish it for other threads. Called after every change to the
+     * game, before its events are published, so listeners see the snapshot the event left.
      */
-    public void setOnGameEnded(GameEndedListener listener) {
-        gameEndedListener = listener;
+    protected void publishSnapshot() {
+        var previous = snapshot.get();
+        snapshot.set(new GameSnapshot(this, previous == null ? 1 : previous.getVersion() + 1));
     }
 
     /**
-     * Initialising listener
-     * @param listener Takes in a GameLoopListener
+     * Publish an event, filled in with the score and lives as they are now
      */
-    public void setOnGameLoop(GameLoopListener listener) {
-        gameLoopListener = listener;
+    private void publish(GameEventType type, int x, int y, boolean right, int lines,
+                         Set<GameBlockCoordinate> blocks) {
+        events.publish(type, x, y, right, lines, blocks, score.get(), lives.get(), gameOver);
     }
 
     /**
@@ -335,7 +505,7 @@ public class Game {
      */
     public long getTimerDelay() {
         long delay = Math.max(2500, 12000 - (500 * level.get()));
-        logger.info(delay/1000 + " second delay");
+        logger.debug(delay/1000 + " second delay");
         return delay;
     }
 
@@ -343,31 +513,32 @@ public class Game {
     /**
      * Checks if any lives left. If so, gameLoop is called and the game continues.
      */
-    private void gameLoop() {
+    protected void gameLoop() {
 
 
         //Timer has run out and gameLoop has been triggered
         logger.info("GameLoop triggered!");
 
-
-
         if (lives.get() == 3) {
-            gameEndedListener.gameEnded();
             endGame();
+            publishSnapshot();
+            publish(GameEventType.TIMED_OUT, 0, 0, false, 0, null);
+            publish(GameEventType.GAME_ENDED, 0, 0, false, 0, null);
         } else {
+            pushUndo();
             nextPiece();
-            myMultimedia.lifeLost();
 
             //Set variables
             lives.set(lives.get() - 1);
+            livesLost++;
             multiplier.set(1);
 
-            //Let the UI know that loop has been triggered
-            gameLoopListener.gameLoopTriggered();
-
             startGameLoop();
+            save();
+            publishSnapshot();
 
-
+            //Let the UI know that loop has been triggered
+            publish(GameEventType.TIMED_OUT, 0, 0, false, 0, null);
         }
 
     }
@@ -375,19 +546,205 @@ public class Game {
     /**
      * Schedules a gameLoop call after a certain delay.
      */
-    private void startGameLoop() {
-        if (timer != null) {
-            timer.cancel();
+    protected void startGameLoop() {
+        startGameLoop(getTimerDelay());
+    }
+
+    /**
+     * Schedules a gameLoop call after the given delay.
+     * @param delay delay in milliseconds
+     */
+    protected void startGameLoop(long delay) {
+        loopStartedAt = System.currentTimeMillis();
+        loopDelay = delay;
+        scheduleGameLoop(delay);
+    }
+
+    /**
+     * Start the timer which calls gameLoop after the given delay
+     * @param delay delay in milliseconds
+     */
+    protected void scheduleGameLoop(long delay) {
+        if (scheduler != null) {
+            if (loopFuture != null) {
+                loopFuture.cancel(false);
+            }
+            int number = ++loopNumber;
+            loopFuture = scheduler.schedule(() -> executor.execute(() -> {
+                if (number != loopNumber) {
+                    return;
+                }
+                try {
+                    gameLoop();
+                } catch (Exception e) {
+                    logger.error("Game loop failed: " + e.getMessage(), e);
+                }
+            }), delay, TimeUnit.MILLISECONDS);
+            return;
         }
-        timer = new Timer();
-        timer.schedule(new TimerTask() {
+
+        if (loopTask != null) {
+            loopTask.cancel();
+        }
+        int number = ++loopNumber;
+        loopTask = new TimerTask() {
             @Override
             public void run() {
                 Platform.runLater(() -> {
-                    gameLoop();
+                    if (number == loopNumber) {
+                        gameLoop();
+                    }
                 });
             }
-        }, getTimerDelay());
+        };
+        TIMER.schedule(loopTask, delay);
+    }
+
+    /**
+     * Get how long is left before the game loop timer runs out
+     * @return remaining time in milliseconds
+     */
+    public long getRemainingTime() {
+        return Math.max(0, loopDelay - (System.currentTimeMillis() - loopStartedAt));
+    }
+
+    /**
+     * Get the seed the piece sequence is drawn from
+     * @return seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Save the game to the given journal after every placement and lost life, so it can be resumed later. The journal
+     * is cleared when the game ends.
+     * @param journal journal to save to
+     */
+    public void setJournal(GameJournal journal) {
+        this.journal = journal;
+        save();
+    }
+
+    /**
+     * Copy the state of the game, which takes constant time
+     * @param state state to copy into
+     * @throws IllegalArgumentException if the board is not 5x5
+     */
+    public void saveState(GameState state) {
+        state.capture(this);
+    }
+
+    /**
+     * Put the game back into a state it was in. Only the blocks which differ are changed on the grid.
+     * @param state state to go back to
+     */
+    public void restoreState(GameState state) {
+        state.restore(this);
+        publishSnapshot();
+    }
+
+    /**
+     * Allow the last few placements and lost lives to be undone, for practice
+     * @param limit how many can be undone, or 0 for none
+     */
+    public void setUndoLimit(int limit) {
+        undoStates = new GameState[limit];
+        for (int i = 0; i < limit; i++) {
+            undoStates[i] = new GameState();
+        }
+        undoCount = 0;
+        undoNext = 0;
+    }
+
+    /**
+     * Go back to before the last placement or lost life, and restart the timer
+     * @return true if there was anything to undo
+     */
+    public boolean undo() {
+        if (undoStates == null || undoCount == 0) {
+            return false;
+        }
+        undoNext = (undoNext + undoStates.length - 1) % undoStates.length;
+        undoCount--;
+        //Published once the timer has restarted, so the snapshot carries the new deadline
+        undoStates[undoNext].restore(this);
+        startGameLoop();
+        publishSnapshot();
+        return true;
+    }
+
+    /**
+     * Save the state before a move, so it can be undone, overwriting the oldest state once the stack is full
+     */
+    private void pushUndo() {
+        if (undoStates == null || undoStates.length == 0) {
+            return;
+        }
+        saveState(undoStates[undoNext]);
+        undoNext = (undoNext + 1) % undoStates.length;
+        undoCount = Math.min(undoCount + 1, undoStates.length);
+    }
+
+    /**
+     * Stop the game without ending it, saving it with the time left on the timer so it can be resumed
+     */
+    public void suspend() {
+        if (gameOver) {
+            return;
+        }
+        long remaining = getRemainingTime();
+        cancelGameLoop();
+        loopStartedAt = System.currentTimeMillis();
+        loopDelay = remaining;
+        if (journal != null) {
+            journal.write(this);
+            journal.force();
+        }
+    }
+
+    /**
+     * Draw pieces without using them, so the piece sequence carries on from where a saved game left off
+     * @param count number of pieces drawn by the saved game
+     */
+    void skipToDraw(int count) {
+        while (draws < count) {
+            spawnPiece();
+        }
+    }
+
+    /**
+     * Run the game on a thread of its own from now on, rather than on the JavaFX thread with a timer. Must be called
+     * through the executor, which then becomes the only way to change the game.
+     * @param scheduler scheduler to time the game loop, which may be shared with other games
+     * @param executor executor which runs tasks for this game one at a time, in order
+     */
+    public void setScheduler(ScheduledExecutorService scheduler, Executor executor) {
+        long remaining = getRemainingTime();
+        cancelGameLoop();
+        this.scheduler = scheduler;
+        this.executor = executor;
+        if (!gameOver) {
+            scheduleGameLoop(remaining);
+        }
+    }
+
+    private void cancelGameLoop() {
+        if (loopTask != null) {
+            loopTask.cancel();
+            loopTask = null;
+        }
+        if (loopFuture != null) {
+            loopFuture.cancel(false);
+            loopFuture = null;
+        }
+        loopNumber++;
+    }
+
+    private void save() {
+        if (journal != null && !gameOver) {
+            journal.write(this);
+        }
     }
 
     /**
@@ -395,22 +752,27 @@ public class Game {
      */
     private void endGame() {
         logger.info("Game Over");
+        gameOver = true;
+        endTime = System.currentTimeMillis();
+        cancelGameLoop();
+        if (journal != null) {
+            journal.clear();
+        }
     }
 
     /**
-     * Gets high score from the text file and binds it to the UI
+     * Whether the game has finished
+     * @return true once the game is over
      */
-    private void initialiseHighScore() {
-        try (BufferedReader br = new BufferedReader(new FileReader(scoresFile))) {
-            String line;
-            String lastLine = null;
-            while ((line = br.readLine()) != null) {
-                // Store the current line in lastLine
-                lastLine = line;
-            }
-            String[] parts = lastLine.split(",");
-            highScore =  new SimpleIntegerProperty(Integer.parseInt(parts[1]));
-        } catch (Exception e) {
-        }
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    /**
+     * Binds the high score to the score store's cached best score, so it updates if a new high score is written
+     */
+    protected void initialiseHighScore() {
+        highScore = new SimpleIntegerProperty();
+        highScore.bind(ScoreStore.getInstance().bestScoreProperty());
     }
 }
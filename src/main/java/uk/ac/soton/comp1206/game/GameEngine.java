@@ -0,0 +1,179 @@
+package uk.ac.soton.comp1206.game;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs a game on a thread of its own, away from the JavaFX thread. The thread is either a real one, or a serial
+ * executor on a GameHost's pool shared with other games.
+ *
+ * The engine thread is the only thread which touches the game once the engine has started. The player's inputs are
+ * posted to its mailbox and handled in the order they arrive, and the game loop is scheduled on the same thread, so it
+ * fires on time however long the UI takes to draw a frame, and a slow move never holds up a frame. The UI reads the
+ * game through the snapshots it publishes, and its events, which listeners on the JavaFX thread should subscribe to
+ * with Platform::runLater so they are delivered in batches.
+ */
+public class GameEngine {
+
+    private static final Logger logger = LogManager.getLogger(GameEngine.class);
+
+    /**
+     * How long to wait for the engine thread to save the game when stopping
+     */
+    private static final long STOP_TIMEOUT = 2000;
+
+    private final Game game;
+    private final Executor mailbox;
+
+    /**
+     * The engine's own thread, if it has one rather than running on a host
+     */
+    private final ScheduledExecutorService thread;
+    private volatile boolean stopped;
+
+    /**
+     * Start running a game on a new engine thread. The game must not be changed by any other thread from now on.
+     * @param game the game
+     */
+    public GameEngine(Game game) {
+        this(game, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "game-engine");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    private GameEngine(Game game, ScheduledExecutorService thread) {
+        this(game, thread, thread, thread);
+    }
+
+    /**
+     * Start running a game on a host's shared threads
+     * @param game the game
+     * @param scheduler scheduler timing the game loop
+     * @param mailbox executor running tasks for this game one at a time
+     */
+    GameEngine(Game game, ScheduledExecutorService scheduler, Executor mailbox) {
+        this(game, scheduler, mailbox, null);
+    }
+
+    private GameEngine(Game game, ScheduledExecutorService scheduler, Executor mailbox,
+                       ScheduledExecutorService thread) {
+        this.game = game;
+        this.mailbox = mailbox;
+        this.thread = thread;
+        post(() -> game.setScheduler(scheduler, mailbox));
+    }
+
+    /**
+     * Play the current piece centred on a block, if it fits
+     * @param x column
+     * @param y row
+     */
+    public void placePiece(int x, int y) {
+        post(() -> game.placePiece(x, y));
+    }
+
+    /**
+     * Rotate the current piece
+     * @param right true for clockwise
+     */
+    public void rotateCurrentPiece(boolean right) {
+        post(() -> game.rotateCurrentPiece(right));
+    }
+
+    /**
+     * Swap the current and next pieces
+     */
+    public void swapPieces() {
+        post(game::swapPieces);
+    }
+
+    /**
+     * Run something else on the game, on the engine thread, such as a move chosen by a bot
+     * @param action action to run with the game
+     */
+    public void run(Consumer<Game> action) {
+        post(() -> action.accept(game));
+    }
+
+    /**
+     * Get the latest snapshot of the game. Safe to call from any thread.
+     * @return snapshot
+     */
+    public GameSnapshot getSnapshot() {
+        return game.getSnapshot();
+    }
+
+    /**
+     * Get the game. Its events and snapshots may be used from any thread, but anything else only once the engine has
+     * stopped, or from a listener after GAME_ENDED.
+     * @return the game
+     */
+    public Game getGame() {
+        return game;
+    }
+
+    /**
+     * Suspend the game, waiting for it to be saved, and stop the engine thread. Inputs already in the mailbox are
+     * handled first, and any posted afterwards are ignored.
+     */
+    public void stop() {
+        try {
+            stopAsync().get(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            logger.error("Unable to suspend game: " + e.getMessage());
+        }
+        if (thread != null) {
+            thread.shutdownNow();
+        }
+    }
+
+    /**
+     * Suspend the game and stop the engine without waiting, so it can be called from a thread which must not block,
+     * including the engine's own. Inputs already in the mailbox are handled first, and any posted afterwards are
+     * ignored.
+     * @return a future completed once the game has been saved
+     */
+    public CompletableFuture<Void> stopAsync() {
+        if (stopped) {
+            return CompletableFuture.completedFuture(null);
+        }
+        stopped = true;
+        var suspended = CompletableFuture.runAsync(game::suspend, mailbox);
+        if (thread != null) {
+            suspended.whenComplete((result, e) -> thread.shutdown());
+        }
+        return suspended;
+    }
+
+    /**
+     * Post a task to the engine thread, logging any failure rather than letting the executor swallow it
+     * @param task task to run
+     */
+    private void post(Runnable task) {
+        if (stopped) {
+            logger.debug("Game engine has stopped, ignoring input");
+            return;
+        }
+        try {
+            mailbox.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    logger.error("Game engine task failed: " + e.getMessage(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Game engine has stopped, ignoring input");
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package uk.ac.soton.comp1206.game;
+
+import uk.ac.soton.comp1206.component.GameBlockCoordinate;
+
+import java.util.Set;
+
+/**
+ * Something that happened in a game, as handed to the listeners on its event bus.
+ *
+ * Events are not created per occurrence. The bus keeps one event of each type, which the game fills in and publishes
+ * again every time, and a batched subscription keeps its own copies. A listener must not hold on to an event after
+ * it returns: copy out anything it needs later.
+ */
+public class GameEvent {
+
+    private static final Set<GameBlockCoordinate> NONE = Set.of();
+
+    private final GameEventType type;
+    private int x;
+    private int y;
+    private boolean right;
+    private int lines;
+    private Set<GameBlockCoordinate> blocks = NONE;
+    private int score;
+    private int lives;
+    private boolean over;
+
+    /**
+     * Create an event to be reused for every occurrence of a type
+     * @param type event type
+     */
+    GameEvent(GameEventType type) {
+        this.type = type;
+    }
+
+    /**
+     * Get the event type
+     * @return type
+     */
+    public GameEventType getType() {
+        return type;
+    }
+
+    /**
+     * Get the column the piece was placed on, for PIECE_PLACED, or would not fit on, for PIECE_REJECTED
+     * @return column
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Get the row the piece was placed on, for PIECE_PLACED, or would not fit on, for PIECE_REJECTED
+     * @return row
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Whether the piece was rotated clockwise, for PIECE_ROTATED
+     * @return true if clockwise
+     */
+    public boolean isRight() {
+        return right;
+    }
+
+    /**
+     * Get the number of lines cleared, for LINES_CLEARED and PIECE_PLACED
+     * @return lines cleared
+     */
+    public int getLines() {
+        return lines;
+    }
+
+    /**
+     * Get the blocks which were cleared, for LINES_CLEARED
+     * @return cleared blocks, which must not be changed
+     */
+    public Set<GameBlockCoordinate> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Get the score after the event
+     * @return score
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Get the lives left after the event
+     * @return lives
+     */
+    public int getLives() {
+        return lives;
+    }
+
+    /**
+     * Whether the game is over after the event
+     * @return true once the game has ended
+     */
+    public boolean isOver() {
+        return over;
+    }
+
+    /**
+     * Fill in the event for a new occurrence
+     * @return this event
+     */
+    GameEvent set(int x, int y, boolean right, int lines, Set<GameBlockCoordinate> blocks, int score, int lives,
+                  boolean over) {
+        this.x = x;
+        this.y = y;
+        this.right = right;
+        this.lines = lines;
+        this.blocks = blocks == null ? NONE : blocks;
+        this.score = score;
+        this.lives = lives;
+        this.over = over;
+        return this;
+    }
+
+    /**
+     * Copy another event of the same type into this one. The set of blocks is shared, as games never change it once
+     * published.
+     * @param other event to copy
+     */
+    void copyFrom(GameEvent other) {
+        set(other.x, other.y, other.right, other.lines, other.blocks, other.score, other.lives, other.over);
+    }
+}
@@ -0,0 +1,230 @@
+package uk.ac.soton.comp1206.game;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.ac.soton.comp1206.component.GameBlockCoordinate;
+import uk.ac.soton.comp1206.event.GameEventListener;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Delivers the events a game publishes to any number of listeners for each event type.
+ *
+ * A listener can be called straight away on the thread the game runs on, or in batches on an executor of its choice,
+ * such as Platform::runLater for the UI or a background thread for metrics and network sync. A batched subscription
+ * copies each event into a buffer of events allocated in advance, and schedules one task for everything published
+ * before that task runs.
+ *
+ * Publishing creates no objects: the bus keeps one event of each type for the game to fill in, and the listeners for
+ * each type are held in an array which is copied only when a listener is added or removed, so listeners can be
+ * changed from any thread while the game is publishing.
+ */
+public class GameEventBus {
+
+    private static final Logger logger = LogManager.getLogger(GameEventBus.class);
+
+    /**
+     * Events a batched subscription can hold before it grows its buffer
+     */
+    private static final int BATCH_CAPACITY = 16;
+
+    private static final GameEventListener[] NONE = new GameEventListener[0];
+
+    /**
+     * Listeners for each event type, by ordinal
+     */
+    private volatile GameEventListener[][] listeners = new GameEventListener[GameEventType.VALUES.length][];
+
+    /**
+     * The event of each type which is filled in and published every time, by ordinal
+     */
+    private final GameEvent[] events = new GameEvent[GameEventType.VALUES.length];
+
+    /**
+     * Create a bus with no listeners
+     */
+    public GameEventBus() {
+        for (GameEventType type : GameEventType.VALUES) {
+            listeners[type.ordinal()] = NONE;
+            events[type.ordinal()] = new GameEvent(type);
+        }
+    }
+
+    /**
+     * Call a listener with every event of a type, on the thread the game publishes on, as it is published
+     * @param type event type
+     * @param listener listener to call
+     */
+    public void subscribe(GameEventType type, GameEventListener listener) {
+        add(type, listener);
+    }
+
+    /**
+     * Call a listener with every event of a type, in order, in batches run on the given executor. Everything published
+     * between one batch being scheduled and it running is delivered by that one batch.
+     * @param type event type
+     * @param listener listener to call
+     * @param executor executor to run batches on, such as Platform::runLater
+     */
+    public void subscribe(GameEventType type, GameEventListener listener, Executor executor) {
+        add(type, new Batch(type, listener, executor));
+    }
+
+    /**
+     * Stop calling a listener with events of a type, however it was subscribed
+     * @param type event type
+     * @param listener listener to remove
+     */
+    public synchronized void unsubscribe(GameEventType type, GameEventListener listener) {
+        var updated = listeners.clone();
+        updated[type.ordinal()] = Arrays.stream(updated[type.ordinal()])
+                .filter(existing -> existing != listener
+                        && !(existing instanceof Batch batch && batch.listener == listener))
+                .toArray(GameEventListener[]::new);
+        listeners = updated;
+    }
+
+    /**
+     * Remove every listener. Batches already scheduled are still delivered.
+     */
+    public synchronized void clear() {
+        var updated = new GameEventListener[GameEventType.VALUES.length][];
+        Arrays.fill(updated, NONE);
+        listeners = updated;
+    }
+
+    /**
+     * Whether anything is listening for events of a type, so a game can skip filling in events nobody wants
+     * @param type event type
+     * @return true if there is at least one listener
+     */
+    public boolean hasListeners(GameEventType type) {
+        return listeners[type.ordinal()].length > 0;
+    }
+
+    /**
+     * Fill in the event of a type and deliver it to its listeners. Only the game which owns the bus publishes, from
+     * one thread at a time.
+     * @param type event type
+     * @param x column, for PIECE_PLACED and PIECE_REJECTED
+     * @param y row, for PIECE_PLACED and PIECE_REJECTED
+     * @param right whether a rotation was clockwise, for PIECE_ROTATED
+     * @param lines lines cleared
+     * @param blocks blocks cleared, for LINES_CLEARED, or null
+     * @param score score after the event
+     * @param lives lives left after the event
+     * @param over whether the game is over after the event
+     */
+    void publish(GameEventType type, int x, int y, boolean right, int lines, Set<GameBlockCoordinate> blocks,
+                 int score, int lives, boolean over) {
+        var subscribed = listeners[type.ordinal()];
+        if (subscribed.length == 0) {
+            return;
+        }
+        var event = events[type.ordinal()].set(x, y, right, lines, blocks, score, lives, over);
+        for (GameEventListener listener : subscribed) {
+            deliverTo(listener, event);
+        }
+    }
+
+    private synchronized void add(GameEventType type, GameEventListener listener) {
+        var updated = listeners.clone();
+        var existing = updated[type.ordinal()];
+        updated[type.ordinal()] = Arrays.copyOf(existing, existing.length + 1);
+        updated[type.ordinal()][existing.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Call a single listener, so one failing listener does not stop the others receiving the event
+     * @param listener the listener
+     * @param event the event
+     */
+    private static void deliverTo(GameEventListener listener, GameEvent event) {
+        try {
+            listener.handleEvent(event);
+        } catch (Exception e) {
+            logger.error("Listener failed handling " + event.getType() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A subscription delivered in batches. Events are copied into one buffer as they are published while the other,
+     * once swapped out, is delivered on the executor, so at most one batch per subscription is scheduled at a time.
+     */
+    private static class Batch implements GameEventListener {
+
+        private final GameEventType type;
+        private final GameEventListener listener;
+        private final Executor executor;
+        private final Runnable drain = this::drain;
+
+        private GameEvent[] pending;
+        private GameEvent[] delivering;
+        private int pendingCount;
+        private boolean scheduled;
+
+        Batch(GameEventType type, GameEventListener listener, Executor executor) {
+            this.type = type;
+            this.listener = listener;
+            this.executor = executor;
+            pending = allocate(new GameEvent[0], BATCH_CAPACITY);
+            delivering = allocate(new GameEvent[0], BATCH_CAPACITY);
+        }
+
+        @Override
+        public void handleEvent(GameEvent event) {
+            boolean schedule;
+            synchronized (this) {
+                if (pendingCount == pending.length) {
+                    pending = allocate(pending, pending.length * 2);
+                }
+                pending[pendingCount++].copyFrom(event);
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            if (schedule) {
+                executor.execute(drain);
+            }
+        }
+
+        /**
+         * Deliver everything published since the last batch, then schedule another if more arrived meanwhile
+         */
+        private void drain() {
+            GameEvent[] batch;
+            int count;
+            synchronized (this) {
+                batch = pending;
+                count = pendingCount;
+                pending = delivering;
+                pendingCount = 0;
+                delivering = batch;
+            }
+            for (int i = 0; i < count; i++) {
+                deliverTo(listener, batch[i]);
+            }
+            boolean more;
+            synchronized (this) {
+                more = pendingCount > 0;
+                scheduled = more;
+            }
+            if (more) {
+                executor.execute(drain);
+            }
+        }
+
+        /**
+         * Grow a buffer, keeping the events already in it
+         */
+        private GameEvent[] allocate(GameEvent[] buffer, int capacity) {
+            var grown = Arrays.copyOf(buffer, capacity);
+            for (int i = buffer.length; i < capacity; i++) {
+                grown[i] = new GameEvent(type);
+            }
+            return grown;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package uk.ac.soton.comp1206.game;
+
+/**
+ * The kinds of event a game publishes on its event bus. Every event is published once the game has changed, so
+ * listeners see the game as the event left it.
+ */
+public enum GameEventType {
+
+    /**
+     * Blocks were cleared by the piece just played. Published before PIECE_PLACED, with the blocks already emptied.
+     */
+    LINES_CLEARED,
+
+    /**
+     * The current piece was played, any lines were cleared and the next piece drawn
+     */
+    PIECE_PLACED,
+
+    /**
+     * The current piece did not fit where the player tried to place it, and nothing changed
+     */
+    PIECE_REJECTED,
+
+    /**
+     * The current piece was rotated
+     */
+    PIECE_ROTATED,
+
+    /**
+     * The current and next pieces were swapped
+     */
+    PIECES_SWAPPED,
+
+    /**
+     * The timer ran out. A life has been lost and the next piece drawn, unless the game ended instead, in which case
+     * the event is over and GAME_ENDED follows.
+     */
+    TIMED_OUT,
+
+    /**
+     * The game is over
+     */
+    GAME_ENDED;
+
+    static final GameEventType[] VALUES = values();
+}
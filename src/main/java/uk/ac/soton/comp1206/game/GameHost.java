@@ -0,0 +1,108 @@
+package uk.ac.soton.comp1206.game;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs any number of games in one process on a fixed set of shared threads, for split screen, bot matches and
+ * spectator walls.
+ *
+ * Each hosted game runs in a GameEngine whose mailbox is a serial executor on a shared pool, so a game's moves and
+ * game loop still happen one at a time and in order, but games only use a thread while they have work to do. One
+ * scheduler thread times every game's loop and hands each one to its game when it is due. Games share nothing else:
+ * each keeps its own state, events and snapshots. Sound effects come from the shared clip cache in Multimedia, for
+ * whichever games a scene attaches them to.
+ */
+public class GameHost {
+
+    private static final Logger logger = LogManager.getLogger(GameHost.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService pool;
+    private final List<GameEngine> engines = new CopyOnWriteArrayList<>();
+
+    /**
+     * Create a host with a thread for every processor
+     */
+    public GameHost() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a host with the given number of threads to run games on
+     * @param threads pool size
+     */
+    public GameHost(int threads) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "game-host-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var count = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "game-host-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Hosting games on " + threads + " threads");
+    }
+
+    /**
+     * Start running a game on the host. The game must not be changed by any other thread from now on.
+     * @param game the game
+     * @return the engine running it
+     */
+    public GameEngine host(Game game) {
+        var engine = new GameEngine(game, scheduler, new SerialExecutor(pool));
+        engines.add(engine);
+        return engine;
+    }
+
+    /**
+     * Stop a game and stop hosting it, without waiting for the game to be saved
+     * @param engine the game's engine
+     * @return a future completed on the pool once the game has been saved
+     */
+    public CompletableFuture<Void> remove(GameEngine engine) {
+        engines.remove(engine);
+        return engine.stopAsync();
+    }
+
+    /**
+     * Get the games being hosted
+     * @return engines, in the order they were added
+     */
+    public List<GameEngine> getEngines() {
+        return Collections.unmodifiableList(engines);
+    }
+
+    /**
+     * Get the scheduler shared by the host's games, for anything else which needs timing, such as bots. Tasks on it
+     * must be short, and change a game only through its engine.
+     * @return scheduler
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Stop every game and the host's threads
+     */
+    public void shutdown() {
+        for (GameEngine engine : engines) {
+            engine.stop();
+        }
+        engines.clear();
+        scheduler.shutdownNow();
+        pool.shutdownNow();
+    }
+}
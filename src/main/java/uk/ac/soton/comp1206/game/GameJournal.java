@@ -0,0 +1,182 @@
+package uk.ac.soton.comp1206.game;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the game in progress on disk, so it can be resumed if the player leaves or the window is closed.
+ *
+ * The journal is a small fixed-size file mapped into memory, holding two slots. Each save is a few dozen bytes written
+ * into the older slot, so the newer one is never touched: if a save is cut short, its checksum will not match and the
+ * previous save is still there. Saving only writes to memory, and the operating system writes it to disk, so it
+ * survives the game crashing and is cheap enough to do after every placement.
+ *
+ * A slot holds a magic number, a sequence number, the length of the save, the save itself and a CRC of everything
+ * from the sequence number on. The save is a SavedState: the board, the pieces with their rotations, the score,
+ * multiplier, lives, level and the time left on the timer.
+ */
+public class GameJournal {
+
+    private static final Logger logger = LogManager.getLogger(GameJournal.class);
+
+    /**
+     * Where the game in progress is kept by default
+     */
+    public static final String DEFAULT_FILE = "src/main/resources/autosave";
+
+    private static final int JOURNAL_MAGIC = 0x54534A31;
+    private static final int SLOT_SIZE = 256;
+
+    /**
+     * Space in a slot for the magic number, sequence number, length and CRC
+     */
+    private static final int SLOT_OVERHEAD = 14;
+
+    private static GameJournal instance;
+
+    private final MappedByteBuffer slots;
+    private final ByteBuffer save = ByteBuffer.allocate(SLOT_SIZE - SLOT_OVERHEAD);
+    private final CRC32 crc = new CRC32();
+    private int sequence;
+
+    /**
+     * Open the journal in the given file, creating it if needed
+     * @param file the journal file
+     * @throws IOException if the file cannot be opened
+     */
+    public GameJournal(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            //The mapping stays valid once the channel is closed
+            slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * SLOT_SIZE);
+        }
+        int latest = latestSlot();
+        if (latest >= 0) {
+            sequence = slots.getInt(latest * SLOT_SIZE + 4);
+        }
+    }
+
+    /**
+     * Get the journal for the default file. If it cannot be opened, games are not saved.
+     * @return journal, or null if there is none
+     */
+    public static synchronized GameJournal getInstance() {
+        if (instance == null) {
+            try {
+                instance = new GameJournal(Path.of(DEFAULT_FILE));
+            } catch (IOException e) {
+                logger.error("Unable to open the autosave journal: " + e.getMessage());
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Save the state of a game, replacing the older of the two saves
+     * @param game game to save
+     */
+    public synchronized void write(Game game) {
+        save.clear();
+        if (SavedState.maxSize(game.cols, game.rows) > save.capacity()) {
+            logger.warn("Board is too large to save");
+            return;
+        }
+        SavedState.write(game, save);
+        save.flip();
+
+        sequence++;
+        int offset = (sequence & 1) * SLOT_SIZE;
+        slots.putInt(offset, 0);
+        slots.putInt(offset + 4, sequence);
+        slots.putShort(offset + 8, (short) save.remaining());
+        slots.put(offset + 10, save, 0, save.remaining());
+        crc.reset();
+        crc.update(slots.slice(offset + 4, 6 + save.remaining()));
+        slots.putInt(offset + 10 + save.remaining(), (int) crc.getValue());
+        slots.putInt(offset, JOURNAL_MAGIC);
+    }
+
+    /**
+     * Whether there is a saved game to resume
+     * @return true if there is a save
+     */
+    public synchronized boolean hasSave() {
+        return latestSlot() >= 0;
+    }
+
+    /**
+     * Rebuild the saved game, with its timer running again from where it was left
+     * @param cols number of columns the game should have
+     * @param rows number of rows the game should have
+     * @return the saved game, or null if there is no save or it is for a different board
+     */
+    public synchronized Game resume(int cols, int rows) {
+        long started = System.nanoTime();
+        int latest = latestSlot();
+        if (latest < 0) {
+            return null;
+        }
+        var in = slots.slice(latest * SLOT_SIZE + 10, slots.getShort(latest * SLOT_SIZE + 8));
+        if (in.get(0) != cols || in.get(1) != rows) {
+            logger.warn("Saved game is for a different board");
+            return null;
+        }
+
+        var game = new Game(cols, rows, SavedState.peekSeed(in));
+        SavedState.read(in, game);
+
+        logger.info("Resumed saved game in " + (System.nanoTime() - started) / 1000 + "us");
+        return game;
+    }
+
+    /**
+     * Throw away the saved game
+     */
+    public synchronized void clear() {
+        slots.putInt(0, 0);
+        slots.putInt(SLOT_SIZE, 0);
+    }
+
+    /**
+     * Make sure the latest save has reached the disk, not just the operating system
+     */
+    public synchronized void force() {
+        slots.force();
+    }
+
+    /**
+     * Find the slot holding the newest intact save
+     * @return slot number, or -1 if neither holds one
+     */
+    private int latestSlot() {
+        int latest = -1;
+        int latestSequence = 0;
+        for (int slot = 0; slot < 2; slot++) {
+            int offset = slot * SLOT_SIZE;
+            int length = slots.getShort(offset + 8);
+            if (slots.getInt(offset) != JOURNAL_MAGIC || length < 0 || length > SLOT_SIZE - SLOT_OVERHEAD) {
+                continue;
+            }
+            crc.reset();
+            crc.update(slots.slice(offset + 4, 6 + length));
+            if ((int) crc.getValue() != slots.getInt(offset + 10 + length)) {
+                logger.warn("Ignoring damaged save in slot " + slot);
+                continue;
+            }
+            int slotSequence = slots.getInt(offset + 4);
+            if (latest < 0 || slotSequence - latestSequence > 0) {
+                latest = slot;
+                latestSequence = slotSequence;
+            }
+        }
+        return latest;
+    }
+}
@@ -28,6 +28,11 @@ public class GamePiece {
      */
     private final String name;
 
+    /**
+     * Number of quarter turns clockwise this piece has been rotated, from 0 to 3
+     */
+    private int rotation;
+
     /**
      * Create a new GamePiece of the specified piece number
      * @param piece piece number
@@ -208,6 +213,15 @@ public class GamePiece {
         rotated[0][2] = blocks[2][2];
 
         blocks = rotated;
+        rotation = (rotation + 1) % 4;
+    }
+
+    /**
+     * Get how far this piece has been rotated from its starting orientation
+     * @return number of quarter turns clockwise, from 0 to 3
+     */
+    public int getRotation() {
+        return rotation;
     }
 
 
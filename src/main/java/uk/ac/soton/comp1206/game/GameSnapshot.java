@@ -0,0 +1,194 @@
+package uk.ac.soton.comp1206.game;
+
+/**
+ * An immutable copy of what can be seen of a game at one moment: the board, the current and next pieces, the score,
+ * multiplier, lives and level, and when the timer runs out.
+ *
+ * A game publishes a new snapshot through an AtomicReference after every change, so any thread can read a
+ * consistent view of it with a single volatile read, without locks or waiting for the JavaFX thread. The board is one
+ * byte per block and pieces are their number and rotation, so a snapshot is a few dozen bytes.
+ */
+public final class GameSnapshot {
+
+    private final long version;
+    private final int cols;
+    private final int rows;
+    private final byte[] blocks;
+    private final byte currentPiece;
+    private final byte nextPiece;
+    private final int score;
+    private final int multiplier;
+    private final int lives;
+    private final int level;
+    private final long deadline;
+    private final boolean over;
+
+    /**
+     * Take a snapshot of a game. Must be called on the thread which changes the game.
+     * @param game game to copy
+     * @param version one more than the version of the game's previous snapshot
+     */
+    GameSnapshot(Game game, long version) {
+        this.version = version;
+        this.cols = game.cols;
+        this.rows = game.rows;
+        this.blocks = new byte[cols * rows];
+        for (int x = 0; x < cols; x++) {
+            for (int y = 0; y < rows; y++) {
+                blocks[x * rows + y] = (byte) game.grid.get(x, y);
+            }
+        }
+        this.currentPiece = pieceByte(game.currentPiece);
+        this.nextPiece = pieceByte(game.nextPiece);
+        this.score = game.score.get();
+        this.multiplier = game.multiplier.get();
+        this.lives = game.lives.get();
+        this.level = game.level.get();
+        this.deadline = game.loopStartedAt + game.loopDelay;
+        this.over = game.gameOver;
+    }
+
+    /**
+     * Get the version of the snapshot, which goes up by one every time the game publishes a new one, so a reader can
+     * tell whether anything has changed since it last looked
+     * @return version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the number of columns
+     * @return columns
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Get the number of rows
+     * @return rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Get the value of a block
+     * @param x column
+     * @param y row
+     * @return 0 if empty, otherwise the value of the piece that filled it
+     */
+    public int get(int x, int y) {
+        return blocks[x * rows + y];
+    }
+
+    /**
+     * Get the value of the current piece
+     * @return value, from 1 to GamePiece.PIECES
+     */
+    public int getCurrentPieceValue() {
+        return (currentPiece >>> 2) + 1;
+    }
+
+    /**
+     * Get how far the current piece is rotated
+     * @return quarter turns clockwise
+     */
+    public int getCurrentPieceRotation() {
+        return currentPiece & 3;
+    }
+
+    /**
+     * Get the value of the next piece
+     * @return value, from 1 to GamePiece.PIECES
+     */
+    public int getNextPieceValue() {
+        return (nextPiece >>> 2) + 1;
+    }
+
+    /**
+     * Get how far the next piece is rotated
+     * @return quarter turns clockwise
+     */
+    public int getNextPieceRotation() {
+        return nextPiece & 3;
+    }
+
+    /**
+     * Create a copy of the current piece, rotated as it is in the game
+     * @return a new piece, which the reader is free to change
+     */
+    public GamePiece createCurrentPiece() {
+        return GamePiece.createPiece(currentPiece >>> 2, currentPiece & 3);
+    }
+
+    /**
+     * Create a copy of the next piece, rotated as it is in the game
+     * @return a new piece, which the reader is free to change
+     */
+    public GamePiece createNextPiece() {
+        return GamePiece.createPiece(nextPiece >>> 2, nextPiece & 3);
+    }
+
+    /**
+     * Get the score
+     * @return score
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Get the multiplier
+     * @return multiplier
+     */
+    public int getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * Get the lives left
+     * @return lives
+     */
+    public int getLives() {
+        return lives;
+    }
+
+    /**
+     * Get the level
+     * @return level
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Get when the game loop timer runs out
+     * @return milliseconds since the epoch
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Get how long was left on the timer at a given time
+     * @param now milliseconds since the epoch
+     * @return remaining time in milliseconds
+     */
+    public long getRemainingTime(long now) {
+        return Math.max(0, deadline - now);
+    }
+
+    /**
+     * Whether the game was over
+     * @return true once the game has ended
+     */
+    public boolean isOver() {
+        return over;
+    }
+
+    private static byte pieceByte(GamePiece piece) {
+        return (byte) ((piece.getValue() - 1) << 2 | piece.getRotation());
+    }
+}
@@ -0,0 +1,406 @@
+package uk.ac.soton.comp1206.game;
+
+/**
+ * The whole state of a game packed into a handful of primitive fields, so it can be copied in constant time and
+ * played forward without creating any objects. Used for undo, and by players which search ahead through moves.
+ *
+ * The 5x5 board is one nibble per block across two longs, with a 25 bit mask of the occupied blocks alongside, so
+ * whether a piece fits is a single AND against a mask worked out in advance for every piece, rotation and position.
+ * Pieces are kept as their number and rotation, and the piece sequence as the state of the game's PieceRandom.
+ *
+ * Moves follow the same rules as Game and Grid, so a state played forward stays the same as a game given the same
+ * moves. Instances are mutable for speed: a search keeps one state per depth and copies into it with copyFrom().
+ */
+public class GameState {
+
+    /**
+     * The board size a state holds, which is the size Grid's rules are written for
+     */
+    public static final int COLS = 5;
+    public static final int ROWS = 5;
+    public static final int CELLS = COLS * ROWS;
+
+    /**
+     * Occupied block mask for every piece and rotation played at every block, or 0 where it does not fit on the board
+     */
+    private static final int[][] PLACEMENTS = new int[GamePiece.PIECES * 4][CELLS];
+
+    /**
+     * Block masks for each full column then each full row
+     */
+    private static final int[] LINES = new int[COLS + ROWS];
+
+    static {
+        for (int piece = 0; piece < GamePiece.PIECES; piece++) {
+            var gamePiece = GamePiece.createPiece(piece);
+            for (int rotation = 0; rotation < 4; rotation++) {
+                int[][] blocks = gamePiece.getBlocks();
+                for (int x = 0; x < COLS; x++) {
+                    for (int y = 0; y < ROWS; y++) {
+                        PLACEMENTS[piece * 4 + rotation][cell(x, y)] = mask(blocks, x, y);
+                    }
+                }
+                gamePiece.rotate();
+            }
+        }
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 5; j++) {
+                LINES[i] |= 1 << cell(i, j);
+                LINES[COLS + i] |= 1 << cell(j, i);
+            }
+        }
+    }
+
+    private long low;
+    private long high;
+    private int occupied;
+    private int current;
+    private int next;
+    private int score;
+    private int multiplier;
+    private int lives;
+    private int level;
+    private long random;
+    private int draws;
+    private int placements;
+    private int linesCleared;
+    private boolean over;
+
+    /**
+     * Create an empty state, to be filled from a game or copied into from another state
+     */
+    public GameState() {
+    }
+
+    /**
+     * Copy another state into this one
+     * @param other state to copy
+     */
+    public void copyFrom(GameState other) {
+        low = other.low;
+        high = other.high;
+        occupied = other.occupied;
+        current = other.current;
+        next = other.next;
+        score = other.score;
+        multiplier = other.multiplier;
+        lives = other.lives;
+        level = other.level;
+        random = other.random;
+        draws = other.draws;
+        placements = other.placements;
+        linesCleared = other.linesCleared;
+        over = other.over;
+    }
+
+    /**
+     * Whether the current piece fits centred on a block
+     * @param x column
+     * @param y row
+     * @return true if it fits
+     */
+    public boolean canPlay(int x, int y) {
+        int mask = PLACEMENTS[current][cell(x, y)];
+        return mask != 0 && (occupied & mask) == 0;
+    }
+
+    /**
+     * Play the current piece centred on a block, clearing any full lines and drawing the next piece, as Game does
+     * @param x column
+     * @param y row
+     * @return number of lines cleared, or -1 if the piece does not fit and nothing was played
+     */
+    public int play(int x, int y) {
+        int mask = PLACEMENTS[current][cell(x, y)];
+        if (over || mask == 0 || (occupied & mask) != 0) {
+            return -1;
+        }
+
+        int value = (current >>> 2) + 1;
+        occupied |= mask;
+        for (int blocks = mask; blocks != 0; blocks &= blocks - 1) {
+            setCell(Integer.numberOfTrailingZeros(blocks), value);
+        }
+
+        int lines = 0;
+        int cleared = 0;
+        for (int line : LINES) {
+            if ((occupied & line) == line) {
+                lines++;
+                cleared |= line;
+            }
+        }
+        occupied &= ~cleared;
+        for (int blocks = cleared; blocks != 0; blocks &= blocks - 1) {
+            setCell(Integer.numberOfTrailingZeros(blocks), 0);
+        }
+
+        score += lines * Integer.bitCount(cleared) * 10 * multiplier;
+        multiplier = lines == 0 ? 1 : multiplier + 1;
+        placements++;
+        linesCleared += lines;
+        advancePieces();
+        return lines;
+    }
+
+    /**
+     * Rotate the current piece
+     * @param right true for clockwise
+     */
+    public void rotate(boolean right) {
+        int rotation = ((current & 3) + (right ? 1 : 3)) & 3;
+        current = (current & ~3) | rotation;
+    }
+
+    /**
+     * Swap the current and next pieces
+     */
+    public void swap() {
+        int temp = current;
+        current = next;
+        next = temp;
+    }
+
+    /**
+     * Behave as the game loop does when the timer runs out: lose a life and move on to the next piece, or end the game
+     */
+    public void timeout() {
+        if (over) {
+            return;
+        }
+        if (lives == 3) {
+            over = true;
+            return;
+        }
+        advancePieces();
+        lives--;
+        multiplier = 1;
+    }
+
+    /**
+     * Get the value of a block
+     * @param x column
+     * @param y row
+     * @return 0 if empty, otherwise the value of the piece that filled it
+     */
+    public int get(int x, int y) {
+        return getCell(cell(x, y));
+    }
+
+    /**
+     * Get the mask of occupied blocks, with the block at column x and row y at bit x * ROWS + y
+     * @return occupied mask
+     */
+    public int getOccupied() {
+        return occupied;
+    }
+
+    /**
+     * Get the current piece
+     * @return piece number, from 0 to GamePiece.PIECES - 1
+     */
+    public int getCurrentPiece() {
+        return current >>> 2;
+    }
+
+    /**
+     * Get how far the current piece is rotated
+     * @return quarter turns clockwise
+     */
+    public int getCurrentRotation() {
+        return current & 3;
+    }
+
+    /**
+     * Get the next piece
+     * @return piece number, from 0 to GamePiece.PIECES - 1
+     */
+    public int getNextPiece() {
+        return next >>> 2;
+    }
+
+    /**
+     * Get how far the next piece is rotated
+     * @return quarter turns clockwise
+     */
+    public int getNextRotation() {
+        return next & 3;
+    }
+
+    /**
+     * Get the score
+     * @return score
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Get the multiplier
+     * @return multiplier
+     */
+    public int getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * Get the lives left
+     * @return lives
+     */
+    public int getLives() {
+        return lives;
+    }
+
+    /**
+     * Get the number of lines cleared
+     * @return lines cleared
+     */
+    public int getLinesCleared() {
+        return linesCleared;
+    }
+
+    /**
+     * Whether the game is over
+     * @return true once the game has ended
+     */
+    public boolean isOver() {
+        return over;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GameState other)) {
+            return false;
+        }
+        return low == other.low && high == other.high && current == other.current && next == other.next
+                && score == other.score && multiplier == other.multiplier && lives == other.lives
+                && level == other.level && random == other.random && draws == other.draws
+                && placements == other.placements && linesCleared == other.linesCleared && over == other.over;
+    }
+
+    @Override
+    public int hashCode() {
+        long hash = low * 31 + high;
+        hash = hash * 31 + current;
+        hash = hash * 31 + next;
+        hash = hash * 31 + score;
+        hash = hash * 31 + random;
+        return Long.hashCode(hash * 31 + lives);
+    }
+
+    /**
+     * Take the state of a game. Game's grid keeps its blocks packed as they change, so this copies a few fields.
+     * @param game game to copy
+     * @throws IllegalArgumentException if the game's board is not 5x5
+     */
+    void capture(Game game) {
+        if (game.cols != COLS || game.rows != ROWS) {
+            throw new IllegalArgumentException("Game state only holds a " + COLS + "x" + ROWS + " board");
+        }
+        low = game.grid.getPackedLow();
+        high = game.grid.getPackedHigh();
+        occupied = game.grid.getOccupied();
+        current = pieceCode(game.currentPiece);
+        next = pieceCode(game.nextPiece);
+        score = game.score.get();
+        multiplier = game.multiplier.get();
+        lives = game.lives.get();
+        level = game.level.get();
+        random = game.random.getState();
+        draws = game.draws;
+        placements = game.placements;
+        linesCleared = game.linesCleared;
+        over = game.gameOver;
+    }
+
+    /**
+     * Put a game back into this state. Only the blocks which differ are set on the grid.
+     * @param game game to change
+     */
+    void restore(Game game) {
+        long lowChanged = game.grid.getPackedLow() ^ low;
+        long highChanged = game.grid.getPackedHigh() ^ high;
+        for (int cell = 0; cell < CELLS; cell++) {
+            long changed = cell < 16 ? lowChanged >>> (cell * 4) : highChanged >>> ((cell - 16) * 4);
+            if ((changed & 0xF) != 0) {
+                game.grid.set(cell / ROWS, cell % ROWS, getCell(cell));
+            }
+        }
+        if (pieceCode(game.currentPiece) != current) {
+            game.currentPiece = GamePiece.createPiece(current >>> 2, current & 3);
+        }
+        if (pieceCode(game.nextPiece) != next) {
+            game.nextPiece = GamePiece.createPiece(next >>> 2, next & 3);
+        }
+        game.score.set(score);
+        game.multiplier.set(multiplier);
+        game.lives.set(lives);
+        game.level.set(level);
+        game.random.setState(random);
+        game.draws = draws;
+        game.placements = placements;
+        game.linesCleared = linesCleared;
+        game.gameOver = over;
+    }
+
+    /**
+     * Get the blocks a piece covers when centred on a block
+     * @param piece piece number
+     * @param rotation quarter turns clockwise
+     * @param cell block, as x * ROWS + y
+     * @return occupied block mask, or 0 if part of the piece is off the board
+     */
+    static int getPlacement(int piece, int rotation, int cell) {
+        return PLACEMENTS[piece * 4 + rotation][cell];
+    }
+
+    private void advancePieces() {
+        long drawn = PieceRandom.drawPiece(random);
+        random = drawn >>> 8;
+        draws++;
+        current = next;
+        next = (int) (drawn & 0xFF) << 2;
+    }
+
+    private int getCell(int cell) {
+        return (int) ((cell < 16 ? low >>> (cell * 4) : high >>> ((cell - 16) * 4)) & 0xF);
+    }
+
+    private void setCell(int cell, int value) {
+        if (cell < 16) {
+            low = (low & ~(0xFL << (cell * 4))) | (long) value << (cell * 4);
+        } else {
+            high = (high & ~(0xFL << ((cell - 16) * 4))) | (long) value << ((cell - 16) * 4);
+        }
+    }
+
+    private static int pieceCode(GamePiece piece) {
+        return (piece.getValue() - 1) << 2 | piece.getRotation();
+    }
+
+    private static int cell(int x, int y) {
+        return x * ROWS + y;
+    }
+
+    /**
+     * Work out which blocks a piece covers when centred on a block
+     * @return the mask, or 0 if part of the piece is off the board
+     */
+    private static int mask(int[][] blocks, int x, int y) {
+        int mask = 0;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                if (blocks[i][j] == 0) {
+                    continue;
+                }
+                int bx = x + i - 1;
+                int by = y + j - 1;
+                if (bx < 0 || bx >= COLS || by < 0 || by >= ROWS) {
+                    return 0;
+                }
+                mask |= 1 << cell(bx, by);
+            }
+        }
+        return mask;
+    }
+}
@@ -40,6 +40,14 @@ public class Grid {
      */
     private final SimpleIntegerProperty[][] grid;
 
+    /**
+     * The values of the first 32 blocks, a nibble each, and which of them are occupied, kept up to date as blocks are
+     * set so GameState can take the board without reading every property. Block x,y is number x * rows + y.
+     */
+    private long packedLow;
+    private long packedHigh;
+    private int occupied;
+
     /**
      * Create a new Grid with the specified number of columns and rows and initialise them
      * @param cols number of columns
@@ -78,6 +86,16 @@ public class Grid {
      */
     public void set(int x, int y, int value) {
         grid[x][y].set(value);
+
+        int cell = x * rows + y;
+        if (cell < 16) {
+            packedLow = (packedLow & ~(0xFL << (cell * 4))) | (long) (value & 0xF) << (cell * 4);
+        } else if (cell < 32) {
+            packedHigh = (packedHigh & ~(0xFL << ((cell - 16) * 4))) | (long) (value & 0xF) << ((cell - 16) * 4);
+        }
+        if (cell < 32) {
+            occupied = value == 0 ? occupied & ~(1 << cell) : occupied | 1 << cell;
+        }
     }
 
     /**
@@ -96,6 +114,30 @@ public class Grid {
         }
     }
 
+    /**
+     * Get the values of blocks 0 to 15, a nibble each
+     * @return packed values
+     */
+    long getPackedLow() {
+        return packedLow;
+    }
+
+    /**
+     * Get the values of blocks 16 to 31, a nibble each
+     * @return packed values
+     */
+    long getPackedHigh() {
+        return packedHigh;
+    }
+
+    /**
+     * Get which of the first 32 blocks are occupied
+     * @return occupied mask
+     */
+    int getOccupied() {
+        return occupied;
+    }
+
     /**
      * Get the number of columns in this game
      * @return number of columns
@@ -0,0 +1,75 @@
+package uk.ac.soton.comp1206.game;
+
+import javafx.beans.property.SimpleIntegerProperty;
+
+import java.util.Random;
+
+/**
+ * A Game which runs without a window or a timer. Instead of the game loop firing on its own, whoever is
+ * driving the game calls timeout() when the player would have run out of time. Used for simulated players and tools.
+ */
+public class HeadlessGame extends Game {
+
+    /**
+     * Create a new headless game
+     * @param cols number of columns
+     * @param rows number of rows
+     * @param seed seed for the piece sequence
+     */
+    public HeadlessGame(int cols, int rows, long seed) {
+        super(cols, rows, seed);
+    }
+
+    /**
+     * Starts from no high score rather than the player's, so simulated players and tools never open the score files
+     */
+    @Override
+    protected void initialiseHighScore() {
+        highScore = new SimpleIntegerProperty(0);
+    }
+
+    /**
+     * No timer runs in a headless game
+     */
+    @Override
+    protected void scheduleGameLoop(long delay) {
+    }
+
+    /**
+     * Behave as if the timer ran out before a piece was played
+     */
+    public void timeout() {
+        if (!gameOver) {
+            gameLoop();
+        }
+    }
+
+    /**
+     * Play the current piece somewhere it fits, trying positions in a random order and rotating or swapping the piece
+     * if it does not fit anywhere. If nothing fits the game times out, as a real player would.
+     * @param chooser source of randomness for choosing the position
+     * @return true if a piece was played, false if the game timed out instead
+     */
+    public boolean playRandomMove(Random chooser) {
+        int cells = cols * rows;
+        int start = chooser.nextInt(cells);
+
+        //Try every rotation of the current piece, then every rotation of the next one
+        for (int attempt = 0; attempt < 8; attempt++) {
+            if (attempt == 4) {
+                swapPieces();
+            }
+            for (int i = 0; i < cells; i++) {
+                int cell = (start + i) % cells;
+                if (grid.canPlayPiece(currentPiece, cell % cols, cell / cols).getKey()) {
+                    placePiece(cell % cols, cell / cols);
+                    return true;
+                }
+            }
+            rotateCurrentPiece(true);
+        }
+
+        timeout();
+        return false;
+    }
+}
@@ -0,0 +1,207 @@
+package uk.ac.soton.comp1206.game;
+
+import javafx.beans.property.SimpleIntegerProperty;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Measures what it costs to run many real games at once on a GameHost, as a split screen or spectator wall would.
+ *
+ * Every game is a full game with its own timer, played by a simple bot which makes a move at a fixed rate through the
+ * game's engine. A game which ends is replaced with a new one, so the number of games stays the same. The report gives
+ * the heap each game takes, the threads the process needs, the CPU used per game as a share of one core, and how late
+ * the game loops fired.
+ *
+ * Usage: HostBenchmark [--games 64] [--seconds 30] [--move-ms 500] [--threads n]. Without --threads the host has a
+ * thread for every processor. Run with -Dtetrecs.logLevel=warn so logging from the games does not skew the
+ * measurements.
+ */
+public class HostBenchmark {
+
+    private static final Logger logger = LogManager.getLogger(HostBenchmark.class);
+
+    /**
+     * A full game with its own timer, which starts from no high score rather than the player's, so the benchmark never
+     * opens the score files
+     */
+    private static class BenchmarkGame extends Game {
+        private BenchmarkGame() {
+            super(5, 5);
+        }
+
+        @Override
+        protected void initialiseHighScore() {
+            highScore = new SimpleIntegerProperty(0);
+        }
+    }
+
+    private final GameHost host;
+    private final int games;
+    private final long duration;
+    private final long moveInterval;
+
+    private volatile boolean running = true;
+    private final AtomicLong moves = new AtomicLong();
+    private final AtomicLong finished = new AtomicLong();
+    private final AtomicLong loops = new AtomicLong();
+    private final AtomicLong totalLateness = new AtomicLong();
+    private final AtomicLong maxLateness = new AtomicLong();
+
+    /**
+     * Play one move: the first place the current piece fits, or else rotate or swap and try again next time
+     */
+    private final Consumer<Game> botMove = game -> {
+        if (game.isGameOver()) {
+            return;
+        }
+        var random = ThreadLocalRandom.current();
+        var grid = game.getGrid();
+        int start = random.nextInt(game.getCols() * game.getRows());
+        for (int i = 0; i < game.getCols() * game.getRows(); i++) {
+            int cell = (start + i) % (game.getCols() * game.getRows());
+            int x = cell % game.getCols();
+            int y = cell / game.getCols();
+            if (grid.canPlayPiece(game.getCurrentPiece(), x, y).getKey()) {
+                game.placePiece(x, y);
+                moves.incrementAndGet();
+                return;
+            }
+        }
+        if (random.nextBoolean()) {
+            game.rotateCurrentPiece(true);
+        } else {
+            game.swapPieces();
+        }
+    };
+
+    /**
+     * Create a benchmark
+     * @param threads threads for the host to run games on
+     * @param games number of games to keep running
+     * @param duration how long to measure for, in milliseconds
+     * @param moveInterval time between each bot's moves, in milliseconds
+     */
+    public HostBenchmark(int threads, int games, long duration, long moveInterval) {
+        this.host = new GameHost(threads);
+        this.games = games;
+        this.duration = duration;
+        this.moveInterval = moveInterval;
+    }
+
+    /**
+     * Run the benchmark from the command line
+     * @param args options, see the class description
+     * @throws Exception if the run fails
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+
+        var benchmark = new HostBenchmark(
+                Integer.parseInt(options.getOrDefault("--threads",
+                        String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                Integer.parseInt(options.getOrDefault("--games", "64")),
+                Long.parseLong(options.getOrDefault("--seconds", "30")) * 1000,
+                Long.parseLong(options.getOrDefault("--move-ms", "500")));
+        benchmark.run();
+    }
+
+    /**
+     * Start the games, let them play for the configured time and log a report
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void run() throws InterruptedException {
+        long heapBefore = usedHeap();
+        long threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        logger.info("Starting " + games + " games");
+        for (int i = 0; i < games; i++) {
+            start();
+        }
+        Thread.sleep(2000);
+        long heapPerGame = (usedHeap() - heapBefore) / games;
+        long threadsAdded = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+
+        loops.set(0);
+        totalLateness.set(0);
+        maxLateness.set(0);
+        long cpuBefore = processCpuTime();
+        long startTime = System.nanoTime();
+        long movesBefore = moves.get();
+        Thread.sleep(duration);
+        long cpu = processCpuTime() - cpuBefore;
+        long elapsed = System.nanoTime() - startTime;
+        long played = moves.get() - movesBefore;
+
+        running = false;
+        host.shutdown();
+
+        double coreShare = cpu < 0 ? Double.NaN : 100.0 * cpu / elapsed;
+        logger.info(String.format("%d games on %d threads added to the process", games, threadsAdded));
+        logger.info(String.format("Heap per game %.1f KiB", heapPerGame / 1024.0));
+        logger.info(String.format("CPU %.2f%% of one core, %.3f%% per game", coreShare, coreShare / games));
+        logger.info(String.format("%.0f moves/s, %d games finished", played * 1e9 / elapsed, finished.get()));
+        if (loops.get() > 0) {
+            logger.info(String.format("Game loops fired %.2fms late on average, %dms at worst",
+                    totalLateness.get() / (double) loops.get(), maxLateness.get()));
+        }
+    }
+
+    /**
+     * Host a new game with a bot playing it, replacing it with another when it ends
+     */
+    private void start() {
+        var game = new BenchmarkGame();
+        game.start();
+        var engine = host.host(game);
+
+        //Record how late the timer ran out against the deadline the game set for it
+        long[] deadline = {engine.getSnapshot().getDeadline()};
+        var events = game.getEvents();
+        events.subscribe(GameEventType.PIECE_PLACED, event -> deadline[0] = game.getSnapshot().getDeadline());
+        events.subscribe(GameEventType.TIMED_OUT, event -> {
+            long late = Math.max(0, System.currentTimeMillis() - deadline[0]);
+            loops.incrementAndGet();
+            totalLateness.addAndGet(late);
+            maxLateness.accumulateAndGet(late, Math::max);
+            deadline[0] = game.getSnapshot().getDeadline();
+        });
+
+        var bot = host.getScheduler().scheduleAtFixedRate(() -> engine.run(botMove),
+                ThreadLocalRandom.current().nextLong(moveInterval), moveInterval, TimeUnit.MILLISECONDS);
+        events.subscribe(GameEventType.GAME_ENDED, event -> {
+            finished.incrementAndGet();
+            bot.cancel(false);
+            if (running) {
+                //Runs on the pool once the game is saved, leaving the scheduler free to time the other games
+                host.remove(engine).whenComplete((result, e) -> start());
+            }
+        });
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        var runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long processCpuTime() {
+        var os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean sun) {
+            return sun.getProcessCpuTime();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,66 @@
+package uk.ac.soton.comp1206.game;
+
+/**
+ * A copy of a game running on another thread, for the UI to bind to on the JavaFX thread. The mirror never plays
+ * itself: once per frame the UI shows the latest snapshot of the real game on it, which updates its grid, pieces and
+ * properties, so the UI can read it like any other game.
+ */
+public final class MirrorGame extends Game {
+
+    private long version;
+
+    /**
+     * Create a mirror of a game, showing its latest snapshot
+     * @param source the game to mirror
+     */
+    public MirrorGame(Game source) {
+        super(source.cols, source.rows, source.seed);
+        show(source.getSnapshot());
+    }
+
+    /**
+     * The mirror has no timer of its own: the snapshots say when the real game's timer runs out
+     */
+    @Override
+    protected void scheduleGameLoop(long delay) {
+    }
+
+    /**
+     * Show a snapshot of the real game, if it is newer than the one already shown. Only blocks which have changed are
+     * set on the grid.
+     * @param snapshot snapshot to show
+     * @return true if anything changed
+     */
+    public boolean show(GameSnapshot snapshot) {
+        if (snapshot == null || snapshot.getVersion() == version) {
+            return false;
+        }
+        version = snapshot.getVersion();
+
+        for (int x = 0; x < cols; x++) {
+            for (int y = 0; y < rows; y++) {
+                if (grid.get(x, y) != snapshot.get(x, y)) {
+                    grid.set(x, y, snapshot.get(x, y));
+                }
+            }
+        }
+        if (currentPiece.getValue() != snapshot.getCurrentPieceValue()
+                || currentPiece.getRotation() != snapshot.getCurrentPieceRotation()) {
+            currentPiece = snapshot.createCurrentPiece();
+        }
+        if (nextPiece.getValue() != snapshot.getNextPieceValue()
+                || nextPiece.getRotation() != snapshot.getNextPieceRotation()) {
+            nextPiece = snapshot.createNextPiece();
+        }
+        score.set(snapshot.getScore());
+        multiplier.set(snapshot.getMultiplier());
+        lives.set(snapshot.getLives());
+        level.set(snapshot.getLevel());
+        gameOver = snapshot.isOver();
+
+        //Time the bar from now to the real game's deadline
+        loopStartedAt = System.currentTimeMillis();
+        loopDelay = snapshot.getRemainingTime(loopStartedAt);
+        return true;
+    }
+}
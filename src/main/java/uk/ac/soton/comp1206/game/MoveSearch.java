@@ -0,0 +1,252 @@
+package uk.ac.soton.comp1206.game;
+
+/**
+ * Finds the best move from a game state by playing every move forward a number of pieces deep, scoring the points won
+ * plus how good the board is left, as judged by a BoardEvaluator.
+ *
+ * A move is an optional swap, a number of clockwise rotations and a block to centre the piece on, packed into an int.
+ * The piece sequence is part of the state, so pieces after the next are searched exactly as they will be dealt.
+ * Searches deepen one piece at a time until the depth is reached or the time budget runs out, and the best move from
+ * the deepest finished search is used, so a move is always found in time. A search keeps one state per depth and
+ * allocates nothing, and an instance is for one thread at a time.
+ */
+public class MoveSearch {
+
+    /**
+     * Returned when the current piece does not fit anywhere, even after swapping
+     */
+    public static final int NONE = -1;
+
+    /**
+     * Value of a game which ends, worse than any board which can still be played
+     */
+    private static final double GAME_OVER = -1_000_000;
+
+    /**
+     * How many boards to evaluate between checks of the clock
+     */
+    private static final int CLOCK_INTERVAL = 256;
+
+    /**
+     * Whether a piece covers the same blocks in two rotations, so only one of them need be searched
+     */
+    private static final boolean[][][] SAME_BLOCKS = new boolean[GamePiece.PIECES][4][4];
+
+    static {
+        for (int piece = 0; piece < GamePiece.PIECES; piece++) {
+            for (int rotation = 0; rotation < 4; rotation++) {
+                for (int other = 0; other < 4; other++) {
+                    SAME_BLOCKS[piece][rotation][other] = sameBlocks(piece, rotation, other);
+                }
+            }
+        }
+    }
+
+    private final BoardEvaluator evaluator;
+    private final int depth;
+    private final GameState[] pieces;
+    private final GameState[] boards;
+
+    private long deadline;
+    private boolean outOfTime;
+    private int evaluations;
+    private int bestMove;
+
+    /**
+     * Create a search
+     * @param evaluator evaluator to score boards with
+     * @param depth how many pieces to play ahead, at least 1
+     */
+    public MoveSearch(BoardEvaluator evaluator, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Search depth must be at least 1");
+        }
+        this.evaluator = evaluator;
+        this.depth = depth;
+        pieces = new GameState[depth];
+        boards = new GameState[depth];
+        for (int i = 0; i < depth; i++) {
+            pieces[i] = new GameState();
+            boards[i] = new GameState();
+        }
+    }
+
+    /**
+     * Find the best move, searching one piece deep whatever the budget, then deeper while there is time
+     * @param state state to move from, which is not changed
+     * @param budget time allowed in nanoseconds
+     * @return the move, or NONE if the piece cannot be played or the game is over
+     */
+    public int findMove(GameState state, long budget) {
+        if (state.isOver()) {
+            return NONE;
+        }
+        deadline = System.nanoTime() + budget;
+        outOfTime = false;
+        evaluations = 0;
+
+        int best = NONE;
+        for (int searchDepth = 1; searchDepth <= depth; searchDepth++) {
+            search(state, searchDepth, 0, searchDepth > 1);
+            if (outOfTime) {
+                break;
+            }
+            best = bestMove;
+            if (best == NONE) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Play a move on a state
+     * @param state state to change
+     * @param move move to play
+     * @return number of lines cleared, or -1 if the piece did not fit
+     */
+    public static int play(GameState state, int move) {
+        if (isSwap(move)) {
+            state.swap();
+        }
+        for (int i = 0; i < getRotations(move); i++) {
+            state.rotate(true);
+        }
+        return state.play(getX(move), getY(move));
+    }
+
+    /**
+     * Play a move on a game, as a player would
+     * @param game game to change
+     * @param move move to play
+     * @return true if the piece was played
+     */
+    public static boolean play(Game game, int move) {
+        if (isSwap(move)) {
+            game.swapPieces();
+        }
+        for (int i = 0; i < getRotations(move); i++) {
+            game.rotateCurrentPiece(true);
+        }
+        return game.placePiece(getX(move), getY(move));
+    }
+
+    /**
+     * Whether a move swaps the current and next pieces first
+     * @param move move
+     * @return true to swap
+     */
+    public static boolean isSwap(int move) {
+        return (move & 0x80) != 0;
+    }
+
+    /**
+     * Get the clockwise rotations a move makes, after any swap
+     * @param move move
+     * @return rotations, from 0 to 3
+     */
+    public static int getRotations(int move) {
+        return (move >>> 5) & 3;
+    }
+
+    /**
+     * Get the column a move centres the piece on
+     * @param move move
+     * @return column
+     */
+    public static int getX(int move) {
+        return (move & 0x1F) / GameState.ROWS;
+    }
+
+    /**
+     * Get the row a move centres the piece on
+     * @param move move
+     * @return row
+     */
+    public static int getY(int move) {
+        return (move & 0x1F) % GameState.ROWS;
+    }
+
+    /**
+     * Try every move from a state, keeping the best one at the top of the search
+     * @return the value of the best move
+     */
+    private double search(GameState state, int remaining, int ply, boolean timed) {
+        double bestValue = Double.NEGATIVE_INFINITY;
+        int best = NONE;
+
+        var piece = pieces[ply];
+        var board = boards[ply];
+        for (int swap = 0; swap < 2; swap++) {
+            if (swap == 1 && state.getCurrentPiece() == state.getNextPiece()
+                    && state.getCurrentRotation() == state.getNextRotation()) {
+                break;
+            }
+            piece.copyFrom(state);
+            if (swap == 1) {
+                piece.swap();
+            }
+            int start = piece.getCurrentRotation();
+            for (int rotations = 0; rotations < 4; rotations++) {
+                if (rotations > 0) {
+                    piece.rotate(true);
+                }
+                if (isRepeat(piece.getCurrentPiece(), start, rotations)) {
+                    continue;
+                }
+                for (int cell = 0; cell < GameState.CELLS; cell++) {
+                    int x = cell / GameState.ROWS;
+                    int y = cell % GameState.ROWS;
+                    if (!piece.canPlay(x, y)) {
+                        continue;
+                    }
+                    board.copyFrom(piece);
+                    board.play(x, y);
+
+                    double value = remaining == 1 ? evaluate(board, timed)
+                            : search(board, remaining - 1, ply + 1, timed);
+                    if (outOfTime) {
+                        return 0;
+                    }
+                    if (value > bestValue) {
+                        bestValue = value;
+                        best = swap << 7 | rotations << 5 | cell;
+                    }
+                }
+            }
+        }
+
+        if (ply == 0) {
+            bestMove = best;
+        }
+        return best == NONE ? GAME_OVER + state.getScore() : bestValue;
+    }
+
+    /**
+     * Whether a number of rotations from the starting rotation covers the same blocks as fewer would
+     */
+    private static boolean isRepeat(int piece, int start, int rotations) {
+        for (int fewer = 0; fewer < rotations; fewer++) {
+            if (SAME_BLOCKS[piece][(start + rotations) & 3][(start + fewer) & 3]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double evaluate(GameState board, boolean timed) {
+        if (timed && ++evaluations % CLOCK_INTERVAL == 0 && System.nanoTime() - deadline > 0) {
+            outOfTime = true;
+        }
+        return board.getScore() + evaluator.evaluate(board);
+    }
+
+    private static boolean sameBlocks(int piece, int rotation, int other) {
+        for (int cell = 0; cell < GameState.CELLS; cell++) {
+            if (GameState.getPlacement(piece, rotation, cell) != GameState.getPlacement(piece, other, cell)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,79 @@
+package uk.ac.soton.comp1206.game;
+
+import java.util.Random;
+
+/**
+ * The generator pieces are drawn from. It produces exactly the same numbers as java.util.Random with the same seed,
+ * using the same linear congruential generator, but its whole state is a single long which can be read and set. That
+ * lets a game's piece sequence be saved and rolled back in constant time, where a Random could only be rebuilt by
+ * reseeding it and drawing every piece again.
+ */
+public class PieceRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    /**
+     * Not initialised here, as Random's constructor sets it through setSeed() before this class's initialisers run
+     */
+    private long state;
+
+    /**
+     * Create a generator with the given seed
+     * @param seed seed
+     */
+    public PieceRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = advance(state);
+        return (int) (state >>> (48 - bits));
+    }
+
+    /**
+     * Get the generator's state
+     * @return state
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Put the generator back to a state it was in
+     * @param state state from getState()
+     */
+    public void setState(long state) {
+        this.state = state;
+    }
+
+    /**
+     * Draw a piece number from a generator state, as nextInt(GamePiece.PIECES) would, without needing a generator
+     * @param state generator state, which is advanced
+     * @return the new state in the upper bits and the piece number in the lower 8 bits
+     */
+    static long drawPiece(long state) {
+        int bound = GamePiece.PIECES;
+        state = advance(state);
+        int u = (int) (state >>> 17);
+        int r;
+        while (u - (r = u % bound) + bound - 1 < 0) {
+            state = advance(state);
+            u = (int) (state >>> 17);
+        }
+        return state << 8 | r;
+    }
+
+    private static long advance(long state) {
+        return (state * MULTIPLIER + ADDEND) & MASK;
+    }
+}
@@ -0,0 +1,446 @@
+package uk.ac.soton.comp1206.game;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.ac.soton.comp1206.score.AtomicFiles;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * A recording of one game: the seed its pieces were drawn from and every input the player made, each with the time it
+ * was made. Playing the inputs into a new game with the same seed plays the same game again.
+ *
+ * Each event is a varint holding the milliseconds since the previous event and the event type, followed for a
+ * placement by a varint holding the block it was played on. Most events take two or three bytes, so a whole game is
+ * usually under a few KB.
+ *
+ * Every ten seconds or so of play, the events are interleaved with a keyframe holding the whole state of the game as a
+ * SavedState, marked by a type of its own and followed by its length. An index of the keyframes maps each one's time
+ * to its offset in the events and the number of events before it, so seeking jumps to the last keyframe before the
+ * time sought and only plays the events after it.
+ *
+ * A replay file holds a magic number, the board size, the seed, when the game started, the final score, the number of
+ * events and their length, the events, the keyframe index, and a CRC of everything before it. Files are read through
+ * a memory mapping, and events and keyframes are decoded straight from the mapping as they are needed.
+ */
+public class Replay {
+
+    private static final Logger logger = LogManager.getLogger(Replay.class);
+
+    /**
+     * Where replays are kept by default
+     */
+    public static final String DEFAULT_DIRECTORY = "src/main/resources/replays";
+
+    private static final int REPLAY_MAGIC = 0x54525032;
+    private static final String SUFFIX = ".replay";
+
+    /**
+     * Bits of an event's first varint holding the event type
+     */
+    static final int TYPE_BITS = 3;
+
+    /**
+     * The type marking a keyframe among the events
+     */
+    static final int KEYFRAME = (1 << TYPE_BITS) - 1;
+
+    private static final ExecutorService io = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "replay-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int cols;
+    private final int rows;
+    private final long seed;
+    private final long startTime;
+    private final int finalScore;
+    private final int eventCount;
+    private final ByteBuffer events;
+    private final long[] keyframeTicks;
+    private final int[] keyframeOffsets;
+    private final int[] keyframeEvents;
+
+    /**
+     * Create a replay from recorded events
+     * @param cols number of columns
+     * @param rows number of rows
+     * @param seed seed for the piece sequence
+     * @param startTime when the game started, in milliseconds since the epoch
+     * @param finalScore the score the game finished with
+     * @param eventCount number of events
+     * @param events the encoded events, with keyframes
+     * @param keyframeTicks time of each keyframe
+     * @param keyframeOffsets where each keyframe starts in the events
+     * @param keyframeEvents number of events before each keyframe
+     */
+    Replay(int cols, int rows, long seed, long startTime, int finalScore, int eventCount, ByteBuffer events,
+           long[] keyframeTicks, int[] keyframeOffsets, int[] keyframeEvents) {
+        this.cols = cols;
+        this.rows = rows;
+        this.seed = seed;
+        this.startTime = startTime;
+        this.finalScore = finalScore;
+        this.eventCount = eventCount;
+        this.events = events;
+        this.keyframeTicks = keyframeTicks;
+        this.keyframeOffsets = keyframeOffsets;
+        this.keyframeEvents = keyframeEvents;
+    }
+
+    /**
+     * Get the number of columns
+     * @return columns
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Get the number of rows
+     * @return rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Get the seed for the piece sequence
+     * @return seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Get when the game started
+     * @return milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Get the score the recorded game finished with
+     * @return final score
+     */
+    public int getFinalScore() {
+        return finalScore;
+    }
+
+    /**
+     * Get the number of recorded events
+     * @return events
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Get the size of the encoded events
+     * @return size in bytes
+     */
+    public int getEventBytes() {
+        return events.limit();
+    }
+
+    /**
+     * Get the number of keyframes. Every replay has one at the start.
+     * @return keyframes
+     */
+    public int getKeyframeCount() {
+        return keyframeTicks.length;
+    }
+
+    /**
+     * Start reading the events from the beginning
+     * @return a reader positioned before the first event
+     */
+    public Reader reader() {
+        return new Reader();
+    }
+
+    /**
+     * Write this replay to a file, replacing it if it exists
+     * @param file file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        var buffer = ByteBuffer.allocate(64 + events.limit() + 30 * keyframeTicks.length);
+        buffer.putInt(REPLAY_MAGIC);
+        putVarint(buffer, cols);
+        putVarint(buffer, rows);
+        buffer.putLong(seed);
+        buffer.putLong(startTime);
+        putVarint(buffer, finalScore);
+        putVarint(buffer, eventCount);
+        putVarint(buffer, events.limit());
+        buffer.put(events.duplicate().clear());
+        putVarint(buffer, keyframeTicks.length);
+        for (int i = 0; i < keyframeTicks.length; i++) {
+            putVarint(buffer, keyframeTicks[i] - (i == 0 ? 0 : keyframeTicks[i - 1]));
+            putVarint(buffer, keyframeOffsets[i] - (i == 0 ? 0 : keyframeOffsets[i - 1]));
+            putVarint(buffer, keyframeEvents[i] - (i == 0 ? 0 : keyframeEvents[i - 1]));
+        }
+        var crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        AtomicFiles.write(file, buffer);
+    }
+
+    /**
+     * Save this replay into a directory on a background thread, named after when the game started
+     * @param directory directory to save into, created if needed
+     * @return future completing with the file once it is on disk
+     */
+    public CompletableFuture<Path> saveAsync(Path directory) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Files.createDirectories(directory);
+                var file = directory.resolve(startTime + SUFFIX);
+                write(file);
+                logger.info("Saved replay of " + eventCount + " events in " + events.limit() + " bytes to " + file);
+                return file;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, io);
+    }
+
+    /**
+     * Read a replay file
+     * @param file file to read
+     * @return the replay
+     * @throws IOException if the file cannot be read or is not an intact replay
+     */
+    public static Replay read(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            //The mapping stays valid once the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != REPLAY_MAGIC) {
+                throw new IOException("Not a replay: " + file);
+            }
+            int cols = getVarint(buffer);
+            int rows = getVarint(buffer);
+            long seed = buffer.getLong();
+            long startTime = buffer.getLong();
+            int finalScore = getVarint(buffer);
+            int eventCount = getVarint(buffer);
+            int length = getVarint(buffer);
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException("Replay is cut short: " + file);
+            }
+            var events = buffer.slice(buffer.position(), length);
+            buffer.position(buffer.position() + length);
+
+            int keyframes = getVarint(buffer);
+            if (keyframes < 1) {
+                throw new IOException("Replay has no keyframes: " + file);
+            }
+            if (keyframes > buffer.remaining()) {
+                throw new IOException("Replay is cut short: " + file);
+            }
+            var keyframeTicks = new long[keyframes];
+            var keyframeOffsets = new int[keyframes];
+            var keyframeEvents = new int[keyframes];
+            for (int i = 0; i < keyframes; i++) {
+                keyframeTicks[i] = (i == 0 ? 0 : keyframeTicks[i - 1]) + getLongVarint(buffer);
+                keyframeOffsets[i] = (i == 0 ? 0 : keyframeOffsets[i - 1]) + getVarint(buffer);
+                keyframeEvents[i] = (i == 0 ? 0 : keyframeEvents[i - 1]) + getVarint(buffer);
+            }
+
+            var crc = new CRC32();
+            crc.update(buffer.slice(0, buffer.position()));
+            if (buffer.getInt() != (int) crc.getValue()) {
+                throw new IOException("Replay is damaged: " + file);
+            }
+            return new Replay(cols, rows, seed, startTime, finalScore, eventCount, events, keyframeTicks,
+                    keyframeOffsets, keyframeEvents);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Replay is cut short: " + file, e);
+        }
+    }
+
+    /**
+     * Find the most recently recorded replay in a directory
+     * @param directory directory of replays
+     * @return the newest replay file, or null if there are none
+     * @throws IOException if the directory cannot be read
+     */
+    public static Path latest(Path directory) throws IOException {
+        Path latest = null;
+        long latestTime = Long.MIN_VALUE;
+        try (var files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                var name = file.getFileName().toString();
+                try {
+                    long time = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                    if (time > latestTime) {
+                        latest = file;
+                        latestTime = time;
+                    }
+                } catch (NumberFormatException e) {
+                    //Not one of ours
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return latest;
+    }
+
+    static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buffer) {
+        return (int) getLongVarint(buffer);
+    }
+
+    static long getLongVarint(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte next;
+        do {
+            next = buffer.get();
+            value |= (long) (next & 0x7F) << shift;
+            shift += 7;
+        } while (next < 0 && shift < 64);
+        return value;
+    }
+
+    /**
+     * Reads a replay's events one at a time. The reader is reused for each event, so reading creates no garbage.
+     */
+    public class Reader {
+
+        private final ByteBuffer buffer = events.duplicate();
+        private int read;
+        private ReplayEvent type;
+        private long tick;
+        private int x;
+        private int y;
+
+        private Reader() {
+        }
+
+        /**
+         * Move on to the next event
+         * @return true if there was another event, false at the end of the replay
+         */
+        public boolean next() {
+            if (read == eventCount) {
+                return false;
+            }
+            long header = getLongVarint(buffer);
+            tick += header >>> TYPE_BITS;
+            while ((header & KEYFRAME) == KEYFRAME) {
+                //Playing from the start, so the keyframe is already the state of the game
+                buffer.position(buffer.position() + 2 + buffer.getShort(buffer.position()));
+                header = getLongVarint(buffer);
+                tick += header >>> TYPE_BITS;
+            }
+            type = ReplayEvent.of((int) (header & KEYFRAME));
+            if (type == ReplayEvent.PLACE) {
+                int block = getVarint(buffer);
+                x = block % cols;
+                y = block / cols;
+            }
+            read++;
+            return true;
+        }
+
+        /**
+         * Jump to the last keyframe at or before the given time, loading its state into a game. Calling next() then
+         * moves on to the first event after the keyframe, so playing the events up to the time brings the game to
+         * exactly where it was at that time.
+         * @param target time to seek to, in milliseconds since the game started
+         * @param game a game playing this replay, which is given the keyframe's state
+         * @return time of the keyframe jumped to
+         */
+        public long seek(long target, Game game) {
+            int keyframe = Arrays.binarySearch(keyframeTicks, target);
+            if (keyframe < 0) {
+                //Before the insertion point, or the first keyframe if the time is before any of them
+                keyframe = Math.max(0, -keyframe - 2);
+            } else {
+                //Several keyframes can share a time, so take the last
+                while (keyframe + 1 < keyframeTicks.length && keyframeTicks[keyframe + 1] == target) {
+                    keyframe++;
+                }
+            }
+
+            buffer.position(keyframeOffsets[keyframe]);
+            getLongVarint(buffer);
+            int length = buffer.getShort();
+            SavedState.read(buffer.slice(buffer.position(), length), game);
+            buffer.position(buffer.position() + length);
+            tick = keyframeTicks[keyframe];
+            read = keyframeEvents[keyframe];
+            return tick;
+        }
+
+        /**
+         * Get the type of the current event
+         * @return event type
+         */
+        public ReplayEvent getType() {
+            return type;
+        }
+
+        /**
+         * Get when the current event happened
+         * @return milliseconds since the game started
+         */
+        public long getTick() {
+            return tick;
+        }
+
+        /**
+         * Get the column a placement was made on
+         * @return column
+         */
+        public int getX() {
+            return x;
+        }
+
+        /**
+         * Get the row a placement was made on
+         * @return row
+         */
+        public int getY() {
+            return y;
+        }
+
+        /**
+         * Get the number of events read so far
+         * @return events read
+         */
+        public int getRead() {
+            return read;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package uk.ac.soton.comp1206.game;
+
+/**
+ * The inputs a replay records. Together with the seed, these are all that is needed to play a game again exactly.
+ */
+public enum ReplayEvent {
+
+    /**
+     * The current piece was played, centred on a block
+     */
+    PLACE,
+
+    /**
+     * The current piece was rotated clockwise
+     */
+    ROTATE_RIGHT,
+
+    /**
+     * The current piece was rotated anticlockwise
+     */
+    ROTATE_LEFT,
+
+    /**
+     * The current and next pieces were swapped
+     */
+    SWAP,
+
+    /**
+     * The timer ran out before a piece was played
+     */
+    TIMEOUT;
+
+    private static final ReplayEvent[] VALUES = values();
+
+    /**
+     * Get the event with the given ordinal
+     * @param ordinal ordinal
+     * @return event
+     * @throws IllegalArgumentException if there is no such event
+     */
+    static ReplayEvent of(int ordinal) {
+        if (ordinal >= VALUES.length) {
+            throw new IllegalArgumentException("No such replay event: " + ordinal);
+        }
+        return VALUES[ordinal];
+    }
+}
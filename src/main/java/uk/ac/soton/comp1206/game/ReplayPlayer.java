@@ -0,0 +1,166 @@
+package uk.ac.soton.comp1206.game;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays replays back through the game rules without a window, as fast as they will go, to check a replay produces
+ * the score it claims.
+ *
+ * Run from the command line with replay files to verify them, or with none to verify the latest replay. --repeat
+ * plays each replay several times, to time playback once the JIT has warmed up. --seek times seeking to a point in
+ * each replay, from its keyframes, against playing up to that point from the start.
+ */
+public class ReplayPlayer {
+
+    private static final Logger logger = LogManager.getLogger(ReplayPlayer.class);
+
+    private ReplayPlayer() {
+    }
+
+    /**
+     * Verify replay files and log how each one went
+     * @param args [--repeat n] [--seek ms] [file...]
+     * @throws IOException if a replay cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        int repeat = 1;
+        long seek = -1;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--repeat") && i + 1 < args.length) {
+                repeat = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--seek") && i + 1 < args.length) {
+                seek = Long.parseLong(args[++i]);
+            } else {
+                files.add(Path.of(args[i]));
+            }
+        }
+        if (files.isEmpty()) {
+            var latest = Replay.latest(Path.of(Replay.DEFAULT_DIRECTORY));
+            if (latest == null) {
+                logger.error("Usage: ReplayPlayer [--repeat n] [--seek ms] file...");
+                return;
+            }
+            files.add(latest);
+        }
+
+        for (Path file : files) {
+            var replay = Replay.read(file);
+            HeadlessGame game = null;
+            long started = System.nanoTime();
+            for (int i = 0; i < repeat; i++) {
+                game = play(replay);
+            }
+            double seconds = (System.nanoTime() - started) / 1e9 / repeat;
+            long gameMillis = lastTick(replay);
+            logger.info(String.format("%s: %d events in %d bytes, score %d, %s; %.0f s of play in %.3f ms, %.0fx real"
+                            + " time", file.getFileName(), replay.getEventCount(), replay.getEventBytes(),
+                    game.getIntScore(), game.getIntScore() == replay.getFinalScore() ? "verified"
+                            : "expected " + replay.getFinalScore(),
+                    gameMillis / 1000.0, seconds * 1000, gameMillis / 1000.0 / seconds));
+
+            if (seek >= 0) {
+                long fromStart = 0;
+                long fromKeyframe = 0;
+                for (int i = 0; i < repeat; i++) {
+                    started = System.nanoTime();
+                    var played = play(replay, seek, false);
+                    fromStart += System.nanoTime() - started;
+                    started = System.nanoTime();
+                    var sought = play(replay, seek, true);
+                    fromKeyframe += System.nanoTime() - started;
+                    if (!played.getIntScore().equals(sought.getIntScore())) {
+                        logger.warn("Seeking to " + seek + "ms reached score " + sought.getIntScore() + ", not "
+                                + played.getIntScore());
+                    }
+                }
+                logger.info(String.format("Seek to %.1f s: %.1f us from a keyframe, %.1f us from the start",
+                        seek / 1000.0, fromKeyframe / 1000.0 / repeat, fromStart / 1000.0 / repeat));
+            }
+        }
+    }
+
+    /**
+     * Play a replay up to a point in time
+     * @param replay the replay
+     * @param tick time to stop at, in milliseconds since the game started
+     * @param seek true to start from the last keyframe before the time, false to play from the start
+     * @return the game as it was at that time
+     * @throws IllegalStateException if the replay places a piece where it does not fit
+     */
+    public static HeadlessGame play(Replay replay, long tick, boolean seek) {
+        var game = new HeadlessGame(replay.getCols(), replay.getRows(), replay.getSeed());
+        var reader = replay.reader();
+        if (seek) {
+            reader.seek(tick, game);
+        }
+        while (reader.next() && reader.getTick() <= tick) {
+            apply(game, reader);
+        }
+        return game;
+    }
+
+    /**
+     * Play a replay from start to finish
+     * @param replay the replay
+     * @return the game as the replay leaves it
+     * @throws IllegalStateException if the replay places a piece where it does not fit
+     */
+    public static HeadlessGame play(Replay replay) {
+        var game = new HeadlessGame(replay.getCols(), replay.getRows(), replay.getSeed());
+        var reader = replay.reader();
+        while (reader.next()) {
+            apply(game, reader);
+        }
+        return game;
+    }
+
+    /**
+     * Check a replay finishes with the score recorded in it
+     * @param replay the replay
+     * @return true if the score matches
+     */
+    public static boolean verify(Replay replay) {
+        try {
+            return play(replay).getIntScore() == replay.getFinalScore();
+        } catch (IllegalStateException e) {
+            logger.warn(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Apply the event a reader is on to a game
+     * @param game the game being replayed
+     * @param reader reader positioned on an event
+     * @throws IllegalStateException if the event places a piece where it does not fit
+     */
+    public static void apply(HeadlessGame game, Replay.Reader reader) {
+        switch (reader.getType()) {
+            case PLACE -> {
+                if (!game.placePiece(reader.getX(), reader.getY())) {
+                    throw new IllegalStateException("Replay event " + reader.getRead() + " places a piece at "
+                            + reader.getX() + "," + reader.getY() + " where it does not fit");
+                }
+            }
+            case ROTATE_RIGHT -> game.rotateCurrentPiece(true);
+            case ROTATE_LEFT -> game.rotateCurrentPiece(false);
+            case SWAP -> game.swapPieces();
+            case TIMEOUT -> game.timeout();
+        }
+    }
+
+    private static long lastTick(Replay replay) {
+        var reader = replay.reader();
+        while (reader.next()) {
+            //Skip to the end
+        }
+        return reader.getTick();
+    }
+}
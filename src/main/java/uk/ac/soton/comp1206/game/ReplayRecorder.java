@@ -0,0 +1,125 @@
+package uk.ac.soton.comp1206.game;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Records the inputs of a game as it is played, for saving as a Replay. The recorder listens to the game's events
+ * from the moment it is created.
+ *
+ * The whole state of the game is recorded as a keyframe at the start, and after the first event at least
+ * KEYFRAME_INTERVAL after the last keyframe, so a replay can be started from any keyframe instead of the beginning.
+ */
+public final class ReplayRecorder {
+
+    /**
+     * Game time between keyframes, in milliseconds
+     */
+    static final long KEYFRAME_INTERVAL = 10_000;
+
+    private final Game game;
+    private ByteBuffer events = ByteBuffer.allocate(1024);
+    private int eventCount;
+    private long lastTick;
+
+    private int keyframes;
+    private long lastKeyframe;
+    private long[] keyframeTicks = new long[16];
+    private int[] keyframeOffsets = new int[16];
+    private int[] keyframeEvents = new int[16];
+
+    /**
+     * Create a recorder for a game which has just started, and start recording its events
+     * @param game the game
+     */
+    public ReplayRecorder(Game game) {
+        this.game = game;
+        keyframe(0);
+
+        var bus = game.getEvents();
+        bus.subscribe(GameEventType.PIECE_PLACED, event -> {
+            long tick = record(ReplayEvent.PLACE);
+            Replay.putVarint(events, (long) event.getY() * game.cols + event.getX());
+            keyframeIfDue(tick);
+        });
+        bus.subscribe(GameEventType.PIECE_ROTATED,
+                event -> keyframeIfDue(record(event.isRight() ? ReplayEvent.ROTATE_RIGHT : ReplayEvent.ROTATE_LEFT)));
+        bus.subscribe(GameEventType.PIECES_SWAPPED, event -> keyframeIfDue(record(ReplayEvent.SWAP)));
+        bus.subscribe(GameEventType.TIMED_OUT, event -> keyframeIfDue(record(ReplayEvent.TIMEOUT)));
+    }
+
+    /**
+     * Get the number of events recorded so far
+     * @return events
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Finish the recording
+     * @return the replay of everything recorded
+     */
+    public Replay finish() {
+        return new Replay(game.cols, game.rows, game.seed, game.startTime, game.score.get(), eventCount,
+                ByteBuffer.wrap(Arrays.copyOf(events.array(), events.position())),
+                Arrays.copyOf(keyframeTicks, keyframes), Arrays.copyOf(keyframeOffsets, keyframes),
+                Arrays.copyOf(keyframeEvents, keyframes));
+    }
+
+    /**
+     * Record the start of an event, leaving room for its payload
+     * @return time of the event
+     */
+    private long record(ReplayEvent type) {
+        long tick = Math.max(lastTick, System.currentTimeMillis() - game.startTime);
+
+        //Room for the longest event: two ten byte varints
+        ensureRemaining(20);
+        Replay.putVarint(events, (tick - lastTick) << Replay.TYPE_BITS | type.ordinal());
+        lastTick = tick;
+        eventCount++;
+        return tick;
+    }
+
+    private void keyframeIfDue(long tick) {
+        if (tick - lastKeyframe >= KEYFRAME_INTERVAL) {
+            keyframe(tick);
+        }
+    }
+
+    /**
+     * Record the state of the game as the events recorded so far have left it
+     * @param tick time of the last event recorded
+     */
+    private void keyframe(long tick) {
+        if (keyframes == keyframeTicks.length) {
+            keyframeTicks = Arrays.copyOf(keyframeTicks, keyframes * 2);
+            keyframeOffsets = Arrays.copyOf(keyframeOffsets, keyframes * 2);
+            keyframeEvents = Arrays.copyOf(keyframeEvents, keyframes * 2);
+        }
+        int size = SavedState.maxSize(game.cols, game.rows);
+        ensureRemaining(size + 20);
+        keyframeTicks[keyframes] = tick;
+        keyframeOffsets[keyframes] = events.position();
+        keyframeEvents[keyframes] = eventCount;
+        keyframes++;
+
+        Replay.putVarint(events, (tick - lastTick) << Replay.TYPE_BITS | Replay.KEYFRAME);
+        //Leave room for the length, which is not known until the state is written
+        int lengthAt = events.position();
+        events.position(lengthAt + 2);
+        SavedState.write(game, events);
+        int length = events.position() - lengthAt - 2;
+        events.putShort(lengthAt, (short) length);
+        lastTick = tick;
+        lastKeyframe = tick;
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (events.remaining() < bytes) {
+            events = ByteBuffer.allocate(Math.max(events.capacity() * 2, events.position() + bytes))
+                    .put(events.flip());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package uk.ac.soton.comp1206.game;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the whole state of a game in a few dozen bytes, and loads it back into a game. Used for the autosave journal
+ * and for replay keyframes.
+ *
+ * The board is one nibble per block, each piece is a byte holding its number and rotation, and the counters are
+ * varints. The seed and the number of pieces drawn are kept rather than the generator itself, so loading redraws the
+ * same number of pieces and the sequence carries on as it would have.
+ */
+final class SavedState {
+
+    /**
+     * The most a state can take besides the board: the board size, seed and pieces, and at most five bytes per varint
+     */
+    private static final int MAX_FIELDS = 2 + 8 + 2 + 5 * (11 + GamePiece.PIECES);
+
+    private SavedState() {
+    }
+
+    /**
+     * Get the largest a saved state can be for a board
+     * @param cols number of columns
+     * @param rows number of rows
+     * @return size in bytes
+     */
+    static int maxSize(int cols, int rows) {
+        return (cols * rows + 1) / 2 + MAX_FIELDS;
+    }
+
+    /**
+     * Get the seed of a saved state without loading it
+     * @param in buffer positioned at the start of the state, which is left where it is
+     * @return seed
+     */
+    static long peekSeed(ByteBuffer in) {
+        return in.getLong(in.position() + 2);
+    }
+
+    /**
+     * Write the state of a game
+     * @param game game to save
+     * @param out buffer to write to, with at least maxSize() bytes remaining
+     */
+    static void write(Game game, ByteBuffer out) {
+        int cols = game.cols;
+        int cells = cols * game.rows;
+        out.put((byte) cols);
+        out.put((byte) game.rows);
+        out.putLong(game.seed);
+        Replay.putVarint(out, game.draws);
+        for (int cell = 0; cell < cells; cell += 2) {
+            int low = game.grid.get(cell % cols, cell / cols);
+            int high = cell + 1 < cells ? game.grid.get((cell + 1) % cols, (cell + 1) / cols) : 0;
+            out.put((byte) (low | high << 4));
+        }
+        out.put(pieceByte(game.currentPiece));
+        out.put(pieceByte(game.nextPiece));
+        Replay.putVarint(out, game.score.get());
+        Replay.putVarint(out, game.multiplier.get());
+        Replay.putVarint(out, game.lives.get());
+        Replay.putVarint(out, game.level.get());
+        Replay.putVarint(out, game.getRemainingTime());
+        Replay.putVarint(out, System.currentTimeMillis() - game.startTime);
+        Replay.putVarint(out, game.placements);
+        Replay.putVarint(out, game.linesCleared);
+        Replay.putVarint(out, game.maxMultiplier);
+        Replay.putVarint(out, game.livesLost);
+        for (int count : game.pieceCounts) {
+            Replay.putVarint(out, count);
+        }
+    }
+
+    /**
+     * Load a saved state into a game, replacing its state and starting its timer from where the state left it. The
+     * game keeps its grid, so anything bound to the grid shows the loaded board.
+     * @param in buffer positioned at the start of the state
+     * @param game game to load into, which must have the same board size and seed
+     * @throws IllegalArgumentException if the state is for a different board or seed
+     */
+    static void read(ByteBuffer in, Game game) {
+        int cols = in.get();
+        int rows = in.get();
+        if (cols != game.cols || rows != game.rows || in.getLong() != game.seed) {
+            throw new IllegalArgumentException("Saved state is for a different game");
+        }
+
+        int draws = Replay.getVarint(in);
+        game.random.setSeed(game.seed);
+        game.draws = 0;
+        game.skipToDraw(draws);
+
+        int cells = cols * rows;
+        for (int cell = 0; cell < cells; cell += 2) {
+            int pair = in.get() & 0xFF;
+            game.grid.set(cell % cols, cell / cols, pair & 0x0F);
+            if (cell + 1 < cells) {
+                game.grid.set((cell + 1) % cols, (cell + 1) / cols, pair >>> 4);
+            }
+        }
+        game.currentPiece = piece(in.get());
+        game.nextPiece = piece(in.get());
+        game.score.set(Replay.getVarint(in));
+        game.multiplier.set(Replay.getVarint(in));
+        game.lives.set(Replay.getVarint(in));
+        game.level.set(Replay.getVarint(in));
+        int remaining = Replay.getVarint(in);
+        game.startTime = System.currentTimeMillis() - Replay.getLongVarint(in);
+        game.placements = Replay.getVarint(in);
+        game.linesCleared = Replay.getVarint(in);
+        game.maxMultiplier = Replay.getVarint(in);
+        game.livesLost = Replay.getVarint(in);
+        for (int i = 0; i < GamePiece.PIECES; i++) {
+            game.pieceCounts[i] = Replay.getVarint(in);
+        }
+        game.gameOver = false;
+        game.endTime = 0;
+        game.startGameLoop(remaining);
+        game.publishSnapshot();
+    }
+
+    private static byte pieceByte(GamePiece piece) {
+        return (byte) ((piece.getValue() - 1) << 2 | piece.getRotation());
+    }
+
+    private static GamePiece piece(byte saved) {
+        return GamePiece.createPiece((saved & 0xFF) >>> 2, saved & 3);
+    }
+}
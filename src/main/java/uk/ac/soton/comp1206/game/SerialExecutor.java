@@ -0,0 +1,55 @@
+package uk.ac.soton.comp1206.game;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one at a time, in the order they were given, on a pool of threads shared with other serial executors.
+ * Gives each hosted game a thread of its own as far as the game can tell, without a real thread per game.
+ */
+class SerialExecutor implements Executor {
+
+    /**
+     * Tasks run before giving the pool's thread back, so one busy game cannot hold a thread indefinitely
+     */
+    private static final int BATCH = 64;
+
+    private final Executor pool;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final Runnable drain = this::drain;
+
+    /**
+     * Create a serial executor running on a pool
+     * @param pool shared pool
+     */
+    SerialExecutor(Executor pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (scheduled.compareAndSet(false, true)) {
+            pool.execute(drain);
+        }
+    }
+
+    private void drain() {
+        for (int i = 0; i < BATCH; i++) {
+            Runnable task = tasks.poll();
+            if (task == null) {
+                break;
+            }
+            task.run();
+        }
+
+        //Clear the flag before checking again, so a task added meanwhile is not stranded
+        scheduled.set(false);
+        if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+            pool.execute(drain);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package uk.ac.soton.comp1206.game;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.ac.soton.comp1206.score.AtomicFiles;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Tunes the BoardEvaluator weights bots play with by evolving a population of weight vectors.
+ *
+ * Each generation every candidate plays the same set of games, dealt from the same seeds, so the differences between
+ * candidates come from their weights rather than their luck. The seeds change each generation so the weights do not
+ * fit one set of games. Games are played on GameStates searched by a MoveSearch without a time limit, so a result
+ * depends only on the weights and the seed, and are spread across a thread per processor. The best candidates carry
+ * on to the next generation unchanged, and the rest are bred from candidates chosen by tournament, mixing their
+ * parents' weights and mutating some of them.
+ *
+ * After every generation the best weights are written to the resource the game loads, and the population to a
+ * checkpoint, so a long run can be stopped at any time and carries on from the checkpoint when started again. The
+ * first population is bred from the weights in the resource.
+ *
+ * Usage: WeightTuner [--population 24] [--generations 30] [--games 16] [--depth 1] [--moves 500] [--seed 1]
+ * [--threads n] [--checkpoint tuner.checkpoint] [--output src/main/resources/bot/weights.properties]. Run with
+ * -Dtetrecs.logLevel=warn so logging from the games does not slow them down.
+ */
+public class WeightTuner {
+
+    private static final Logger logger = LogManager.getLogger(WeightTuner.class);
+
+    /**
+     * Share of the population which carries on to the next generation unchanged
+     */
+    private static final double ELITE_SHARE = 0.15;
+
+    /**
+     * Candidates entered into each tournament to choose a parent
+     */
+    private static final int TOURNAMENT = 3;
+
+    /**
+     * Chance of each weight of a child being mutated
+     */
+    private static final double MUTATION_RATE = 0.3;
+
+    /**
+     * Size of a mutation, as a share of the weight plus a fixed amount so weights near zero can still move
+     */
+    private static final double MUTATION_SCALE = 0.2;
+    private static final double MUTATION_MINIMUM = 1;
+
+    /**
+     * Size of the variations in the first population, which spread further to search widely at the start
+     */
+    private static final double FIRST_SCALE = 0.5;
+    private static final double FIRST_MINIMUM = 5;
+
+    private final int populationSize;
+    private final int generations;
+    private final int games;
+    private final int depth;
+    private final int maxMoves;
+    private final long seed;
+    private final Path checkpoint;
+    private final Path output;
+    private final ExecutorService pool;
+
+    private double[][] population;
+    private int generation;
+
+    /**
+     * Create a tuner
+     * @param populationSize number of candidates in each generation
+     * @param generations generation to stop at
+     * @param games games each candidate plays per generation
+     * @param depth pieces the search looks ahead
+     * @param maxMoves moves after which a game is stopped and scored as it stands
+     * @param seed seed the game seeds and breeding are drawn from
+     * @param threads threads to play games on
+     * @param checkpoint file to save progress to and resume from
+     * @param output file to write the best weights to
+     */
+    public WeightTuner(int populationSize, int generations, int games, int depth, int maxMoves, long seed, int threads,
+                       Path checkpoint, Path output) {
+        this.populationSize = populationSize;
+        this.generations = generations;
+        this.games = games;
+        this.depth = depth;
+        this.maxMoves = maxMoves;
+        this.seed = seed;
+        this.checkpoint = checkpoint;
+        this.output = output;
+        var count = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "tuner-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Run the tuner from the command line
+     * @param args options, see the class description
+     * @throws Exception if the run fails
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+
+        var tuner = new WeightTuner(
+                Integer.parseInt(options.getOrDefault("--population", "24")),
+                Integer.parseInt(options.getOrDefault("--generations", "30")),
+                Integer.parseInt(options.getOrDefault("--games", "16")),
+                Integer.parseInt(options.getOrDefault("--depth", "1")),
+                Integer.parseInt(options.getOrDefault("--moves", "500")),
+                Long.parseLong(options.getOrDefault("--seed", "1")),
+                Integer.parseInt(options.getOrDefault("--threads",
+                        String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                Path.of(options.getOrDefault("--checkpoint", "tuner.checkpoint")),
+                Path.of(options.getOrDefault("--output", BoardEvaluator.DEFAULT_FILE)));
+        tuner.run();
+    }
+
+    /**
+     * Evolve the weights until the last generation, resuming from the checkpoint if there is one
+     * @throws IOException if the weights or checkpoint cannot be written
+     */
+    public void run() throws IOException {
+        if (!loadCheckpoint()) {
+            logger.info("Starting a new population of " + populationSize);
+            population = firstPopulation();
+            generation = 0;
+        }
+
+        while (generation < generations) {
+            long started = System.nanoTime();
+            double[] fitness = evaluate(dealGames());
+            Integer[] ranking = IntStream.range(0, population.length).boxed()
+                    .sorted(Comparator.comparingDouble(i -> -fitness[i]))
+                    .toArray(Integer[]::new);
+
+            var best = population[ranking[0]];
+            double mean = Arrays.stream(fitness).average().orElse(0);
+            logger.info(String.format("Generation %d: best %.0f, mean %.0f, %s in %.1fs", generation,
+                    fitness[ranking[0]], mean, Arrays.toString(best), (System.nanoTime() - started) / 1e9));
+            new BoardEvaluator(best).save(output, String.format(
+                    "Tuned by WeightTuner: generation %d, average score %.0f over %d games searched %d deep",
+                    generation, fitness[ranking[0]], games, depth));
+
+            population = breed(ranking);
+            generation++;
+            saveCheckpoint();
+        }
+        pool.shutdown();
+        logger.info("Tuning finished after " + generation + " generations, best weights in " + output);
+    }
+
+    /**
+     * Start with the weights the game has now, and variations on them
+     */
+    private double[][] firstPopulation() {
+        var random = new Random(seed);
+        double[] start = BoardEvaluator.load().getWeights();
+        double[][] first = new double[populationSize][];
+        first[0] = start;
+        for (int i = 1; i < populationSize; i++) {
+            first[i] = start.clone();
+            for (int j = 0; j < start.length; j++) {
+                first[i][j] += random.nextGaussian() * (FIRST_SCALE * Math.abs(start[j]) + FIRST_MINIMUM);
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Deal this generation's games, from seeds every candidate shares
+     * @return the state each game starts in
+     */
+    private GameState[] dealGames() {
+        var random = new Random(seed * 31 + generation);
+        var starts = new GameState[games];
+        for (int i = 0; i < games; i++) {
+            starts[i] = new GameState();
+            new HeadlessGame(GameState.COLS, GameState.ROWS, random.nextLong()).saveState(starts[i]);
+        }
+        return starts;
+    }
+
+    /**
+     * Play every candidate through every game in parallel
+     * @param starts states the games start in
+     * @return each candidate's average score
+     */
+    private double[] evaluate(GameState[] starts) {
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (double[] weights : population) {
+            var evaluator = new BoardEvaluator(weights);
+            for (GameState start : starts) {
+                results.add(CompletableFuture.supplyAsync(() -> play(evaluator, start), pool));
+            }
+        }
+
+        double[] fitness = new double[population.length];
+        for (int i = 0; i < results.size(); i++) {
+            fitness[i / starts.length] += results.get(i).join() / (double) starts.length;
+        }
+        return fitness;
+    }
+
+    /**
+     * Play a game to the end, or until the move limit, timing out whenever the piece cannot be played
+     * @return the score
+     */
+    private int play(BoardEvaluator evaluator, GameState start) {
+        var search = new MoveSearch(evaluator, depth);
+        var state = new GameState();
+        state.copyFrom(start);
+        for (int moves = 0; moves < maxMoves && !state.isOver(); moves++) {
+            int move = search.findMove(state, Long.MAX_VALUE);
+            if (move == MoveSearch.NONE) {
+                state.timeout();
+            } else {
+                MoveSearch.play(state, move);
+            }
+        }
+        return state.getScore();
+    }
+
+    /**
+     * Breed the next generation, keeping the best candidates as they are
+     * @param ranking candidates from best to worst
+     * @return the next generation
+     */
+    private double[][] breed(Integer[] ranking) {
+        var random = new Random(seed * 31 + generation + 1_000_003L);
+        int elite = Math.max(1, (int) Math.round(population.length * ELITE_SHARE));
+        double[][] next = new double[population.length][];
+        for (int i = 0; i < elite; i++) {
+            next[i] = population[ranking[i]];
+        }
+        for (int i = elite; i < next.length; i++) {
+            double[] mother = population[ranking[tournament(random)]];
+            double[] father = population[ranking[tournament(random)]];
+            double[] child = new double[mother.length];
+            for (int j = 0; j < child.length; j++) {
+                child[j] = random.nextBoolean() ? mother[j] : father[j];
+                if (random.nextDouble() < MUTATION_RATE) {
+                    child[j] += random.nextGaussian() * (MUTATION_SCALE * Math.abs(child[j]) + MUTATION_MINIMUM);
+                }
+            }
+            next[i] = child;
+        }
+        return next;
+    }
+
+    /**
+     * Choose a parent: the best ranked of a few candidates picked at random
+     * @return the parent's place in the ranking
+     */
+    private int tournament(Random random) {
+        int best = population.length;
+        for (int i = 0; i < TOURNAMENT; i++) {
+            best = Math.min(best, random.nextInt(population.length));
+        }
+        return best;
+    }
+
+    /**
+     * Save the generation about to be played, replacing the checkpoint in one step so a crash leaves the old one
+     * @throws IOException if it cannot be written
+     */
+    private void saveCheckpoint() throws IOException {
+        var builder = new StringBuilder();
+        builder.append("generation ").append(generation).append('\n');
+        builder.append("seed ").append(seed).append('\n');
+        for (double[] weights : population) {
+            builder.append("candidate");
+            for (double weight : weights) {
+                builder.append(' ').append(weight);
+            }
+            builder.append('\n');
+        }
+        AtomicFiles.write(checkpoint, builder.toString());
+    }
+
+    /**
+     * Carry on from the checkpoint, if there is one from a run with the same seed
+     * @return true if the population was loaded
+     */
+    private boolean loadCheckpoint() {
+        if (!Files.exists(checkpoint)) {
+            return false;
+        }
+        try {
+            int savedGeneration = -1;
+            List<double[]> candidates = new ArrayList<>();
+            for (String line : Files.readAllLines(checkpoint, StandardCharsets.UTF_8)) {
+                String[] parts = line.trim().split(" ");
+                switch (parts[0]) {
+                    case "generation" -> savedGeneration = Integer.parseInt(parts[1]);
+                    case "seed" -> {
+                        if (Long.parseLong(parts[1]) != seed) {
+                            logger.warn("Checkpoint is from a run with another seed, starting again");
+                            return false;
+                        }
+                    }
+                    case "candidate" -> {
+                        double[] weights = new double[parts.length - 1];
+                        for (int i = 0; i < weights.length; i++) {
+                            weights[i] = Double.parseDouble(parts[i + 1]);
+                        }
+                        if (weights.length != BoardEvaluator.FEATURES.length) {
+                            throw new IllegalArgumentException("Candidate has " + weights.length + " weights");
+                        }
+                        candidates.add(weights);
+                    }
+                    default -> {
+                    }
+                }
+            }
+            if (savedGeneration < 0 || candidates.isEmpty()) {
+                throw new IllegalArgumentException("Checkpoint is incomplete");
+            }
+            if (candidates.size() != populationSize) {
+                logger.warn("Checkpoint has a population of " + candidates.size() + ", not " + populationSize
+                        + ", starting again");
+                return false;
+            }
+            population = candidates.toArray(new double[0][]);
+            generation = savedGeneration;
+            logger.info("Resuming at generation " + generation + " with a population of " + population.length);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Unable to resume from checkpoint, starting again: " + e.getMessage());
+            return false;
+        }
+    }
+}
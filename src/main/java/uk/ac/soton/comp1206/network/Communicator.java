@@ -1,17 +1,26 @@
 package uk.ac.soton.comp1206.network;
 
 import com.neovisionaries.ws.client.*;
-import javafx.scene.control.Alert;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import uk.ac.soton.comp1206.event.CommunicationsListener;
+import uk.ac.soton.comp1206.event.MessageListener;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Uses web sockets to talk to a web socket server and relays communication to attached listeners
  *
+ * The connection is made lazily: nothing touches the network until an online feature first sends a message, adds a
+ * listener or calls connect(). Connecting happens on a background thread, and if the server cannot be reached or the
+ * connection drops, the communicator retries with exponential backoff. The current state is exposed as a property.
+ *
  * YOU DO NOT NEED TO WORRY ABOUT THIS CLASS! Leave it be :-)
  */
 public class Communicator {
@@ -19,105 +28,369 @@ public class Communicator {
     private static final Logger logger = LogManager.getLogger(Communicator.class);
 
     /**
-     * Attached communication listeners listening to messages on this Communicator. Each will be sent any messages.
+     * Delay before the first reconnect attempt, in milliseconds. Doubled on each consecutive failure.
+     */
+    private static final long INITIAL_BACKOFF = 500;
+
+    /**
+     * Upper bound on the reconnect delay, in milliseconds
+     */
+    private static final long MAX_BACKOFF = 30000;
+
+    /**
+     * Timeout for a single connection attempt, in milliseconds
+     */
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    /**
+     * Default interval between flushes of the outbound queue, in milliseconds
+     */
+    private static final long DEFAULT_FLUSH_INTERVAL = 50;
+
+    /**
+     * Default maximum number of messages waiting to be sent
+     */
+    private static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    /**
+     * Routes each received message, parsed once, to the listeners subscribed to its type
+     */
+    private final MessageRouter router = new MessageRouter();
+
+    /**
+     * Messages waiting to be sent. Flushed at a fixed rate while connected, with state messages coalesced.
      */
-    private final List<CommunicationsListener> handlers = new ArrayList<>();
+    private final OutboundQueue outbound;
 
-    private WebSocket ws = null;
+    /**
+     * Interval between flushes of the outbound queue, in milliseconds
+     */
+    private final long flushInterval;
 
     /**
-     * Create a new communicator to the given web socket server
+     * The current connection state, only updated on the JavaFX thread so it can be bound to the UI
+     */
+    private final ReadOnlyObjectWrapper<ConnectionState> state = new ReadOnlyObjectWrapper<>(ConnectionState.DISCONNECTED);
+
+    private final String server;
+
+    /**
+     * The connection state as seen by the connection thread. The property above trails this by one runLater.
+     */
+    private volatile ConnectionState currentState = ConnectionState.DISCONNECTED;
+
+    private volatile WebSocket ws = null;
+
+    /**
+     * Single background thread which makes connection attempts and schedules retries. Created on first use.
+     */
+    private ScheduledExecutorService connector;
+
+    /**
+     * Number of consecutive failed connection attempts, used to work out the backoff delay
+     */
+    private int failures = 0;
+
+    /**
+     * Set once close() has been called, so a dropped connection is not retried
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Create a new communicator for the given web socket server. No connection is made until one is needed.
      *
      * @param server server to connect to
      */
     public Communicator(String server) {
+        this(server, DEFAULT_FLUSH_INTERVAL, DEFAULT_QUEUE_CAPACITY, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+    }
 
-        try {
-            var socketFactory = new WebSocketFactory();
+    /**
+     * Create a new communicator for the given web socket server with the given outbound queue settings
+     *
+     * @param server server to connect to
+     * @param flushInterval milliseconds between flushes of queued messages
+     * @param capacity maximum number of messages waiting to be sent
+     * @param policy what to do when the outbound queue is full
+     */
+    public Communicator(String server, long flushInterval, int capacity, OutboundQueue.OverflowPolicy policy) {
+        this.server = server;
+        this.flushInterval = flushInterval;
+        outbound = new OutboundQueue(capacity, policy);
 
-            //Connect to the server
-            ws = socketFactory.createSocket(server);
-            ws.connect();
-            logger.info("Connected to " + server);
+        //Only the latest board, score and lives need to reach the server
+        outbound.coalesce("BOARD");
+        outbound.coalesce("SCORE");
+        outbound.coalesce("LIVES");
+    }
 
-            //When a message is received, call the receive method
-            ws.addListener(new WebSocketAdapter() {
-                @Override
-                public void onTextMessage(WebSocket websocket, String message) throws Exception {
-                    Communicator.this.receive(websocket, message);
-                }
-                @Override
-                public void onPingFrame(WebSocket webSocket, WebSocketFrame webSocketFrame) throws Exception {
-                    logger.info("Ping? Pong!");
-                }
+    /**
+     * Start connecting to the server in the background, if not already connected or connecting. Safe to call from any
+     * thread, and returns immediately.
+     */
+    public synchronized void connect() {
+        if (currentState != ConnectionState.DISCONNECTED) {
+            return;
+        }
+        closed = false;
+        if (connector == null) {
+            connector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                var thread = new Thread(runnable, "communicator");
+                thread.setDaemon(true);
+                return thread;
             });
+        }
+        setState(ConnectionState.CONNECTING);
+        connector.execute(this::attemptConnection);
+        connector.scheduleAtFixedRate(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Close the connection and stop any further reconnect attempts
+     */
+    public synchronized void close() {
+        closed = true;
+        if (ws != null) {
+            ws.disconnect();
+            ws = null;
+        }
+        if (connector != null) {
+            connector.shutdownNow();
+            connector = null;
+        }
+        failures = 0;
+        outbound.clear();
+        setState(ConnectionState.DISCONNECTED);
+    }
 
-            //Error handling
-            ws.addListener(new WebSocketAdapter() {
-                @Override
-                public void onTextMessage(WebSocket websocket, String message) throws Exception {
-                    if(message.startsWith("ERROR")) {
-                        logger.error(message);
-                    }
+    /**
+     * Make a single connection attempt. Runs on the connector thread.
+     */
+    private void attemptConnection() {
+        if (closed) {
+            return;
+        }
+
+        try {
+            var socket = new WebSocketFactory().setConnectionTimeout(CONNECT_TIMEOUT).createSocket(server);
+            addSocketListeners(socket);
+            socket.connect();
+
+            //Closed while connecting, so this socket must not outlive the close
+            synchronized (this) {
+                if (closed) {
+                    socket.disconnect();
+                    return;
                 }
-                @Override
-                public void handleCallbackError(WebSocket webSocket, Throwable throwable) throws Exception {
-                    logger.error("Callback Error:" + throwable.getMessage());
-                    throwable.printStackTrace();
+                ws = socket;
+                failures = 0;
+                setState(ConnectionState.CONNECTED);
+            }
+            logger.info("Connected to " + server);
+            flush();
+        } catch (Exception e) {
+            logger.warn("Unable to connect to " + server + ": " + e.getMessage());
+            scheduleReconnect();
+        }
+    }
+
+    /**
+     * Schedule another connection attempt, backing off exponentially with some jitter so that many clients dropped
+     * at once do not all retry at the same moment.
+     */
+    private synchronized void scheduleReconnect() {
+        if (closed || connector == null) {
+            return;
+        }
+        long delay = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << Math.min(failures, 16));
+        delay += ThreadLocalRandom.current().nextLong(delay / 4 + 1);
+        failures++;
+
+        logger.info("Retrying connection in " + delay + "ms");
+        setState(ConnectionState.RECONNECTING);
+        connector.schedule(() -> {
+            setState(ConnectionState.CONNECTING);
+            attemptConnection();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Attach the message and error handling listeners to a newly created socket
+     * @param socket the socket
+     */
+    private void addSocketListeners(WebSocket socket) {
+        //When a message is received, call the receive method
+        socket.addListener(new WebSocketAdapter() {
+            @Override
+            public void onTextMessage(WebSocket websocket, String message) throws Exception {
+                Communicator.this.receive(websocket, message);
+            }
+            @Override
+            public void onPingFrame(WebSocket webSocket, WebSocketFrame webSocketFrame) throws Exception {
+                logger.debug("Ping? Pong!");
+            }
+            @Override
+            public void onDisconnected(WebSocket websocket, WebSocketFrame serverCloseFrame,
+                                       WebSocketFrame clientCloseFrame, boolean closedByServer) throws Exception {
+                if (websocket != ws || closed) {
+                    return;
                 }
-                @Override
-                public void onError(WebSocket webSocket, WebSocketException e) throws Exception {
-                    logger.error("Error:" + e.getMessage());
-                    e.printStackTrace();
+                logger.warn("Disconnected from " + server);
+                ws = null;
+                scheduleReconnect();
+            }
+        });
+
+        //Error handling
+        socket.addListener(new WebSocketAdapter() {
+            @Override
+            public void onTextMessage(WebSocket websocket, String message) throws Exception {
+                if(message.startsWith("ERROR")) {
+                    logger.error(message);
                 }
-            });
+            }
+            @Override
+            public void handleCallbackError(WebSocket webSocket, Throwable throwable) throws Exception {
+                logger.error("Callback Error:" + throwable.getMessage());
+                throwable.printStackTrace();
+            }
+            @Override
+            public void onError(WebSocket webSocket, WebSocketException e) throws Exception {
+                logger.error("Error:" + e.getMessage());
+            }
+        });
+    }
 
-        } catch (Exception e){
-            logger.error("Socket error: " + e.getMessage());
-            e.printStackTrace();
+    /**
+     * Send everything waiting in the outbound queue, if connected. Runs on the connector thread.
+     */
+    private void flush() {
+        outbound.flush(message -> {
+            var socket = ws;
+            if (socket == null || currentState != ConnectionState.CONNECTED) {
+                return false;
+            }
+            socket.sendText(message);
+            return true;
+        });
+    }
 
-            Alert error = new Alert(Alert.AlertType.ERROR,"Unable to communicate with the TetrECS server\n\n" + e.getMessage() + "\n\nPlease ensure you are connected to the VPN");
-            error.showAndWait();
-            System.exit(1);
+    /**
+     * Update the connection state. The property is only ever changed on the JavaFX thread.
+     * @param newState the new state
+     */
+    private void setState(ConnectionState newState) {
+        currentState = newState;
+        //Always posted, as asking whether this is the JavaFX thread would start the toolkit in a headless tool
+        try {
+            Platform.runLater(() -> state.set(currentState));
+        } catch (IllegalStateException e) {
+            //No JavaFX toolkit, such as when used from a headless tool
+            state.set(newState);
         }
     }
 
-    /** Send a message to the server
+    /** Send a message to the server. The message is queued and sent on the next flush, starting a connection if
+     * there is not one already.
      *
      * @param message Message to send
      */
     public void send(String message) {
-        logger.info("Sending message: " + message);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sending message: " + message);
+        }
 
-        ws.sendText(message);
+        outbound.offer(message);
+        connect();
     }
 
     /**
-     * Add a new listener to receive messages from the server
+     * Add a new listener to receive every message from the server as raw text. Starts connecting if not already
+     * connected.
      * @param listener the listener to add
      */
     public void addListener(CommunicationsListener listener) {
-        this.handlers.add(listener);
+        router.subscribeAll(message -> listener.receiveCommunication(message.getRaw()));
+        connect();
+    }
+
+    /**
+     * Add a new listener to receive only messages of the given type. Starts connecting if not already connected.
+     * @param type the message type
+     * @param listener the listener to add
+     */
+    public void subscribe(MessageType type, MessageListener listener) {
+        router.subscribe(type, listener);
+        connect();
+    }
+
+    /**
+     * Set how received messages are delivered to listeners: on the socket thread as they arrive, or in batches on
+     * the JavaFX thread
+     * @param delivery delivery mode
+     */
+    public void setDelivery(MessageRouter.Delivery delivery) {
+        router.setDelivery(delivery);
     }
 
     /**
      * Clear all current listeners
      */
     public void clearListeners() {
-        this.handlers.clear();
+        router.clear();
+    }
+
+    /**
+     * Get the connection state property, which is updated on the JavaFX thread
+     * @return connection state property
+     */
+    public ReadOnlyObjectProperty<ConnectionState> stateProperty() {
+        return state.getReadOnlyProperty();
+    }
+
+    /**
+     * Get the number of messages waiting to be sent
+     * @return outbound queue depth
+     */
+    public int getQueueDepth() {
+        return outbound.getDepth();
     }
 
-    /** Receive a message from the server. Relay to any attached listeners
+    /**
+     * Get the total number of bytes sent to the server
+     * @return bytes sent
+     */
+    public long getBytesSent() {
+        return outbound.getBytesSent();
+    }
+
+    /**
+     * Get the number of outbound messages dropped because the queue was full
+     * @return messages dropped
+     */
+    public long getMessagesDropped() {
+        return outbound.getMessagesDropped();
+    }
+
+    /**
+     * Get the current connection state. Safe to call from any thread.
+     * @return connection state
+     */
+    public ConnectionState getState() {
+        return currentState;
+    }
+
+    /** Receive a message from the server. Parse it once and relay to the listeners subscribed to its type
      *
      * @param websocket the socket
      * @param message the message that was received
      */
     public void receive(WebSocket websocket, String message) {
-        logger.info("Received: " + message);
-
-        for(CommunicationsListener handler : handlers) {
-            handler.receiveCommunication(message);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Received: " + message);
         }
+
+        router.dispatch(Message.parse(message));
     }
 
 }
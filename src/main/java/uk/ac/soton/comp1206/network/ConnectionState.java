@@ -0,0 +1,28 @@
+package uk.ac.soton.comp1206.network;
+
+/**
+ * The states a Communicator's connection to the server can be in. Exposed through the Communicator's state property so
+ * the UI can show whether online features are available.
+ */
+public enum ConnectionState {
+
+    /**
+     * No connection has been requested yet, or the communicator has been closed
+     */
+    DISCONNECTED,
+
+    /**
+     * A connection attempt is in progress
+     */
+    CONNECTING,
+
+    /**
+     * Connected and able to send and receive messages
+     */
+    CONNECTED,
+
+    /**
+     * The last connection attempt failed or the connection dropped, and a retry is scheduled
+     */
+    RECONNECTING
+}
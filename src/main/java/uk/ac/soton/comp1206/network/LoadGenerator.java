@@ -0,0 +1,488 @@
+package uk.ac.soton.comp1206.network;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.ac.soton.comp1206.game.HeadlessGame;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Generates protocol load against a TetrECS server by running many simulated clients at once.
+ *
+ * Each simulated client connects over its own WebSocket, joins a channel, then plays headless games: after every move
+ * it sends its board and score, and now and then chats or leaves and rejoins a channel. Chat messages carry the time
+ * they were sent, so every client receiving one records the end-to-end latency through the server. When the run
+ * finishes a report of throughput, latency percentiles and errors is logged.
+ *
+ * Usage: LoadGenerator [--url ws://host:port] [--clients 1000] [--channels 50] [--seconds 60] [--move-ms 750]
+ * [--ramp-seconds 5]. Without --url an embedded LocalServer is started. Run with -Dtetrecs.logLevel=warn so logging
+ * from the simulated games does not skew the measurements.
+ */
+public class LoadGenerator {
+
+    private static final Logger logger = LogManager.getLogger(LoadGenerator.class);
+
+    /**
+     * Chance per move of sending a chat message
+     */
+    private static final double CHAT_CHANCE = 0.2;
+
+    /**
+     * Chance per move of leaving the channel and joining another
+     */
+    private static final double CHANNEL_HOP_CHANCE = 0.01;
+
+    /**
+     * Latency histogram over microseconds, with 16 sub-buckets per power of two, so percentiles are within about 6%
+     */
+    static class LatencyHistogram {
+        private static final int SUB_BUCKETS = 16;
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final AtomicLong total = new AtomicLong();
+
+        void record(long micros) {
+            counts.incrementAndGet(bucket(Math.max(1, micros)));
+            total.incrementAndGet();
+        }
+
+        private static int bucket(long value) {
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent < 4) {
+                return (int) value;
+            }
+            int mantissa = (int) (value >>> (exponent - 4)) & (SUB_BUCKETS - 1);
+            return exponent * SUB_BUCKETS + mantissa;
+        }
+
+        private static long lowerBound(int bucket) {
+            int exponent = bucket / SUB_BUCKETS;
+            if (exponent < 4) {
+                return bucket;
+            }
+            return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 4);
+        }
+
+        long count() {
+            return total.get();
+        }
+
+        long percentile(double percentile) {
+            long target = (long) Math.ceil(total.get() * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= target && seen > 0) {
+                    return lowerBound(i);
+                }
+            }
+            return 0;
+        }
+    }
+
+    private final URI server;
+    private final int clients;
+    private final int channels;
+    private final long durationMillis;
+    private final long moveMillis;
+    private final long rampMillis;
+
+    private final AtomicLong connected = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong ioErrors = new AtomicLong();
+    private final AtomicLong protocolErrors = new AtomicLong();
+    private final AtomicLong gamesPlayed = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private volatile boolean running = true;
+
+    /**
+     * Runs each client's reader alongside the task playing its game
+     */
+    private final ExecutorService readers = LocalServer.newConnectionExecutor();
+
+    /**
+     * Create a new load generator
+     * @param server server to connect to
+     * @param clients number of simulated clients
+     * @param channels number of channels to spread the clients across
+     * @param durationMillis how long to run for after ramping up
+     * @param moveMillis average time between moves for each client
+     * @param rampMillis time over which client connections are spread
+     */
+    public LoadGenerator(URI server, int clients, int channels, long durationMillis, long moveMillis, long rampMillis) {
+        this.server = server;
+        this.clients = clients;
+        this.channels = channels;
+        this.durationMillis = durationMillis;
+        this.moveMillis = moveMillis;
+        this.rampMillis = rampMillis;
+    }
+
+    /**
+     * Run the load generator from the command line
+     * @param args options, see the class description
+     * @throws Exception if the run fails
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+
+        LocalServer localServer = null;
+        String url = options.get("--url");
+        if (url == null) {
+            localServer = new LocalServer(0);
+            localServer.start();
+            url = localServer.getUrl();
+        }
+
+        var generator = new LoadGenerator(URI.create(url),
+                Integer.parseInt(options.getOrDefault("--clients", "1000")),
+                Integer.parseInt(options.getOrDefault("--channels", "50")),
+                Long.parseLong(options.getOrDefault("--seconds", "60")) * 1000,
+                Long.parseLong(options.getOrDefault("--move-ms", "750")),
+                Long.parseLong(options.getOrDefault("--ramp-seconds", "5")) * 1000);
+        generator.run();
+
+        if (localServer != null) {
+            localServer.close();
+        }
+    }
+
+    /**
+     * Run the simulated clients for the configured time and log a report
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void run() throws InterruptedException {
+        logger.info("Starting " + clients + " clients against " + server);
+        ExecutorService executor = LocalServer.newConnectionExecutor();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            int id = i;
+            long delay = clients > 1 ? rampMillis * i / (clients - 1) : 0;
+            executor.execute(() -> runClient(id, delay));
+        }
+
+        //Report progress every few seconds
+        long end = start + TimeUnit.MILLISECONDS.toNanos(rampMillis + durationMillis);
+        long lastReceived = 0;
+        long lastReport = start;
+        while (System.nanoTime() < end) {
+            Thread.sleep(5000);
+            long now = System.nanoTime();
+            long received = messagesReceived.get();
+            logger.info(String.format("%d connected, %.0f msg/s received, p99 %.2fms, %d errors",
+                    connected.get(), (received - lastReceived) / ((now - lastReport) / 1e9),
+                    latency.percentile(99) / 1000.0, errors()));
+            lastReceived = received;
+            lastReport = now;
+        }
+
+        running = false;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        readers.shutdownNow();
+        report((System.nanoTime() - start) / 1e9);
+    }
+
+    private long errors() {
+        return connectFailures.get() + ioErrors.get() + protocolErrors.get();
+    }
+
+    /**
+     * Log the final report
+     * @param seconds length of the run
+     */
+    private void report(double seconds) {
+        long sent = messagesSent.get();
+        long received = messagesReceived.get();
+        logger.info("==== Load report ====");
+        logger.info(String.format("Clients %d, channels %d, %.1fs, %d games played", clients, channels, seconds,
+                gamesPlayed.get()));
+        logger.info(String.format("Sent %d messages (%.0f/s, %.1f KB/s)", sent, sent / seconds,
+                bytesSent.get() / seconds / 1024));
+        logger.info(String.format("Received %d messages (%.0f/s, %.1f KB/s)", received, received / seconds,
+                bytesReceived.get() / seconds / 1024));
+        logger.info(String.format("Latency over %d samples: p50 %.2fms, p90 %.2fms, p99 %.2fms, p99.9 %.2fms",
+                latency.count(), latency.percentile(50) / 1000.0, latency.percentile(90) / 1000.0,
+                latency.percentile(99) / 1000.0, latency.percentile(99.9) / 1000.0));
+        logger.info(String.format("Errors: %d connect, %d I/O, %d protocol (%.3f%% of messages sent)",
+                connectFailures.get(), ioErrors.get(), protocolErrors.get(),
+                sent == 0 ? 0.0 : 100.0 * errors() / sent));
+    }
+
+    /**
+     * Connect one simulated client and play until the run ends
+     * @param id client number
+     * @param delay how long to wait before connecting, to spread the ramp-up
+     */
+    private void runClient(int id, long delay) {
+        Socket socket = null;
+        InputStream in;
+        OutputStream out;
+        try {
+            Thread.sleep(delay);
+            socket = new Socket(server.getHost(), server.getPort());
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+            handshake(in, out);
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException e) {
+            connectFailures.incrementAndGet();
+            closeQuietly(socket);
+            return;
+        }
+
+        connected.incrementAndGet();
+        try {
+            var client = new SimulatedClient(id, socket, in, out);
+            readers.execute(client::readLoop);
+            client.play();
+        } catch (IOException e) {
+            if (running) {
+                ioErrors.incrementAndGet();
+            }
+        } finally {
+            connected.decrementAndGet();
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Perform the client side of the WebSocket handshake
+     * @param in socket input
+     * @param out socket output
+     * @throws IOException if the server does not accept the upgrade
+     */
+    private void handshake(InputStream in, OutputStream out) throws IOException {
+        byte[] nonce = new byte[16];
+        ThreadLocalRandom.current().nextBytes(nonce);
+        String key = Base64.getEncoder().encodeToString(nonce);
+        String path = server.getRawPath() == null || server.getRawPath().isEmpty() ? "/" : server.getRawPath();
+
+        out.write(("GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + server.getHost() + ":" + server.getPort() + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + key + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+
+        var headers = WebSocketFrames.readHttpHeaders(in);
+        if (!headers.startsWith("HTTP/1.1 101")
+                || !WebSocketFrames.acceptKey(key).equals(WebSocketFrames.header(headers, "Sec-WebSocket-Accept"))) {
+            throw new IOException("Upgrade refused");
+        }
+    }
+
+    /**
+     * A single simulated player
+     */
+    private class SimulatedClient {
+        private final Socket socket;
+        private final CountingInputStream in;
+        private final OutputStream out;
+        private final String nickname;
+        private final Random random;
+        private final ReentrantLock writeLock = new ReentrantLock();
+        //Changed on the play thread and read on the reader thread
+        private volatile String channel;
+
+        private SimulatedClient(int id, Socket socket, InputStream in, OutputStream out) {
+            this.socket = socket;
+            this.in = new CountingInputStream(in);
+            this.out = out;
+            this.nickname = "load" + id;
+            this.random = new Random(id);
+            this.channel = "load-" + (id % channels);
+        }
+
+        private void send(String message) throws IOException {
+            sendFrame(WebSocketFrames.OP_TEXT, message.getBytes(StandardCharsets.UTF_8));
+            messagesSent.incrementAndGet();
+        }
+
+        /**
+         * Write a frame, from the play thread or the reader thread answering a ping. A lock rather than a monitor, so
+         * a virtual thread blocked writing does not hold on to its carrier. The whole frame counts towards the bytes
+         * sent.
+         * @param opcode frame opcode
+         * @param payload frame payload
+         * @throws IOException if the connection fails
+         */
+        private void sendFrame(int opcode, byte[] payload) throws IOException {
+            int written;
+            writeLock.lock();
+            try {
+                written = WebSocketFrames.writeFrame(out, opcode, payload, true);
+            } finally {
+                writeLock.unlock();
+            }
+            bytesSent.addAndGet(written);
+        }
+
+        /**
+         * Play headless games, reporting the board and score after every move
+         * @throws IOException if the connection fails
+         */
+        private void play() throws IOException {
+            send("NICK " + nickname);
+            send("JOIN " + channel);
+
+            var game = new HeadlessGame(5, 5, random.nextLong());
+            while (running) {
+                try {
+                    Thread.sleep((long) (moveMillis * (0.5 + random.nextDouble())));
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                game.playRandomMove(random);
+                send("BOARD " + board(game));
+                send("SCORE " + game.getIntScore());
+                send("LIVES " + game.getIntLives());
+
+                if (random.nextDouble() < CHAT_CHANCE) {
+                    send("MSG t=" + System.nanoTime());
+                }
+                if (random.nextDouble() < CHANNEL_HOP_CHANCE) {
+                    send("PART");
+                    channel = "load-" + random.nextInt(channels);
+                    send("JOIN " + channel);
+                }
+                if (game.isGameOver()) {
+                    send("DIE");
+                    gamesPlayed.incrementAndGet();
+                    game = new HeadlessGame(5, 5, random.nextLong());
+                }
+            }
+            socket.close();
+        }
+
+        /**
+         * Read messages until the connection closes, recording latency of timestamped chat messages
+         */
+        private void readLoop() {
+            try {
+                String message;
+                while ((message = WebSocketFrames.readMessage(in, this::sendFrame)) != null) {
+                    messagesReceived.incrementAndGet();
+                    bytesReceived.addAndGet(in.take());
+                    handle(message);
+                }
+            } catch (IOException e) {
+                if (running && !socket.isClosed()) {
+                    ioErrors.incrementAndGet();
+                }
+            }
+        }
+
+        private void handle(String message) throws IOException {
+            if (message.startsWith("MSG ")) {
+                int stamp = message.indexOf(":t=");
+                if (stamp > 0) {
+                    long sentAt = Long.parseLong(message.substring(stamp + 3).trim());
+                    latency.record((System.nanoTime() - sentAt) / 1000);
+                }
+            } else if (message.startsWith("ERROR")) {
+                //The first client into a channel finds it missing and creates it; anything else is a real error
+                if (message.contains("No such channel")) {
+                    send("CREATE " + channel);
+                } else if (message.contains("already exists")) {
+                    send("JOIN " + channel);
+                } else {
+                    protocolErrors.incrementAndGet();
+                }
+            }
+        }
+
+        private String board(HeadlessGame game) {
+            var grid = game.getGrid();
+            var board = new StringBuilder();
+            for (int y = 0; y < grid.getRows(); y++) {
+                for (int x = 0; x < grid.getCols(); x++) {
+                    if (board.length() > 0) {
+                        board.append(' ');
+                    }
+                    board.append(grid.get(x, y));
+                }
+            }
+            return board.toString();
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, so received traffic is measured in whole frames as they came off the socket
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        /**
+         * Get the bytes read since this was last called
+         * @return bytes read
+         */
+        private long take() {
+            long taken = count;
+            count = 0;
+            return taken;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
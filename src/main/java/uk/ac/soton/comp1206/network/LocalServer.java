@@ -0,0 +1,526 @@
+package uk.ac.soton.comp1206.network;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process stand-in for the TetrECS server, speaking the same text protocol over WebSockets. Used to develop and
+ * test online features without the university server, and as a target for the load generator.
+ *
+ * Each connection is served by two tasks of its own, one reading and one writing, on virtual threads where the JVM
+ * supports them, so thousands of clients can be connected at once.
+ */
+public class LocalServer implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(LocalServer.class);
+
+    /**
+     * Number of high scores returned by HISCORES
+     */
+    private static final int HISCORE_COUNT = 10;
+
+    /**
+     * Frames a client can have waiting to be written before it is treated as stalled and disconnected
+     */
+    private static final int MAX_QUEUED = 1024;
+
+    /**
+     * Queued after a client's last frame to stop its writer
+     */
+    private static final byte[] END = new byte[0];
+
+    /**
+     * A connected client. Frames sent to it are queued and written by a task of its own, so a client which stops
+     * reading only ever holds up itself, never the client whose message is being sent to it.
+     */
+    private class Client {
+        private final Socket socket;
+        private final OutputStream out;
+        private final BlockingQueue<byte[]> outbound = new LinkedBlockingQueue<>(MAX_QUEUED);
+        private volatile String nickname;
+        private volatile Channel channel;
+        private volatile int score = 0;
+        private volatile int lives = 3;
+
+        private Client(Socket socket, OutputStream out, String nickname) {
+            this.socket = socket;
+            this.out = out;
+            this.nickname = nickname;
+        }
+
+        /**
+         * Send a message to this client
+         * @param message the message
+         */
+        private void send(String message) {
+            sendFrame(WebSocketFrames.OP_TEXT, message.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Queue a frame for this client. A client too far behind to take any more is disconnected.
+         * @param opcode frame opcode
+         * @param payload frame payload
+         */
+        private void sendFrame(int opcode, byte[] payload) {
+            if (!outbound.offer(WebSocketFrames.encodeFrame(opcode, payload, false))) {
+                logger.debug("Disconnecting " + nickname + ", who is not reading");
+                closeQuietly(socket);
+            }
+        }
+
+        /**
+         * Write queued frames until the client disconnects, flushing whenever the queue runs dry
+         */
+        private void writeLoop() {
+            try {
+                byte[] frame;
+                while ((frame = outbound.take()) != END) {
+                    out.write(frame);
+                    if (outbound.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                closeQuietly(socket);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A channel (game lobby) and its members. Members are only added and removed inside a compute on the channels
+     * map, so a channel is never left listed with no members, nor joined after its last member has left it.
+     */
+    private static class Channel {
+        private final String name;
+        private final Set<Client> members = ConcurrentHashMap.newKeySet();
+        private volatile Client host;
+        private volatile boolean started = false;
+
+        private Channel(String name, Client host) {
+            this.name = name;
+            this.host = host;
+            members.add(host);
+        }
+
+        private void broadcast(String message) {
+            for (Client member : members) {
+                member.send(message);
+            }
+        }
+    }
+
+    private final int requestedPort;
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final ArrayList<String> hiscores = new ArrayList<>();
+    private final AtomicInteger guests = new AtomicInteger();
+
+    private ServerSocket serverSocket;
+    private ExecutorService connections;
+    private Thread acceptor;
+
+    /**
+     * Create a new local server
+     * @param port port to listen on, or 0 to pick a free one
+     */
+    public LocalServer(int port) {
+        this.requestedPort = port;
+    }
+
+    /**
+     * Start a standalone local server, for load testing, and serve until the process is killed
+     * @param args optional port, defaulting to 9700
+     * @throws IOException if the port cannot be bound
+     * @throws InterruptedException if interrupted while serving
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9700;
+        var server = new LocalServer(port);
+        server.start();
+        logger.info("Local server listening on " + server.getUrl());
+
+        //The acceptor is a daemon so an embedded server never holds the game open, so wait on it here instead
+        server.acceptor.join();
+    }
+
+    /**
+     * Bind the port and start accepting connections in the background
+     * @throws IOException if the port cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        serverSocket = new ServerSocket(requestedPort, 4096, InetAddress.getLoopbackAddress());
+        connections = newConnectionExecutor();
+        acceptor = new Thread(this::acceptLoop, "local-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("Local server started on port " + serverSocket.getLocalPort());
+    }
+
+    /**
+     * Stop accepting connections and disconnect every client
+     */
+    @Override
+    public synchronized void close() {
+        closeQuietly(serverSocket);
+        for (Client client : clients) {
+            closeQuietly(client.socket);
+        }
+        if (connections != null) {
+            connections.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the port the server is listening on
+     * @return port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Get the WebSocket URL to give a Communicator
+     * @return server URL
+     */
+    public String getUrl() {
+        return "ws://127.0.0.1:" + getPort();
+    }
+
+    /**
+     * Get the number of clients currently connected
+     * @return connected clients
+     */
+    public int getConnectionCount() {
+        return clients.size();
+    }
+
+    /**
+     * Create an executor running one task per connection: virtual threads when the JVM has them, otherwise a cached
+     * pool of daemon threads.
+     * @return connection executor
+     */
+    static ExecutorService newConnectionExecutor() {
+        try {
+            var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                var thread = new Thread(null, runnable, "connection", 256 * 1024);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                var socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.execute(() -> serve(socket));
+            } catch (SocketException e) {
+                //Server socket closed
+                return;
+            } catch (Exception e) {
+                logger.error("Accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Handshake with and then serve a single client until it disconnects
+     * @param socket the client socket
+     */
+    private void serve(Socket socket) {
+        Client client = null;
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+            var headers = WebSocketFrames.readHttpHeaders(in);
+            var key = WebSocketFrames.header(headers, "Sec-WebSocket-Key");
+            if (key == null) {
+                out.write("HTTP/1.1 400 Bad Request\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                return;
+            }
+            out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + WebSocketFrames.acceptKey(key) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            client = new Client(socket, out, "guest" + guests.incrementAndGet());
+            clients.add(client);
+            connections.execute(client::writeLoop);
+
+            String message;
+            while ((message = WebSocketFrames.readMessage(in, client::sendFrame)) != null) {
+                handle(client, message);
+            }
+        } catch (IOException e) {
+            logger.debug("Connection closed: " + e.getMessage());
+        } finally {
+            if (client != null) {
+                clients.remove(client);
+                part(client);
+                //A full queue means the writer is not waiting on it, and it will fail on the closed socket instead
+                client.outbound.offer(END);
+            }
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Handle a single command from a client
+     * @param client the client
+     * @param message the command and its arguments
+     */
+    private void handle(Client client, String message) {
+        int space = message.indexOf(' ');
+        String command = space < 0 ? message : message.substring(0, space);
+        String argument = space < 0 ? "" : message.substring(space + 1).trim();
+        var channel = client.channel;
+
+        switch (command) {
+            case "HISCORES" -> client.send("HISCORES " + hiscoreList());
+            case "HISCORE" -> {
+                addHiscore(argument);
+                client.send("NEWSCORE " + argument);
+            }
+            case "LIST" -> client.send("CHANNELS " + String.join("\n", channels.keySet()));
+            case "CREATE" -> createChannel(client, argument);
+            case "JOIN" -> joinChannel(client, argument);
+            case "PART" -> {
+                part(client);
+                client.send("PARTED");
+            }
+            case "NICK" -> {
+                if (!argument.isEmpty()) {
+                    client.nickname = argument.replace(':', '_');
+                }
+                client.send("NICK " + client.nickname);
+                if (channel != null) {
+                    channel.broadcast("USERS " + users(channel));
+                }
+            }
+            case "USERS" -> {
+                if (channel != null) {
+                    client.send("USERS " + users(channel));
+                }
+            }
+            case "START" -> {
+                if (channel == null || channel.host != client) {
+                    client.send("ERROR Only the host can start the game");
+                } else {
+                    channel.started = true;
+                    channel.broadcast("START");
+                }
+            }
+            case "MSG" -> {
+                if (channel != null) {
+                    channel.broadcast("MSG " + client.nickname + ":" + argument);
+                }
+            }
+            case "SCORE" -> {
+                client.score = parseOr(argument, client.score);
+                if (channel != null) {
+                    channel.broadcast("SCORE " + client.nickname + ":" + client.score);
+                }
+            }
+            case "LIVES" -> {
+                client.lives = parseOr(argument, client.lives);
+                if (channel != null) {
+                    channel.broadcast("LIVES " + client.nickname + ":" + client.lives);
+                }
+            }
+            case "BOARD" -> {
+                if (channel != null) {
+                    channel.broadcast("BOARD " + client.nickname + ":" + argument);
+                }
+            }
+            case "DIE" -> {
+                client.lives = -1;
+                if (channel != null) {
+                    channel.broadcast("DIE " + client.nickname);
+                }
+            }
+            case "SCORES" -> {
+                if (channel != null) {
+                    client.send("SCORES " + scores(channel));
+                }
+            }
+            case "PIECE" -> client.send("PIECE " + ThreadLocalRandom.current().nextInt(15));
+            default -> client.send("ERROR Unknown command " + command);
+        }
+    }
+
+    private void createChannel(Client client, String name) {
+        if (name.isEmpty()) {
+            client.send("ERROR Channel name required");
+            return;
+        }
+        var channel = new Channel(name, client);
+        if (channels.putIfAbsent(name, channel) != null) {
+            client.send("ERROR Channel already exists");
+            return;
+        }
+        part(client);
+        client.channel = channel;
+        client.send("JOIN " + name);
+        client.send("HOST");
+        client.send("USERS " + users(channel));
+    }
+
+    private void joinChannel(Client client, String name) {
+        var channel = channels.get(name);
+        if (channel == null) {
+            client.send("ERROR No such channel");
+            return;
+        }
+        if (channel.started) {
+            client.send("ERROR Game already started");
+            return;
+        }
+        part(client);
+
+        //Only join the channel if it is still listed, or its last member may have just closed it
+        var joined = channels.computeIfPresent(name, (key, existing) -> {
+            if (existing == channel) {
+                channel.members.add(client);
+            }
+            return existing;
+        });
+        if (joined != channel) {
+            client.send("ERROR No such channel");
+            return;
+        }
+        client.channel = channel;
+        client.score = 0;
+        client.lives = 3;
+        client.send("JOIN " + name);
+        channel.broadcast("USERS " + users(channel));
+    }
+
+    /**
+     * Remove a client from its channel, handing over or closing the channel if it was the host
+     * @param client the client
+     */
+    private void part(Client client) {
+        var channel = client.channel;
+        if (channel == null) {
+            return;
+        }
+        client.channel = null;
+
+        //Leaving and closing the channel happen together, so nobody can join it in between
+        boolean[] empty = {false};
+        channels.compute(channel.name, (key, existing) -> {
+            channel.members.remove(client);
+            empty[0] = channel.members.isEmpty();
+            return existing == channel && empty[0] ? null : existing;
+        });
+        if (empty[0]) {
+            return;
+        }
+        if (channel.host == client) {
+            var newHost = channel.members.iterator().next();
+            channel.host = newHost;
+            newHost.send("HOST");
+        }
+        channel.broadcast("USERS " + users(channel));
+    }
+
+    private String users(Channel channel) {
+        var names = new StringBuilder();
+        for (Client member : channel.members) {
+            if (names.length() > 0) {
+                names.append('\n');
+            }
+            names.append(member.nickname);
+        }
+        return names.toString();
+    }
+
+    private String scores(Channel channel) {
+        var scores = new StringBuilder();
+        for (Client member : channel.members) {
+            if (scores.length() > 0) {
+                scores.append('\n');
+            }
+            scores.append(member.nickname).append(':').append(member.score).append(':')
+                    .append(member.lives < 0 ? "DEAD" : member.lives);
+        }
+        return scores.toString();
+    }
+
+    /**
+     * Add a name:score entry to the high score table, keeping it sorted and trimmed
+     * @param entry the entry
+     */
+    private synchronized void addHiscore(String entry) {
+        int score = scoreOf(entry);
+        if (score < 0) {
+            return;
+        }
+        int position = 0;
+        while (position < hiscores.size() && scoreOf(hiscores.get(position)) >= score) {
+            position++;
+        }
+        hiscores.add(position, entry);
+        if (hiscores.size() > HISCORE_COUNT) {
+            hiscores.remove(hiscores.size() - 1);
+        }
+    }
+
+    private synchronized String hiscoreList() {
+        return String.join("\n", hiscores);
+    }
+
+    private static int scoreOf(String entry) {
+        int colon = entry.lastIndexOf(':');
+        return colon < 0 ? -1 : parseOr(entry.substring(colon + 1), -1);
+    }
+
+    private static int parseOr(String value, int fallback) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception ignored) {
+        }
+    }
+}
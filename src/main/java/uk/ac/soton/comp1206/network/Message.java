@@ -0,0 +1,79 @@
+package uk.ac.soton.comp1206.network;
+
+/**
+ * A message received from the TetrECS server, parsed once into its type and payload.
+ *
+ * Messages are immutable so the same instance can be handed to every interested listener on any thread.
+ */
+public class Message {
+
+    private final MessageType type;
+    private final String payload;
+    private final String raw;
+
+    /**
+     * The payload split into lines. Split up front so the field can be final, and so safely published to every thread
+     * the message is handed to.
+     */
+    private final String[] lines;
+
+    private Message(MessageType type, String payload, String raw) {
+        this.type = type;
+        this.payload = payload;
+        this.raw = raw;
+        this.lines = payload.isEmpty() ? new String[0] : payload.split("\n");
+    }
+
+    /**
+     * Parse a raw frame from the server
+     * @param raw the text of the frame
+     * @return the parsed message
+     */
+    public static Message parse(String raw) {
+        int space = raw.indexOf(' ');
+        String prefix = space < 0 ? raw : raw.substring(0, space);
+        String payload = space < 0 ? "" : raw.substring(space + 1);
+        return new Message(MessageType.fromPrefix(prefix), payload, raw);
+    }
+
+    /**
+     * Get the type of this message
+     * @return message type
+     */
+    public MessageType getType() {
+        return type;
+    }
+
+    /**
+     * Get everything after the type prefix
+     * @return payload, empty if there was none
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * Get the payload split on newlines, as used by list messages such as HISCORES, CHANNELS, USERS and SCORES
+     * @return payload lines
+     */
+    public String[] getLines() {
+        return lines;
+    }
+
+    /**
+     * Get the message exactly as it was received
+     * @return raw message
+     */
+    public String getRaw() {
+        return raw;
+    }
+
+    /**
+     * Return the raw message
+     * @return raw message
+     */
+    @Override
+    public String toString() {
+        return raw;
+    }
+}
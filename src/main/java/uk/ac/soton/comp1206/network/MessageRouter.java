@@ -0,0 +1,171 @@
+package uk.ac.soton.comp1206.network;
+
+import javafx.application.Platform;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.ac.soton.comp1206.event.MessageListener;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Routes parsed messages to the listeners subscribed to their type.
+ *
+ * Subscriptions are held in copy-on-write lists, so listeners can be added and cleared from the JavaFX thread while
+ * the socket thread is dispatching. Messages can be delivered straight away on the receiving thread, or handed to the
+ * JavaFX thread in batches so a burst of messages costs one runLater rather than one each.
+ */
+public class MessageRouter {
+
+    private static final Logger logger = LogManager.getLogger(MessageRouter.class);
+
+    /**
+     * How messages are handed to listeners
+     */
+    public enum Delivery {
+        /**
+         * Call listeners on the thread that received the message
+         */
+        IMMEDIATE,
+
+        /**
+         * Queue messages and deliver everything queued in a single runLater on the JavaFX thread
+         */
+        FX_BATCHED
+    }
+
+    /**
+     * Listeners for each message type
+     */
+    private final Map<MessageType, List<MessageListener>> subscribers = new EnumMap<>(MessageType.class);
+
+    /**
+     * Listeners which want every message regardless of type
+     */
+    private final List<MessageListener> all = new CopyOnWriteArrayList<>();
+
+    /**
+     * Messages waiting to be delivered on the JavaFX thread
+     */
+    private final Queue<Message> queued = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether a drain of the queue has already been scheduled on the JavaFX thread
+     */
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    private volatile Delivery delivery = Delivery.IMMEDIATE;
+
+    /**
+     * Create a new router with an empty subscription list for every message type
+     */
+    public MessageRouter() {
+        for (MessageType type : MessageType.values()) {
+            subscribers.put(type, new CopyOnWriteArrayList<>());
+        }
+    }
+
+    /**
+     * Set how messages are delivered to listeners
+     * @param delivery delivery mode
+     */
+    public void setDelivery(Delivery delivery) {
+        this.delivery = delivery;
+    }
+
+    /**
+     * Subscribe to messages of a single type
+     * @param type the message type
+     * @param listener listener to call
+     */
+    public void subscribe(MessageType type, MessageListener listener) {
+        subscribers.get(type).add(listener);
+    }
+
+    /**
+     * Subscribe to every message
+     * @param listener listener to call
+     */
+    public void subscribeAll(MessageListener listener) {
+        all.add(listener);
+    }
+
+    /**
+     * Remove a listener from the given type
+     * @param type the message type
+     * @param listener listener to remove
+     */
+    public void unsubscribe(MessageType type, MessageListener listener) {
+        subscribers.get(type).remove(listener);
+    }
+
+    /**
+     * Remove every subscription, including any messages still waiting to be delivered
+     */
+    public void clear() {
+        for (List<MessageListener> listeners : subscribers.values()) {
+            listeners.clear();
+        }
+        all.clear();
+        queued.clear();
+    }
+
+    /**
+     * Route a message to its subscribers according to the delivery mode
+     * @param message the message
+     */
+    public void dispatch(Message message) {
+        if (delivery == Delivery.IMMEDIATE) {
+            deliver(message);
+            return;
+        }
+
+        queued.add(message);
+        if (drainScheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::drain);
+        }
+    }
+
+    /**
+     * Deliver everything queued so far. Runs on the JavaFX thread.
+     */
+    private void drain() {
+        //Clear the flag first so a message arriving mid-drain schedules another one rather than being stranded
+        drainScheduled.set(false);
+        Message message;
+        while ((message = queued.poll()) != null) {
+            deliver(message);
+        }
+    }
+
+    /**
+     * Call every listener interested in this message
+     * @param message the message
+     */
+    private void deliver(Message message) {
+        for (MessageListener listener : subscribers.get(message.getType())) {
+            deliverTo(listener, message);
+        }
+        for (MessageListener listener : all) {
+            deliverTo(listener, message);
+        }
+    }
+
+    /**
+     * Call a single listener, so one failing listener does not stop the others receiving the message
+     * @param listener the listener
+     * @param message the message
+     */
+    private void deliverTo(MessageListener listener, Message message) {
+        try {
+            listener.receiveMessage(message);
+        } catch (Exception e) {
+            logger.error("Listener failed handling " + message.getType() + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package uk.ac.soton.comp1206.network;
+
+/**
+ * The kinds of message the TetrECS server sends. Each message starts with its type as the first word, followed by an
+ * optional payload.
+ */
+public enum MessageType {
+    HISCORES,
+    NEWSCORE,
+    CHANNELS,
+    JOIN,
+    HOST,
+    NICK,
+    USERS,
+    PARTED,
+    START,
+    MSG,
+    SCORES,
+    SCORE,
+    BOARD,
+    LIVES,
+    PIECE,
+    DIE,
+    ERROR,
+
+    /**
+     * Anything not recognised. Still delivered, so listeners can handle newer server messages.
+     */
+    UNKNOWN;
+
+    private static final MessageType[] VALUES = values();
+
+    /**
+     * Look up the type for the given prefix
+     * @param prefix the first word of a message
+     * @return the matching type, or UNKNOWN
+     */
+    public static MessageType fromPrefix(String prefix) {
+        for (MessageType type : VALUES) {
+            if (type.name().equals(prefix)) {
+                return type;
+            }
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,232 @@
+package uk.ac.soton.comp1206.network;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * A bounded queue of messages waiting to be sent to the server.
+ *
+ * Messages which report state, such as BOARD and SCORE, are coalesced: if one is still waiting when a newer one of the
+ * same command is queued, the waiting one is replaced in place, so only the latest state goes out. Everything else is
+ * sent in order. The queue is drained at a fixed rate by the owner calling flush(), and when it is full the overflow
+ * policy decides whether to drop the oldest message, drop the new one, or block the caller until there is room.
+ */
+public class OutboundQueue {
+
+    private static final Logger logger = LogManager.getLogger(OutboundQueue.class);
+
+    /**
+     * What to do when a message is offered to a full queue
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the oldest waiting message to make room
+         */
+        DROP_OLDEST,
+
+        /**
+         * Discard the message being offered
+         */
+        DROP_NEWEST,
+
+        /**
+         * Wait until a flush makes room. Must not be used from the JavaFX thread.
+         */
+        BLOCK
+    }
+
+    /**
+     * A queued message. The text of a coalesced entry can be replaced while it waits.
+     */
+    private static class Entry {
+        private final String command;
+        private String text;
+
+        private Entry(String command, String text) {
+            this.command = command;
+            this.text = text;
+        }
+    }
+
+    private final Deque<Entry> queue = new ArrayDeque<>();
+
+    /**
+     * The waiting entry for each coalesced command, if there is one
+     */
+    private final Map<String, Entry> waiting = new HashMap<>();
+
+    /**
+     * Commands whose messages replace any unsent message of the same command
+     */
+    private final Set<String> coalesced = new HashSet<>();
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong messagesCoalesced = new AtomicLong();
+    private final AtomicLong messagesDropped = new AtomicLong();
+
+    /**
+     * Create a new outbound queue
+     * @param capacity maximum number of messages waiting to be sent
+     * @param policy what to do when the queue is full
+     */
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Coalesce messages starting with the given command, so only the latest unsent one is kept
+     * @param command the command, such as BOARD
+     */
+    public synchronized void coalesce(String command) {
+        coalesced.add(command);
+    }
+
+    /**
+     * Queue a message to be sent on the next flush
+     * @param message the message
+     * @return false if the message was dropped because the queue was full
+     */
+    public synchronized boolean offer(String message) {
+        int space = message.indexOf(' ');
+        String command = space < 0 ? message : message.substring(0, space);
+
+        //Replace the waiting state message rather than queueing another
+        if (coalesced.contains(command)) {
+            var entry = waiting.get(command);
+            if (entry != null) {
+                entry.text = message;
+                messagesCoalesced.incrementAndGet();
+                return true;
+            }
+        }
+
+        while (queue.size() >= capacity) {
+            switch (policy) {
+                case DROP_NEWEST -> {
+                    messagesDropped.incrementAndGet();
+                    logger.warn("Outbound queue full, dropping " + command);
+                    return false;
+                }
+                case DROP_OLDEST -> {
+                    var oldest = queue.poll();
+                    waiting.remove(oldest.command, oldest);
+                    messagesDropped.incrementAndGet();
+                    logger.warn("Outbound queue full, dropping " + oldest.command);
+                }
+                case BLOCK -> {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        messagesDropped.incrementAndGet();
+                        return false;
+                    }
+                }
+            }
+        }
+
+        var entry = new Entry(command, message);
+        queue.add(entry);
+        if (coalesced.contains(command)) {
+            waiting.put(command, entry);
+        }
+        return true;
+    }
+
+    /**
+     * Send queued messages in order through the given sender until the queue is empty or the sender refuses one. A
+     * refused message stays at the head of the queue for the next flush.
+     * @param sender sends a message, returning false if it could not be sent
+     * @return number of messages sent
+     */
+    public int flush(Predicate<String> sender) {
+        int sent = 0;
+        while (true) {
+            String text;
+            synchronized (this) {
+                var entry = queue.peek();
+                if (entry == null) {
+                    break;
+                }
+                text = entry.text;
+                if (!sender.test(text)) {
+                    break;
+                }
+                queue.poll();
+                waiting.remove(entry.command, entry);
+                notifyAll();
+            }
+            sent++;
+            messagesSent.incrementAndGet();
+            bytesSent.addAndGet(text.getBytes(StandardCharsets.UTF_8).length);
+        }
+        return sent;
+    }
+
+    /**
+     * Discard everything waiting to be sent
+     */
+    public synchronized void clear() {
+        queue.clear();
+        waiting.clear();
+        notifyAll();
+    }
+
+    /**
+     * Get the number of messages waiting to be sent
+     * @return queue depth
+     */
+    public synchronized int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Get the total number of bytes sent through this queue
+     * @return bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Get the total number of messages sent through this queue
+     * @return messages sent
+     */
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    /**
+     * Get the number of messages which replaced an unsent message of the same command
+     * @return messages coalesced
+     */
+    public long getMessagesCoalesced() {
+        return messagesCoalesced.get();
+    }
+
+    /**
+     * Get the number of messages dropped because the queue was full
+     * @return messages dropped
+     */
+    public long getMessagesDropped() {
+        return messagesDropped.get();
+    }
+}
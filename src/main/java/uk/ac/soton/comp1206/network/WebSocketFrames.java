@@ -0,0 +1,277 @@
+package uk.ac.soton.comp1206.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Minimal WebSocket (RFC 6455) framing used by the local server and the load generator. Only what the TetrECS text
+ * protocol needs is supported: text frames, fragmentation, ping, pong and close.
+ */
+class WebSocketFrames {
+
+    static final int OP_CONTINUATION = 0x0;
+    static final int OP_TEXT = 0x1;
+    static final int OP_BINARY = 0x2;
+    static final int OP_CLOSE = 0x8;
+    static final int OP_PING = 0x9;
+    static final int OP_PONG = 0xA;
+
+    /**
+     * Largest message we are prepared to accept. TetrECS messages are a few hundred bytes at most.
+     */
+    static final int MAX_PAYLOAD = 1 << 20;
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    /**
+     * A single frame read from a stream
+     */
+    static class Frame {
+        final int opcode;
+        final boolean fin;
+        final byte[] payload;
+
+        Frame(int opcode, boolean fin, byte[] payload) {
+            this.opcode = opcode;
+            this.fin = fin;
+            this.payload = payload;
+        }
+
+        String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Somewhere frames can be sent, such as a connection's outbound queue
+     */
+    interface FrameSender {
+        void send(int opcode, byte[] payload) throws IOException;
+    }
+
+    private WebSocketFrames() {
+    }
+
+    /**
+     * Read one frame, unmasking the payload if needed
+     * @param in stream to read from
+     * @return the frame
+     * @throws IOException if the stream ends or the frame is malformed
+     */
+    static Frame readFrame(InputStream in) throws IOException {
+        int b0 = readByte(in);
+        int b1 = readByte(in);
+        boolean fin = (b0 & 0x80) != 0;
+        int opcode = b0 & 0x0F;
+        boolean masked = (b1 & 0x80) != 0;
+
+        long length = b1 & 0x7F;
+        if (length == 126) {
+            length = (readByte(in) << 8) | readByte(in);
+        } else if (length == 127) {
+            length = 0;
+            for (int i = 0; i < 8; i++) {
+                length = (length << 8) | readByte(in);
+            }
+        }
+        if (length > MAX_PAYLOAD || length < 0) {
+            throw new IOException("Frame too large: " + length);
+        }
+
+        byte[] mask = null;
+        if (masked) {
+            mask = in.readNBytes(4);
+            if (mask.length < 4) {
+                throw new EOFException();
+            }
+        }
+
+        byte[] payload = in.readNBytes((int) length);
+        if (payload.length < length) {
+            throw new EOFException();
+        }
+        if (mask != null) {
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= mask[i & 3];
+            }
+        }
+        return new Frame(opcode, fin, payload);
+    }
+
+    /**
+     * Read a whole text message, joining continuation frames and answering pings along the way
+     * @param in stream to read from
+     * @param pongs where to send pongs, which must be safe to call while the connection is also being written to
+     * @return the message text, or null if the peer closed the connection
+     * @throws IOException on a read or protocol error
+     */
+    static String readMessage(InputStream in, FrameSender pongs) throws IOException {
+        ByteArrayOutputStream message = null;
+        while (true) {
+            var frame = readFrame(in);
+            switch (frame.opcode) {
+                case OP_PING -> pongs.send(OP_PONG, frame.payload);
+                case OP_PONG -> {
+                }
+                case OP_CLOSE -> {
+                    return null;
+                }
+                case OP_TEXT, OP_BINARY, OP_CONTINUATION -> {
+                    if (frame.fin && message == null) {
+                        return frame.text();
+                    }
+                    if (message == null) {
+                        message = new ByteArrayOutputStream();
+                    }
+                    message.write(frame.payload);
+                    if (message.size() > MAX_PAYLOAD) {
+                        throw new IOException("Message too large");
+                    }
+                    if (frame.fin) {
+                        return message.toString(StandardCharsets.UTF_8);
+                    }
+                }
+                default -> throw new IOException("Unknown opcode " + frame.opcode);
+            }
+        }
+    }
+
+    /**
+     * Write a single unfragmented frame. Callers writing from several threads must hold a lock on the stream.
+     * @param out stream to write to
+     * @param opcode frame opcode
+     * @param payload frame payload
+     * @param masked whether to mask the payload, as clients must
+     * @return number of bytes written
+     * @throws IOException on a write error
+     */
+    static int writeFrame(OutputStream out, int opcode, byte[] payload, boolean masked) throws IOException {
+        byte[] frame = encodeFrame(opcode, payload, masked);
+        out.write(frame);
+        out.flush();
+        return frame.length;
+    }
+
+    /**
+     * Encode a single unfragmented frame, header and payload together, ready to be written
+     * @param opcode frame opcode
+     * @param payload frame payload
+     * @param masked whether to mask the payload, as clients must
+     * @return the frame
+     */
+    static byte[] encodeFrame(int opcode, byte[] payload, boolean masked) {
+        int length = payload.length;
+        byte[] header = new byte[14];
+        int pos = 0;
+        header[pos++] = (byte) (0x80 | opcode);
+
+        int maskBit = masked ? 0x80 : 0;
+        if (length < 126) {
+            header[pos++] = (byte) (maskBit | length);
+        } else if (length < 65536) {
+            header[pos++] = (byte) (maskBit | 126);
+            header[pos++] = (byte) (length >>> 8);
+            header[pos++] = (byte) length;
+        } else {
+            header[pos++] = (byte) (maskBit | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                header[pos++] = (byte) ((long) length >>> shift);
+            }
+        }
+
+        byte[] frame = new byte[pos + (masked ? 4 : 0) + length];
+        System.arraycopy(header, 0, frame, 0, pos);
+        if (masked) {
+            int key = ThreadLocalRandom.current().nextInt();
+            byte[] mask = {(byte) (key >>> 24), (byte) (key >>> 16), (byte) (key >>> 8), (byte) key};
+            System.arraycopy(mask, 0, frame, pos, 4);
+            pos += 4;
+            for (int i = 0; i < length; i++) {
+                frame[pos + i] = (byte) (payload[i] ^ mask[i & 3]);
+            }
+        } else {
+            System.arraycopy(payload, 0, frame, pos, length);
+        }
+        return frame;
+    }
+
+    /**
+     * Write a text frame
+     * @param out stream to write to
+     * @param text the message
+     * @param masked whether to mask the payload
+     * @return number of bytes written
+     * @throws IOException on a write error
+     */
+    static int writeText(OutputStream out, String text, boolean masked) throws IOException {
+        return writeFrame(out, OP_TEXT, text.getBytes(StandardCharsets.UTF_8), masked);
+    }
+
+    /**
+     * Work out the Sec-WebSocket-Accept value for a handshake key
+     * @param key the client's Sec-WebSocket-Key
+     * @return the accept value
+     */
+    static String acceptKey(String key) {
+        try {
+            var sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+
+    /**
+     * Read an HTTP header block up to the blank line
+     * @param in stream to read from
+     * @return the header text
+     * @throws IOException if the stream ends first or the headers are too long
+     */
+    static String readHttpHeaders(InputStream in) throws IOException {
+        var headers = new StringBuilder();
+        int matched = 0;
+        while (matched < 4) {
+            int b = readByte(in);
+            headers.append((char) b);
+            if (headers.length() > 8192) {
+                throw new IOException("Handshake too long");
+            }
+            matched = (b == '\r' && (matched == 0 || matched == 2)) || (b == '\n' && (matched == 1 || matched == 3))
+                    ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return headers.toString();
+    }
+
+    /**
+     * Find a header value in a header block, ignoring case
+     * @param headers header text
+     * @param name header name
+     * @return the trimmed value, or null if missing
+     */
+    static String header(String headers, String name) {
+        for (String line : headers.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+}
@@ -65,6 +65,12 @@ public abstract class BaseScene {
         return musicPlayer;
     }
 
+    /**
+     * Called when this scene is about to be replaced or the window closed, to stop anything it has running
+     */
+    public void cleanup() {
+    }
+
     /**
      * Helper function used to arrange nodes on the screen.
      * @param x X Coordinate of node
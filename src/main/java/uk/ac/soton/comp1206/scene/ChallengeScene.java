@@ -1,6 +1,7 @@
 package uk.ac.soton.comp1206.scene;
 
-import java.util.HashSet;
+import java.nio.file.Path;
+import java.util.Set;
 
 import javafx.animation.AnimationTimer;
 import javafx.animation.KeyFrame;
@@ -24,6 +25,11 @@ import uk.ac.soton.comp1206.component.GameBlockCoordinate;
 import uk.ac.soton.comp1206.component.GameBoard;
 import uk.ac.soton.comp1206.component.PieceBoard;
 import uk.ac.soton.comp1206.game.Game;
+import uk.ac.soton.comp1206.game.GameEvent;
+import uk.ac.soton.comp1206.game.GameEventType;
+import uk.ac.soton.comp1206.game.GameJournal;
+import uk.ac.soton.comp1206.game.Replay;
+import uk.ac.soton.comp1206.game.ReplayRecorder;
 import uk.ac.soton.comp1206.game.Grid;
 import uk.ac.soton.comp1206.ui.GamePane;
 import uk.ac.soton.comp1206.ui.GameWindow;
@@ -45,6 +51,14 @@ public class ChallengeScene extends BaseScene {
   private AnchorPane anchorPane;
   private Rectangle timerBar;
   private Timeline timeline;
+  private ReplayRecorder recorder;
+
+  /**
+   * The game events the scene shows
+   */
+  protected static final GameEventType[] SHOWN_EVENTS = {
+      GameEventType.LINES_CLEARED, GameEventType.TIMED_OUT, GameEventType.PIECE_PLACED, GameEventType.GAME_ENDED
+  };
 
 
   /**
@@ -59,6 +73,17 @@ public class ChallengeScene extends BaseScene {
     logger.info("Creating Challenge Scene");
   }
 
+  /**
+   * Create a Single Player challenge scene which carries on a game already in progress
+   *
+   * @param gameWindow the Game Window
+   * @param game the game to carry on
+   */
+  public ChallengeScene(GameWindow gameWindow, Game game) {
+    this(gameWindow);
+    this.game = game;
+  }
+
   /** Build the Challenge window */
   @Override
   public void build() {
@@ -96,16 +121,41 @@ public class ChallengeScene extends BaseScene {
    * @param gameBlock the Game Block that was clocked
    */
   private void blockClicked(GameBlock gameBlock) {
-    game.blockClicked(gameBlock);
+    if (!isPlayerControlled()) {
+      return;
+    }
+    place(gameBlock.getX(), gameBlock.getY());
     refreshPieceBoards();
   }
 
   /** Setup the game object and model */
   public void setupGame() {
-    logger.info("Starting a new challenge");
+    if (game == null) {
+      logger.info("Starting a new challenge");
+
+      // Start new game, recording it so it can be replayed
+      game = new Game(5, 5);
+      recorder = new ReplayRecorder(game);
+    } else {
+      logger.info("Resuming a challenge");
+    }
+
+    // Save the game as it goes, so it can be resumed
+    var journal = GameJournal.getInstance();
+    if (journal != null) {
+      game.setJournal(journal);
+    }
+  }
 
-    // Start new game
-    game = new Game(5, 5);
+  /**
+   * Suspend the game if the player leaves before it is over, so it can be resumed later
+   */
+  @Override
+  public void cleanup() {
+    if (timeline != null) {
+      timeline.stop();
+    }
+    game.suspend();
   }
 
   /** Initialise the scene and start the game */
@@ -116,19 +166,22 @@ public class ChallengeScene extends BaseScene {
     // Handle keyboard controls
     scene.setOnKeyPressed(
         keyEvent -> {
+          if (!isPlayerControlled()) {
+            return;
+          }
 
           // Piece Rotation (right)
           if (keyEvent.getCode() == KeyCode.C | keyEvent.getCode() == KeyCode.E) {
-            game.rotateCurrentPiece(true);
+            rotate(true);
           }
 
           //Piece Rotation (left)
           if (keyEvent.getCode() == KeyCode.Q | keyEvent.getCode() == KeyCode.Z) {
-            game.rotateCurrentPiece(false);
+            rotate(false);
           }
           // Piece swap event
           if (keyEvent.getCode() == KeyCode.SPACE | keyEvent.getCode() == KeyCode.R) {
-            game.swapPieces();
+            swap();
           }
 
           int x = board.getHoveredBlock().getX();
@@ -140,19 +193,14 @@ public class ChallengeScene extends BaseScene {
             case LEFT, A -> board.setHoveredBlockk(board.getBlock(Math.max(0, x - 1), y));
             case DOWN, S -> board.setHoveredBlockk(board.getBlock(x, Math.min(4, y + 1)));
             case UP, W -> board.setHoveredBlockk(board.getBlock(x, Math.max(0, y - 1)));
-            case ENTER, X -> game.blockClicked(board.getBlock(x, y));
+            case ENTER, X -> place(x, y);
           }
 
           refreshGraphics();
         });
 
     //Setup more listeners
-    game.setOnLineCleared(this::lineCleared);
-    game.setOnGameLoop(this::gameLoopTriggered);
-
-    game.setOnPiecePlayed(this::refreshPieceBoards);
-    game.setOnPiecePlayed(this::startTimerBar);
-    game.setOnGameEnded(this::endChallengeScene);
+    subscribeToGame();
 
     game.start();
   }
@@ -223,7 +271,7 @@ public class ChallengeScene extends BaseScene {
    */
   private void setUpTitle(VBox titleContainer) {
     positionNode(250.0, 10.0, titleContainer);
-    Text title = new Text("Challenge Mode");
+    Text title = new Text(getTitle());
     title.getStyleClass().add("title");
 
     titleContainer.getChildren().add(title);
@@ -293,8 +341,11 @@ public class ChallengeScene extends BaseScene {
    * @param gameBlock GameBlock which we need to rotate
    */
   private void rotateBlock(GameBlock gameBlock) {
+    if (!isPlayerControlled()) {
+      return;
+    }
     logger.info("Rotating piece...");
-    game.rotateCurrentPiece(true);
+    rotate(true);
     refreshPieceBoards();
   }
 
@@ -329,7 +380,7 @@ public class ChallengeScene extends BaseScene {
    * This method adds a fade effect to the blocks which are being cleared due to a line clear.
    * @param blocks Hashet of blocks which will be faded out.
    */
-  private void lineCleared(HashSet<GameBlockCoordinate> blocks) {
+  private void lineCleared(Set<GameBlockCoordinate> blocks) {
     board.fade(blocks);
   }
 
@@ -337,7 +388,7 @@ public class ChallengeScene extends BaseScene {
    * This method initiates a timer bar at the bottom and starts a Timeline transitino, making the bar smaller
    * as gameLoop progresses.
    */
-  private void startTimerBar() {
+  protected void startTimerBar() {
     logger.info("starting new timer bar!");
     if (timeline != null) {
       timeline.stop();
@@ -345,7 +396,9 @@ public class ChallengeScene extends BaseScene {
 
     anchorPane.getChildren().remove(timerBar);
 
-    timerBar = new Rectangle(800, 30);
+    // The bar starts part way down if the game was resumed part way through the timer
+    long remaining = game.getRemainingTime();
+    timerBar = new Rectangle(800.0 * remaining / Math.max(1, game.getTimerDelay()), 30);
     timerBar.setFill(Color.ORANGE);
     positionNode(0.0, 575, timerBar);
     anchorPane.getChildren().add(timerBar);
@@ -354,7 +407,7 @@ public class ChallengeScene extends BaseScene {
     // Create a timeline animation
     timeline = new Timeline();
     timeline.getKeyFrames().add(
-            new KeyFrame(Duration.millis(game.getTimerDelay()), new KeyValue(timerBar.widthProperty(), 0))
+            new KeyFrame(Duration.millis(remaining / getPlaybackRate()), new KeyValue(timerBar.widthProperty(), 0))
     );
 
     timeline.play(); // Start the animation
@@ -363,8 +416,105 @@ public class ChallengeScene extends BaseScene {
   /**
    * This method loads a new ScoreScene. Called after the game is finished.
    */
-  private void endChallengeScene() {
-    gameWindow.loadScene(new ScoreScene(gameWindow, game));
+  protected void endChallengeScene() {
+    showScores(game);
+  }
+
+  /**
+   * Save the replay of a finished game and load the ScoreScene for it
+   * @param played the game which was played
+   */
+  protected void showScores(Game played) {
+    if (recorder != null) {
+      recorder.finish().saveAsync(Path.of(Replay.DEFAULT_DIRECTORY))
+          .exceptionally(e -> {
+            logger.error("Unable to save replay: " + e.getMessage());
+            return null;
+          });
+    }
+    gameWindow.loadScene(new ScoreScene(gameWindow, played));
+  }
+
+  /**
+   * Subscribe to the events of the game being played which the scene shows, and play its sound effects if the player
+   * is playing it
+   */
+  protected void subscribeToGame() {
+    var events = game.getEvents();
+    for (GameEventType type : SHOWN_EVENTS) {
+      events.subscribe(type, this::showEvent);
+    }
+    if (isPlayerControlled()) {
+      myMultimedia.playEffects(events);
+    }
+  }
+
+  /**
+   * Show an event from the game being played
+   * @param event the event
+   */
+  protected void showEvent(GameEvent event) {
+    switch (event.getType()) {
+      case LINES_CLEARED -> lineCleared(event.getBlocks());
+      case TIMED_OUT -> {
+        if (!event.isOver()) {
+          gameLoopTriggered();
+        }
+      }
+      case PIECE_PLACED -> {
+        refreshPieceBoards();
+        startTimerBar();
+      }
+      case GAME_ENDED -> endChallengeScene();
+    }
+  }
+
+  /**
+   * Play the current piece centred on a block
+   * @param x column
+   * @param y row
+   */
+  protected void place(int x, int y) {
+    game.placePiece(x, y);
+  }
+
+  /**
+   * Rotate the current piece
+   * @param right true for clockwise
+   */
+  protected void rotate(boolean right) {
+    game.rotateCurrentPiece(right);
+  }
+
+  /**
+   * Swap the current and next pieces
+   */
+  protected void swap() {
+    game.swapPieces();
+  }
+
+  /**
+   * Get the title shown at the top of the scene
+   * @return title
+   */
+  protected String getTitle() {
+    return "Challenge Mode";
+  }
+
+  /**
+   * Whether the player's mouse and keyboard play the game. Replays play themselves.
+   * @return true if the player is in control
+   */
+  protected boolean isPlayerControlled() {
+    return true;
+  }
+
+  /**
+   * How many times faster than real time the game is being played
+   * @return playback rate
+   */
+  protected double getPlaybackRate() {
+    return 1;
   }
 
   /**
@@ -376,10 +526,21 @@ public class ChallengeScene extends BaseScene {
     startTimerBar();
   }
 
+  /**
+   * Add something else to the scene's layout
+   * @param x distance from the left
+   * @param y distance from the top
+   * @param node the node to add
+   */
+  void addToLayout(double x, double y, Node node) {
+    positionNode(x, y, node);
+    anchorPane.getChildren().add(node);
+  }
+
   /**
    * This method refreshes the graphics of the pieceBoards and the hovering blocks.
    */
-  private void refreshGraphics() {
+  protected void refreshGraphics() {
     refreshPieceBoards();
     board.resetHovered();
     board.hovered(board.getHoveredBlock());
@@ -0,0 +1,184 @@
+package uk.ac.soton.comp1206.scene;
+
+import javafx.application.Platform;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.ac.soton.comp1206.game.GamePiece;
+import uk.ac.soton.comp1206.game.Replay;
+import uk.ac.soton.comp1206.score.ArchiveColumn;
+import uk.ac.soton.comp1206.score.GameArchive;
+import uk.ac.soton.comp1206.ui.GamePane;
+import uk.ac.soton.comp1206.ui.GameWindow;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Summarises the game history: averages over recent games, score by level, and the most played piece. The summary is
+ * worked out from the archive in the background while the scene shows.
+ */
+public class HistoryScene extends BaseScene {
+
+    private static final Logger logger = LogManager.getLogger(HistoryScene.class);
+
+    /**
+     * Number of recent games the averages cover
+     */
+    private static final long RECENT_GAMES = 100_000;
+
+    private VBox summary;
+
+    /**
+     * Create a new history scene
+     * @param gameWindow the Game Window this will be displayed in
+     */
+    public HistoryScene(GameWindow gameWindow) {
+        super(gameWindow);
+        logger.info("Creating History Scene");
+    }
+
+    @Override
+    public void initialise() {
+    }
+
+    /**
+     * Build the layout, showing the summary once it has been worked out
+     */
+    @Override
+    public void build() {
+        root = new GamePane(gameWindow.getWidth(), gameWindow.getHeight());
+
+        var historyPane = new StackPane();
+        historyPane.setMaxWidth(gameWindow.getWidth());
+        historyPane.setMaxHeight(gameWindow.getHeight());
+        historyPane.getStyleClass().add("menu-background");
+        root.getChildren().add(historyPane);
+
+        var mainPane = new BorderPane();
+        historyPane.getChildren().add(mainPane);
+
+        Text title = new Text("Game History");
+        title.getStyleClass().add("title");
+        BorderPane.setAlignment(title, Pos.CENTER);
+        mainPane.setTop(title);
+
+        summary = new VBox(4);
+        summary.setAlignment(Pos.CENTER);
+        addLine("Loading history...");
+        mainPane.setCenter(summary);
+
+        var backButton = new Button("Back");
+        backButton.getStyleClass().add("menu-button");
+        backButton.setOnAction(e -> {
+            myMultimedia.playButtonClick();
+            gameWindow.startMenu();
+        });
+
+        var replayButton = new Button("Watch last game");
+        replayButton.getStyleClass().add("menu-button");
+        replayButton.setOnAction(e -> {
+            myMultimedia.playButtonClick();
+            watchLastGame(replayButton);
+        });
+
+        var buttons = new HBox(20, replayButton, backButton);
+        buttons.setAlignment(Pos.CENTER);
+        mainPane.setBottom(buttons);
+
+        GameArchive.getInstance().queryAsync(HistoryScene::summarise)
+                .whenCompleteAsync((lines, e) -> {
+                    summary.getChildren().clear();
+                    if (e != null) {
+                        logger.error("Unable to summarise history: " + e.getMessage());
+                        addLine("Unable to read the game history");
+                    } else {
+                        lines.forEach(this::addLine);
+                    }
+                }, Platform::runLater);
+    }
+
+    /**
+     * Play the replay of the most recent game, if there is one
+     * @param button the button pressed, which says so if there is nothing to watch
+     */
+    private void watchLastGame(Button button) {
+        try {
+            var latest = Replay.latest(Path.of(Replay.DEFAULT_DIRECTORY));
+            if (latest == null) {
+                button.setText("No replays yet");
+                return;
+            }
+            gameWindow.loadScene(new ReplayScene(gameWindow, Replay.read(latest)));
+        } catch (IOException e) {
+            logger.error("Unable to load replay: " + e.getMessage());
+            button.setText("Unable to load replay");
+        }
+    }
+
+    private void addLine(String line) {
+        Text text = new Text(line);
+        text.getStyleClass().add("score");
+        summary.getChildren().add(text);
+    }
+
+    /**
+     * Work out the summary. Each query reads only the columns it needs.
+     * @param archive the game history
+     * @return lines of the summary
+     */
+    private static List<String> summarise(GameArchive archive) {
+        var lines = new ArrayList<String>();
+        long games = archive.size();
+        lines.add(String.format("Games played: %,d", games));
+        if (games == 0) {
+            return lines;
+        }
+
+        lines.add(String.format("Over the last %,d games:", Math.min(games, RECENT_GAMES)));
+        lines.add(String.format("Average score %,.0f, lasting %.0fs",
+                archive.query().last(RECENT_GAMES).average(ArchiveColumn.SCORE).get(0L),
+                archive.query().last(RECENT_GAMES).average(ArchiveColumn.DURATION).get(0L) / 1000));
+        lines.add(String.format("Average %.1f pieces and %.1f lines, losing %.1f lives",
+                archive.query().last(RECENT_GAMES).average(ArchiveColumn.PLACEMENTS).get(0L),
+                archive.query().last(RECENT_GAMES).average(ArchiveColumn.LINES).get(0L),
+                archive.query().last(RECENT_GAMES).average(ArchiveColumn.LIVES_LOST).get(0L)));
+        lines.add(String.format("Best multiplier x%d",
+                archive.query().last(RECENT_GAMES).max(ArchiveColumn.MAX_MULTIPLIER).get(0L)));
+
+        archive.query().last(RECENT_GAMES).groupBy(ArchiveColumn.LEVEL).average(ArchiveColumn.SCORE)
+                .forEach((level, score) -> lines.add(String.format("Level %d: average score %,.0f", level, score)));
+
+        //Every piece column is totalled in the same scan
+        var pieces = EnumSet.noneOf(ArchiveColumn.class);
+        for (int piece = 1; piece <= GamePiece.PIECES; piece++) {
+            pieces.add(ArchiveColumn.piece(piece));
+        }
+        var played = new long[GamePiece.PIECES + 1];
+        archive.scan(Math.max(0, games - RECENT_GAMES), pieces, batch -> {
+            for (int piece = 1; piece <= GamePiece.PIECES; piece++) {
+                var column = ArchiveColumn.piece(piece);
+                for (int row = 0; row < batch.size(); row++) {
+                    played[piece] += batch.get(column, row);
+                }
+            }
+        });
+        int favourite = 1;
+        for (int piece = 2; piece <= GamePiece.PIECES; piece++) {
+            if (played[piece] > played[favourite]) {
+                favourite = piece;
+            }
+        }
+        lines.add(String.format("Most played piece: #%d, %,d times", favourite, played[favourite]));
+        return lines;
+    }
+}
@@ -11,6 +11,8 @@ import javafx.scene.text.Text;
 import javafx.util.Duration;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import uk.ac.soton.comp1206.game.BotPlayer;
+import uk.ac.soton.comp1206.game.GameJournal;
 import uk.ac.soton.comp1206.ui.GamePane;
 import uk.ac.soton.comp1206.ui.GameWindow;
 
@@ -73,18 +75,37 @@ public class MenuScene extends BaseScene {
 
         // Layout of the buttons
         var singleplayerButton = new Button("Singleplayer");
+        var practiceButton = new Button("Practice");
+        var raceButton = new Button("Race");
         var multiplayerButton = new Button("Multiplayer");
         var howToPlayButton = new Button("How to Play");
+        var historyButton = new Button("History");
         var quitButton = new Button("Quit");
 
         singleplayerButton.getStyleClass().add("menu-button");
+        practiceButton.getStyleClass().add("menu-button");
+        raceButton.getStyleClass().add("menu-button");
         multiplayerButton.getStyleClass().add("menu-button");
         howToPlayButton.getStyleClass().add("menu-button");
+        historyButton.getStyleClass().add("menu-button");
         quitButton.getStyleClass().add("menu-button");
 
 
         VBox myVBox = new VBox(10);
-        myVBox.getChildren().addAll(singleplayerButton, multiplayerButton, howToPlayButton, quitButton);
+        myVBox.getChildren().addAll(singleplayerButton, practiceButton, raceButton, multiplayerButton, howToPlayButton,
+                historyButton, quitButton);
+
+        //Offer to carry on a game that was left part way through
+        var journal = GameJournal.getInstance();
+        if (journal != null && journal.hasSave()) {
+            var resumeButton = new Button("Resume");
+            resumeButton.getStyleClass().add("menu-button");
+            myVBox.getChildren().add(0, resumeButton);
+            resumeButton.setOnAction(e -> {
+                myMultimedia.playButtonClick();
+                resumeGame(journal);
+            });
+        }
         myVBox.setAlignment(Pos.BOTTOM_CENTER);
 
         mainPane.setCenter(myVBox);
@@ -94,6 +115,15 @@ public class MenuScene extends BaseScene {
             myMultimedia.playButtonClick();
             startGame(e);
         });
+        practiceButton.setOnAction(e -> {
+            myMultimedia.playButtonClick();
+            musicPlayer.stop();
+            gameWindow.startPractice();
+        });
+        raceButton.setOnAction(e -> {
+            myMultimedia.playButtonClick();
+            chooseDifficulty(myVBox, raceButton);
+        });
         quitButton.setOnAction(e -> {
             myMultimedia.playButtonClick();
             gameWindow.close();
@@ -102,9 +132,36 @@ public class MenuScene extends BaseScene {
             myMultimedia.playButtonClick();
             loadHelpScene();
         });
+        historyButton.setOnAction(e -> {
+            myMultimedia.playButtonClick();
+            musicPlayer.stop();
+            gameWindow.loadScene(new HistoryScene(gameWindow));
+        });
 
     }
 
+    /**
+     * Swap the race button for a button for each difficulty of bot to race
+     * @param buttons the menu's buttons
+     * @param raceButton the race button
+     */
+    private void chooseDifficulty(VBox buttons, Button raceButton) {
+        var difficulties = new HBox(10);
+        difficulties.setAlignment(Pos.CENTER);
+        for (BotPlayer.Difficulty difficulty : BotPlayer.Difficulty.values()) {
+            var name = difficulty.name();
+            var button = new Button(name.charAt(0) + name.substring(1).toLowerCase());
+            button.getStyleClass().add("menu-button");
+            button.setOnAction(e -> {
+                myMultimedia.playButtonClick();
+                musicPlayer.stop();
+                gameWindow.startRace(difficulty);
+            });
+            difficulties.getChildren().add(button);
+        }
+        buttons.getChildren().set(buttons.getChildren().indexOf(raceButton), difficulties);
+    }
+
     private void loadHelpScene() {
         gameWindow.loadScene(new HowToPlayScene(gameWindow));
   }
@@ -121,6 +178,20 @@ public class MenuScene extends BaseScene {
         musicPlayer.stop();
         gameWindow.startChallenge();
     }
+
+    /**
+     * Carry on the saved game, or start a new one if it cannot be resumed
+     * @param journal journal holding the saved game
+     */
+    private void resumeGame(GameJournal journal) {
+        musicPlayer.stop();
+        var game = journal.resume(5, 5);
+        if (game == null) {
+            gameWindow.startChallenge();
+        } else {
+            gameWindow.resumeChallenge(game);
+        }
+    }
     private void playMenuMusic() {
         musicPlayer =  myMultimedia.playMenuMusic();
     }
@@ -1,20 +1,70 @@
 package uk.ac.soton.comp1206.scene;
 
+import javafx.scene.media.AudioClip;
 import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
 import javafx.util.Duration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.ac.soton.comp1206.game.GameEventBus;
+import uk.ac.soton.comp1206.game.GameEventType;
 
 import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Plays music and sound effects. Sound effects are AudioClips, loaded once and shared by every Multimedia in the
+ * process, so any number of games can play them from any thread without each decoding its own copy.
+ */
 public class Multimedia {
 
-    private MediaPlayer audioPlayer;
+    private static final Logger logger = LogManager.getLogger(Multimedia.class);
+
+    /**
+     * Sound effects loaded so far, by path
+     */
+    private static final Map<String, AudioClip> clips = new ConcurrentHashMap<>();
+
     private MediaPlayer musicPlayer;
+    private boolean muted = false;
+
+    /**
+     * Mute or unmute sound effects
+     * @param muted true to stop sound effects playing
+     */
+    public void setMuted(boolean muted) {
+        this.muted = muted;
+    }
 
     private void playAudio(String path) {
-        Media media = new Media(new File(path).toURI().toString());
-        audioPlayer = new MediaPlayer(media);
-        audioPlayer.play();
+        if (muted) {
+            return;
+        }
+        try {
+            clips.computeIfAbsent(path, key -> new AudioClip(new File(key).toURI().toString())).play();
+        } catch (Exception e) {
+            logger.error("Unable to play " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Play the sound effects for a game's events as they happen, on whichever thread the game runs on
+     * @param events the game's event bus
+     */
+    public void playEffects(GameEventBus events) {
+        events.subscribe(GameEventType.PIECE_PLACED, event -> {
+            successfulPlacement();
+            if (event.getLines() > 0) {
+                linesCleared();
+            }
+        });
+        events.subscribe(GameEventType.PIECE_REJECTED, event -> unsuccessfulPlacement());
+        events.subscribe(GameEventType.TIMED_OUT, event -> {
+            if (!event.isOver()) {
+                lifeLost();
+            }
+        });
     }
 
     /**
@@ -0,0 +1,63 @@
+package uk.ac.soton.comp1206.scene;
+
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.ac.soton.comp1206.game.Game;
+import uk.ac.soton.comp1206.ui.GameWindow;
+
+/**
+ * A challenge where the last few placements and lost lives can be undone with U or backspace. Practice games are not
+ * saved, recorded or scored: when one ends the player goes back to the menu.
+ */
+public class PracticeScene extends ChallengeScene {
+
+    private static final Logger logger = LogManager.getLogger(PracticeScene.class);
+
+    /**
+     * How many moves can be undone
+     */
+    private static final int UNDO_LIMIT = 20;
+
+    /**
+     * Create a new practice scene
+     * @param gameWindow the Game Window
+     */
+    public PracticeScene(GameWindow gameWindow) {
+        super(gameWindow);
+    }
+
+    @Override
+    public void setupGame() {
+        logger.info("Starting practice");
+        game = new Game(5, 5);
+        game.setUndoLimit(UNDO_LIMIT);
+    }
+
+    @Override
+    public void initialise() {
+        super.initialise();
+        scene.addEventHandler(KeyEvent.KEY_PRESSED, keyEvent -> {
+            if (keyEvent.getCode() == KeyCode.U || keyEvent.getCode() == KeyCode.BACK_SPACE) {
+                if (game.undo()) {
+                    refreshGraphics();
+                    startTimerBar();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected String getTitle() {
+        return "Practice Mode";
+    }
+
+    /**
+     * Practice games are not scored, so go back to the menu
+     */
+    @Override
+    protected void endChallengeScene() {
+        gameWindow.startMenu();
+    }
+}
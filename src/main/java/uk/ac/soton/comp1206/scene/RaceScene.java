@@ -0,0 +1,113 @@
+package uk.ac.soton.comp1206.scene;
+
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Pos;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.ac.soton.comp1206.component.GameBoard;
+import uk.ac.soton.comp1206.game.BoardEvaluator;
+import uk.ac.soton.comp1206.game.BotPlayer;
+import uk.ac.soton.comp1206.game.Game;
+import uk.ac.soton.comp1206.game.GameEngine;
+import uk.ac.soton.comp1206.game.MirrorGame;
+import uk.ac.soton.comp1206.ui.GameWindow;
+
+/**
+ * A challenge raced against a bot, which is dealt the same pieces as the player. The bot's board is shown smaller
+ * beside the player's.
+ *
+ * The bot's game runs on an engine thread and the bot thinks on a thread of its own, so the JavaFX thread only ever
+ * shows its moves. Once per frame a mirror of the bot's game is brought up to date from the engine's latest snapshot,
+ * however many moves the bot has made since, so the bot never adds work to the player's input or to a frame beyond
+ * that. Races are not saved or recorded, but the player's score is kept as usual.
+ */
+public class RaceScene extends ChallengeScene {
+
+    private static final Logger logger = LogManager.getLogger(RaceScene.class);
+
+    private final BotPlayer.Difficulty difficulty;
+    private GameEngine engine;
+    private MirrorGame mirror;
+    private BotPlayer bot;
+    private AnimationTimer pulse;
+
+    /**
+     * Create a new race against a bot
+     * @param gameWindow the Game Window
+     * @param difficulty how hard the bot plays
+     */
+    public RaceScene(GameWindow gameWindow, BotPlayer.Difficulty difficulty) {
+        super(gameWindow);
+        this.difficulty = difficulty;
+    }
+
+    /**
+     * Deal the player's and the bot's games from the same seed, and start the bot's on an engine thread
+     */
+    @Override
+    public void setupGame() {
+        logger.info("Starting a race against a " + difficulty + " bot");
+        game = new Game(5, 5);
+        engine = new GameEngine(new Game(5, 5, game.getSeed()));
+        mirror = new MirrorGame(engine.getGame());
+        bot = new BotPlayer(engine, difficulty, BoardEvaluator.load());
+    }
+
+    @Override
+    public void build() {
+        super.build();
+
+        var title = new Text("Bot");
+        title.getStyleClass().add("highscore-label");
+        var board = new GameBoard(mirror.getGrid(), 120, 120);
+        var score = new Text();
+        score.textProperty().bind(mirror.getScore());
+        score.getStyleClass().add("level");
+
+        var opponent = new VBox(5, title, board, score);
+        opponent.setAlignment(Pos.CENTER);
+        addToLayout(465.0, 150.0, opponent);
+    }
+
+    @Override
+    public void initialise() {
+        super.initialise();
+        pulse = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                mirror.show(engine.getSnapshot());
+            }
+        };
+        pulse.start();
+        bot.start();
+    }
+
+    @Override
+    protected String getTitle() {
+        return "Race Mode";
+    }
+
+    @Override
+    protected void endChallengeScene() {
+        stopBot();
+        logger.info("Race over: player scored " + game.getIntScore() + ", bot scored "
+                + engine.getSnapshot().getScore());
+        showScores(game);
+    }
+
+    @Override
+    public void cleanup() {
+        stopBot();
+        super.cleanup();
+    }
+
+    private void stopBot() {
+        if (pulse != null) {
+            pulse.stop();
+        }
+        bot.stop();
+        engine.stop();
+    }
+}
@@ -0,0 +1,207 @@
+package uk.ac.soton.comp1206.scene;
+
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Pos;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.layout.StackPane;
+import javafx.scene.text.Text;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.ac.soton.comp1206.game.HeadlessGame;
+import uk.ac.soton.comp1206.game.Replay;
+import uk.ac.soton.comp1206.game.ReplayPlayer;
+import uk.ac.soton.comp1206.ui.GameWindow;
+
+/**
+ * Plays a replay on the challenge board. Each frame, the replay clock moves on by the time since the last frame times
+ * the playback speed, and every event up to the clock is played into the game. The up and down arrows (or + and -)
+ * change the speed between 1x and 16x, and the left and right arrows skip back and forward ten seconds; ESC goes back
+ * to the menu as usual.
+ */
+public class ReplayScene extends ChallengeScene {
+
+    private static final Logger logger = LogManager.getLogger(ReplayScene.class);
+
+    private static final double MAX_SPEED = 16;
+
+    /**
+     * How far the left and right arrows skip, in milliseconds
+     */
+    private static final long SKIP = 10_000;
+
+    private final Replay replay;
+    private final Replay.Reader reader;
+    private final HeadlessGame replayGame;
+    private boolean hasEvent;
+    private double speed = 1;
+    private double clock;
+    private long lastFrame;
+    private Text status;
+    private AnimationTimer player;
+    private boolean finished;
+
+    /**
+     * Create a scene to play a replay
+     * @param gameWindow the Game Window
+     * @param replay the replay to play
+     */
+    public ReplayScene(GameWindow gameWindow, Replay replay) {
+        this(gameWindow, replay, new HeadlessGame(replay.getCols(), replay.getRows(), replay.getSeed()));
+    }
+
+    private ReplayScene(GameWindow gameWindow, Replay replay, HeadlessGame replayGame) {
+        super(gameWindow, replayGame);
+        this.replay = replay;
+        this.replayGame = replayGame;
+        this.reader = replay.reader();
+    }
+
+    /**
+     * The replay's game is already set up, and is neither saved nor recorded
+     */
+    @Override
+    public void setupGame() {
+        logger.info("Playing replay of " + replay.getEventCount() + " events");
+    }
+
+    @Override
+    public void build() {
+        super.build();
+
+        status = new Text();
+        status.getStyleClass().add("score");
+        StackPane.setAlignment(status, Pos.BOTTOM_CENTER);
+        root.getChildren().add(status);
+        showSpeed();
+    }
+
+    @Override
+    public void initialise() {
+        super.initialise();
+        scene.addEventHandler(KeyEvent.KEY_PRESSED, keyEvent -> {
+            switch (keyEvent.getCode()) {
+                case LEFT -> seek((long) clock - SKIP);
+                case RIGHT -> seek((long) clock + SKIP);
+            }
+            if (finished) {
+                return;
+            }
+            switch (keyEvent.getCode()) {
+                case UP, ADD, PLUS, EQUALS -> speed = Math.min(MAX_SPEED, speed * 2);
+                case DOWN, SUBTRACT, MINUS -> speed = Math.max(1, speed / 2);
+                default -> {
+                    return;
+                }
+            }
+            showSpeed();
+        });
+
+        hasEvent = reader.next();
+        player = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                advance(now);
+            }
+        };
+        player.start();
+    }
+
+    /**
+     * Move the replay clock on to the given frame, playing every event it passes
+     * @param now time of this frame in nanoseconds
+     */
+    private void advance(long now) {
+        if (lastFrame != 0) {
+            clock += (now - lastFrame) / 1e6 * speed;
+        }
+        lastFrame = now;
+
+        boolean changed = false;
+        while (hasEvent && reader.getTick() <= clock && !replayGame.isGameOver()) {
+            try {
+                ReplayPlayer.apply(replayGame, reader);
+            } catch (IllegalStateException e) {
+                logger.error(e.getMessage());
+                finish("Replay does not match the game rules");
+                return;
+            }
+            hasEvent = reader.next();
+            changed = true;
+        }
+        if (changed && !replayGame.isGameOver()) {
+            refreshGraphics();
+        }
+        if (!hasEvent && !replayGame.isGameOver()) {
+            finish("Replay ended early with score " + replayGame.getIntScore());
+        }
+    }
+
+    /**
+     * Jump to a point in the replay, from the last keyframe before it
+     * @param target time to jump to, in milliseconds since the game started
+     */
+    private void seek(long target) {
+        target = Math.max(0, target);
+        try {
+            reader.seek(target, replayGame);
+            hasEvent = reader.next();
+            while (hasEvent && reader.getTick() <= target) {
+                ReplayPlayer.apply(replayGame, reader);
+                hasEvent = reader.next();
+            }
+        } catch (IllegalStateException e) {
+            logger.error(e.getMessage());
+            finish("Replay does not match the game rules");
+            return;
+        }
+        clock = target;
+        refreshGraphics();
+
+        //Carry on playing, even if the replay had finished
+        if (finished && !replayGame.isGameOver()) {
+            finished = false;
+            player.start();
+        }
+        showSpeed();
+    }
+
+    /**
+     * Stay on the board once the replayed game ends, instead of recording a score
+     */
+    @Override
+    protected void endChallengeScene() {
+        boolean verified = replayGame.getIntScore() == replay.getFinalScore();
+        finish("Replay over: score " + replayGame.getIntScore() + (verified ? " (verified)" : " (expected "
+                + replay.getFinalScore() + ")"));
+    }
+
+    private void finish(String message) {
+        finished = true;
+        if (player != null) {
+            player.stop();
+        }
+        status.setText(message);
+    }
+
+    private void showSpeed() {
+        status.setText("Replay " + (int) speed + "x");
+    }
+
+    @Override
+    public void cleanup() {
+        if (player != null) {
+            player.stop();
+        }
+        super.cleanup();
+    }
+
+    @Override
+    protected boolean isPlayerControlled() {
+        return false;
+    }
+
+    @Override
+    protected double getPlaybackRate() {
+        return speed;
+    }
+}
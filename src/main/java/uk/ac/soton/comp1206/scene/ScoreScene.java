@@ -1,5 +1,6 @@
 package uk.ac.soton.comp1206.scene;
 
+import javafx.application.Platform;
 import javafx.beans.property.SimpleListProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -14,20 +15,31 @@ import javafx.util.Pair;
 import uk.ac.soton.comp1206.event.CommunicationsListener;
 import uk.ac.soton.comp1206.game.Game;
 import uk.ac.soton.comp1206.network.Communicator;
+import uk.ac.soton.comp1206.score.GameArchive;
+import uk.ac.soton.comp1206.score.GameRecord;
+import uk.ac.soton.comp1206.score.Leaderboard;
+import uk.ac.soton.comp1206.score.PlayerStats;
+import uk.ac.soton.comp1206.score.PlayerStatsStore;
+import uk.ac.soton.comp1206.score.ScoreStore;
 import uk.ac.soton.comp1206.ui.GamePane;
 import uk.ac.soton.comp1206.ui.GameWindow;
 import javafx.scene.control.TextField;
 
-import java.io.*;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
 
 public class ScoreScene extends BaseScene{
     private AnchorPane anchor;
     private final Game game;
-    private final ArrayList<Pair<String, Integer>> scores = new ArrayList<>();
+    private CompletableFuture<Leaderboard> scores;
     private final Communicator communicator;
+    private final ScoreStore scoreStore = ScoreStore.getInstance();
+    private final CompletableFuture<PlayerStatsStore> statsStore =
+            CompletableFuture.supplyAsync(PlayerStatsStore::getInstance);
+
+    /**
+     * Number of local scores shown
+     */
+    private static final int LOCAL_SCORES = 6;
 
 
 
@@ -63,10 +75,22 @@ public class ScoreScene extends BaseScene{
         setUpTitle();
 
         populateScores();
+        archiveGame();
 
         addScore();
     }
 
+    /**
+     * Adds the finished game to the game history in the background
+     */
+    private void archiveGame() {
+        var record = GameRecord.from(game);
+        GameArchive.getInstance().appendAsync(record).exceptionally(e -> {
+            e.printStackTrace();
+            return null;
+        });
+    }
+
     /**
      * Adds the title to anchorPane
      */
@@ -79,7 +103,8 @@ public class ScoreScene extends BaseScene{
     }
 
     /**
-     * Creates VBox to hold the scores and calls appropriate methods to populate the VBox
+     * Creates VBox to hold the scores and calls appropriate methods to populate the VBox. The local scores show as
+     * loading until they have been read.
      */
     private void setUpScores() {
         var local = new VBox();
@@ -88,7 +113,16 @@ public class ScoreScene extends BaseScene{
         Text localScoresTitle = new Text("Local Scores");
         localScoresTitle.getStyleClass().add("title");
         local.getChildren().add(localScoresTitle);
-        addLocalScores(local);
+
+        var localEntries = new VBox();
+        Text loading = new Text("Loading scores...");
+        loading.getStyleClass().add("score");
+        localEntries.getChildren().add(loading);
+        local.getChildren().add(localEntries);
+        scores.thenAcceptAsync(leaderboard -> {
+            localEntries.getChildren().clear();
+            addLocalScores(localEntries, leaderboard);
+        }, Platform::runLater);
 
         Text onlineScoresTitle = new Text("Online Scores");
         onlineScoresTitle.getStyleClass().add("title");
@@ -113,13 +147,13 @@ public class ScoreScene extends BaseScene{
     }
 
     /**
-     * Reads scores from ArrayList scores and makses Text objects for each score
+     * Reads scores from the leaderboard and makes Text objects for each score
      * @param local VBox to add the scores in
+     * @param leaderboard the top local scores
      */
-    private void addLocalScores(VBox local) {
+    private void addLocalScores(VBox local, Leaderboard leaderboard) {
 
-        for (int i=0; i<6; i++) {
-            Pair<String, Integer> score = scores.get(i);
+        for (Pair<String, Integer> score : leaderboard.getScores()) {
             String name = score.getKey();
             int value = score.getValue();
             Text display = new Text(name + ": " + value);
@@ -130,24 +164,14 @@ public class ScoreScene extends BaseScene{
     }
 
     /**
-     * Reads scores from text file and adds it to scores ArrayList
+     * Starts streaming the scores from the score store in the background, keeping only the top scores that are
+     * displayed
      */
     private void populateScores() {
-
-        //Get all existing scores from text file and add to ArrayList scores
-        try (BufferedReader br = new BufferedReader(new FileReader(scoresFile))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split(",");
-                if (values.length >= 2) { // Ensure there are at least two values in the line
-                    String name = values[0].trim(); // Assume the name is the first value
-                    int score = Integer.parseInt(values[1].trim()); // Assume the score is the second value
-                    scores.add(new Pair<>(name, score));
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        scores = scoreStore.topScoresAsync(LOCAL_SCORES).exceptionally(e -> {
+            e.printStackTrace();
+            return new Leaderboard(LOCAL_SCORES);
+        });
     }
 
     /**
@@ -165,13 +189,16 @@ public class ScoreScene extends BaseScene{
 
         submit.setOnAction(e -> {
             String name = textField.getText();
-            scores.add(new Pair<>(name, game.getIntScore()));
-            sortScores();
+            int score = game.getIntScore();
+            scores = scores.thenApply(leaderboard -> {
+                leaderboard.offer(name, score);
+                return leaderboard;
+            });
             anchor.getChildren().remove(nameBox);
             setUpScores();
 
-            writeNewScores();
-
+            writeNewScore(name, score);
+            recordStats(name, score);
         });
 
         positionNode(100.0, 100.0, nameBox);
@@ -179,45 +206,83 @@ public class ScoreScene extends BaseScene{
     }
 
     /**
-     * All scores from the ArrayList are writen back into the text file
+     * Appends the new score to the score store in the background, then shows where it placed. Only the one record is
+     * written, however many scores there are.
+     * @param name player name
+     * @param score score achieved
      */
-    private void writeNewScores() {
-        clearScoresFile();
-
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(scoresFile, true))) {
-            for (Pair<String, Integer> score : scores) {
-
-                // Writing the new score onto a new line in the CSV file
+    private void writeNewScore(String name, int score) {
+        var rank = scoreStore.appendAsync(name, score);
+        var count = scoreStore.getScoreCountAsync();
+        var topPercent = scoreStore.topPercentAsync(score);
+        CompletableFuture.allOf(rank, count, topPercent).whenCompleteAsync((ignored, e) -> {
+            if (e != null) {
+                e.printStackTrace();
+            } else {
+                showRank(rank.join(), count.join(), topPercent.join());
+            }
+        }, Platform::runLater);
+    }
 
-                bw.write(score.getKey() + "," + score.getValue());
-                bw.newLine(); // Write a new line after the new score
+    /**
+     * Records the game in the player's stats once they have been loaded in the background, then shows them
+     * @param name player name
+     * @param score score achieved
+     */
+    private void recordStats(String name, int score) {
+        int lines = game.getLinesCleared();
+        statsStore.thenApply(store -> store.record(name, score, lines)).whenCompleteAsync((stats, e) -> {
+            if (e != null) {
+                e.printStackTrace();
+            } else {
+                showStats(name, stats);
             }
-            bw.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        }, Platform::runLater);
     }
 
     /**
-     * Clears the scores text file. Used between each read/write to avoid duplication
+     * Shows a card of the player's stats, including the game just played
+     * @param name player name
+     * @param stats the player's updated stats
      */
-    private void clearScoresFile() {
-        try (FileWriter fw = new FileWriter(scoresFile)) {
-            // File is opened in write mode, which truncates the file if it exists
-            // Since no data is written, the file is effectively cleared
-        } catch (IOException e) {
-            e.printStackTrace();
+    private void showStats(String name, PlayerStats stats) {
+        var card = new VBox();
+
+        Text title = new Text(name);
+        title.getStyleClass().add("title");
+        card.getChildren().add(title);
+
+        String trend = stats.getTrend() > 0 ? "up" : stats.getTrend() < 0 ? "down" : "steady";
+        for (String line : new String[] {
+                String.format("Games played: %,d", stats.getGamesPlayed()),
+                String.format("Best: %,d", stats.getBestScore()),
+                String.format("Mean: %,.0f", stats.getMeanScore()),
+                String.format("Recent: %,.0f (%s)", stats.getRecentAverage(), trend),
+                String.format("Lines cleared: %,d", stats.getTotalLines())}) {
+            Text display = new Text(line);
+            display.getStyleClass().add("score");
+            card.getChildren().add(display);
         }
-    }
 
+        positionNode(650, 200, card);
+        anchor.getChildren().add(card);
+    }
 
     /**
-     * Sorts the pairs in scores using the score.
+     * Shows where the new score placed among every local score, and the percentage of games it was in
+     * @param rank the rank of the new score
+     * @param count the number of local scores
+     * @param topPercent percentage of scores at least as good as the new score
      */
-    private void sortScores() {
-        scores.sort((pair1, pair2) -> pair2.getValue().compareTo(pair1.getValue()));
+    private void showRank(int rank, int count, double topPercent) {
+        if (rank < 1) {
+            return;
+        }
+        String percent = topPercent < 1 ? String.format("%.1f", topPercent) : String.format("%.0f", topPercent);
+        Text placed = new Text(String.format("You placed #%,d of %,d, top %s%% of all games", rank, count, percent));
+        placed.getStyleClass().add("instructions");
+        positionNode(100.0, 150.0, placed);
+        anchor.getChildren().add(placed);
     }
 
 }
-
-
@@ -0,0 +1,119 @@
+package uk.ac.soton.comp1206.scene;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.ac.soton.comp1206.game.Game;
+import uk.ac.soton.comp1206.game.GameEngine;
+import uk.ac.soton.comp1206.game.GameEventType;
+import uk.ac.soton.comp1206.game.MirrorGame;
+import uk.ac.soton.comp1206.ui.GameWindow;
+
+/**
+ * A challenge whose game runs on its own engine thread rather than the JavaFX thread.
+ *
+ * The player's inputs are posted to the engine, and the scene shows a mirror of the game which is brought up to date
+ * from the engine's latest snapshot once per frame. Events arrive in batches through Platform.runLater, each bringing
+ * the mirror up to date first. A slow frame never delays the game loop, and the game never holds up a frame.
+ */
+public class ThreadedChallengeScene extends ChallengeScene {
+
+    private static final Logger logger = LogManager.getLogger(ThreadedChallengeScene.class);
+
+    private GameEngine engine;
+    private MirrorGame mirror;
+    private AnimationTimer pulse;
+
+    /**
+     * Create a new threaded challenge scene
+     * @param gameWindow the Game Window
+     */
+    public ThreadedChallengeScene(GameWindow gameWindow) {
+        super(gameWindow);
+    }
+
+    /**
+     * Create a threaded challenge scene which carries on a game already in progress
+     * @param gameWindow the Game Window
+     * @param game the game to carry on
+     */
+    public ThreadedChallengeScene(GameWindow gameWindow, Game game) {
+        super(gameWindow, game);
+    }
+
+    /**
+     * Set up the game as usual, then hand it to an engine thread and show a mirror of it instead
+     */
+    @Override
+    public void setupGame() {
+        super.setupGame();
+        logger.info("Running the game on its own thread");
+        engine = new GameEngine(game);
+        mirror = new MirrorGame(engine.getGame());
+        game = mirror;
+    }
+
+    @Override
+    public void initialise() {
+        super.initialise();
+        pulse = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (mirror.show(engine.getSnapshot())) {
+                    refreshGraphics();
+                }
+            }
+        };
+        pulse.start();
+    }
+
+    /**
+     * Listen to the real game's events in batches on the JavaFX thread, rather than the mirror's, which has none.
+     * Sound effects play straight away on the engine thread.
+     */
+    @Override
+    protected void subscribeToGame() {
+        var events = engine.getGame().getEvents();
+        for (GameEventType type : SHOWN_EVENTS) {
+            events.subscribe(type, event -> {
+                mirror.show(engine.getSnapshot());
+                showEvent(event);
+            }, Platform::runLater);
+        }
+        myMultimedia.playEffects(events);
+    }
+
+    @Override
+    protected void place(int x, int y) {
+        engine.placePiece(x, y);
+    }
+
+    @Override
+    protected void rotate(boolean right) {
+        engine.rotateCurrentPiece(right);
+    }
+
+    @Override
+    protected void swap() {
+        engine.swapPieces();
+    }
+
+    /**
+     * Score the real game, which the engine has finished with once it has ended
+     */
+    @Override
+    protected void endChallengeScene() {
+        pulse.stop();
+        showScores(engine.getGame());
+    }
+
+    @Override
+    public void cleanup() {
+        if (pulse != null) {
+            pulse.stop();
+        }
+        super.cleanup();
+        engine.stop();
+    }
+}
@@ -0,0 +1,53 @@
+package uk.ac.soton.comp1206.score;
+
+import uk.ac.soton.comp1206.game.GamePiece;
+
+/**
+ * The columns of the game history. Each is stored separately in the archive, so a query only reads the columns it
+ * uses.
+ */
+public enum ArchiveColumn {
+    /**
+     * When the game started, in milliseconds since the epoch. Stored as deltas, as it only grows.
+     */
+    TIMESTAMP(true),
+    DURATION,
+    SCORE,
+    PLACEMENTS,
+    LINES,
+    MAX_MULTIPLIER,
+    LIVES_LOST,
+    LEVEL,
+    PIECE_1, PIECE_2, PIECE_3, PIECE_4, PIECE_5, PIECE_6, PIECE_7, PIECE_8,
+    PIECE_9, PIECE_10, PIECE_11, PIECE_12, PIECE_13, PIECE_14, PIECE_15;
+
+    private final boolean delta;
+
+    ArchiveColumn() {
+        this(false);
+    }
+
+    ArchiveColumn(boolean delta) {
+        this.delta = delta;
+    }
+
+    /**
+     * Whether the column is stored as differences between consecutive values
+     * @return true if delta encoded
+     */
+    public boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * Get the column counting how many of a piece were played
+     * @param value the piece's value, from 1 to GamePiece.PIECES
+     * @return column
+     */
+    public static ArchiveColumn piece(int value) {
+        if (value < 1 || value > GamePiece.PIECES) {
+            throw new IllegalArgumentException("No such piece: " + value);
+        }
+        return values()[PIECE_1.ordinal() + value - 1];
+    }
+}
@@ -0,0 +1,154 @@
+package uk.ac.soton.comp1206.score;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongPredicate;
+
+/**
+ * A query over the game history: which games to look at, how to group them, and what to work out for each group. Only
+ * the columns the query uses are read from the archive.
+ *
+ * For example, the average score by level over the last 100,000 games:
+ * archive.query().last(100_000).groupBy(ArchiveColumn.LEVEL).average(ArchiveColumn.SCORE)
+ */
+public class ArchiveQuery {
+
+    private final GameArchive archive;
+    private long last = Long.MAX_VALUE;
+    private ArchiveColumn group;
+    private final List<ArchiveColumn> filterColumns = new ArrayList<>();
+    private final List<LongPredicate> filters = new ArrayList<>();
+
+    /**
+     * Running totals for one group
+     */
+    private static class Totals {
+        private long count = 0;
+        private double sum = 0;
+        private long max = Long.MIN_VALUE;
+    }
+
+    /**
+     * Create a query over every game in an archive
+     * @param archive archive to query
+     */
+    ArchiveQuery(GameArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Only look at the most recent games
+     * @param games number of games
+     * @return this query
+     */
+    public ArchiveQuery last(long games) {
+        this.last = games;
+        return this;
+    }
+
+    /**
+     * Only look at games where a column's value passes a test
+     * @param column column to test
+     * @param test test of the value
+     * @return this query
+     */
+    public ArchiveQuery where(ArchiveColumn column, LongPredicate test) {
+        filterColumns.add(column);
+        filters.add(test);
+        return this;
+    }
+
+    /**
+     * Work out results separately for each value of a column
+     * @param column column to group by
+     * @return this query
+     */
+    public ArchiveQuery groupBy(ArchiveColumn column) {
+        this.group = column;
+        return this;
+    }
+
+    /**
+     * Count the games
+     * @return number of games in each group, by the group's value, or under 0 if not grouped
+     */
+    public Map<Long, Long> count() {
+        var counts = new TreeMap<Long, Long>();
+        run(null).forEach((key, totals) -> counts.put(key, totals.count));
+        return counts;
+    }
+
+    /**
+     * Work out the mean of a column
+     * @param column column
+     * @return mean in each group, by the group's value, or under 0 if not grouped
+     */
+    public Map<Long, Double> average(ArchiveColumn column) {
+        var averages = new TreeMap<Long, Double>();
+        run(column).forEach((key, totals) -> averages.put(key, totals.sum / totals.count));
+        return averages;
+    }
+
+    /**
+     * Add up a column
+     * @param column column
+     * @return total in each group, by the group's value, or under 0 if not grouped
+     */
+    public Map<Long, Double> sum(ArchiveColumn column) {
+        var sums = new TreeMap<Long, Double>();
+        run(column).forEach((key, totals) -> sums.put(key, totals.sum));
+        return sums;
+    }
+
+    /**
+     * Find the largest value of a column
+     * @param column column
+     * @return largest value in each group, by the group's value, or under 0 if not grouped
+     */
+    public Map<Long, Long> max(ArchiveColumn column) {
+        var maxima = new TreeMap<Long, Long>();
+        run(column).forEach((key, totals) -> maxima.put(key, totals.max));
+        return maxima;
+    }
+
+    /**
+     * Scan the matching games, reading only the columns needed
+     * @param value column to total, or null to only count
+     * @return totals for each group
+     */
+    private Map<Long, Totals> run(ArchiveColumn value) {
+        var columns = EnumSet.noneOf(ArchiveColumn.class);
+        columns.addAll(filterColumns);
+        if (group != null) {
+            columns.add(group);
+        }
+        if (value != null) {
+            columns.add(value);
+        }
+
+        var results = new TreeMap<Long, Totals>();
+        long size = archive.size();
+        archive.scan(Math.max(0, size - last), columns, batch -> {
+            for (int row = 0; row < batch.size(); row++) {
+                boolean matches = true;
+                for (int i = 0; i < filters.size() && matches; i++) {
+                    matches = filters.get(i).test(batch.get(filterColumns.get(i), row));
+                }
+                if (!matches) {
+                    continue;
+                }
+                var totals = results.computeIfAbsent(group == null ? 0L : batch.get(group, row), key -> new Totals());
+                totals.count++;
+                if (value != null) {
+                    long v = batch.get(value, row);
+                    totals.sum += v;
+                    totals.max = Math.max(totals.max, v);
+                }
+            }
+        });
+        return results;
+    }
+}
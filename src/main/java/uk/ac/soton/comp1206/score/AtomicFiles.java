@@ -0,0 +1,50 @@
+package uk.ac.soton.comp1206.score;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replaces whole files in one step, so a crash leaves either the old contents or the new and never a mix.
+ *
+ * The new contents are written to a temporary file alongside, forced to disk, and then renamed over the file. The
+ * rename is atomic because both are in the same directory.
+ */
+public class AtomicFiles {
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Replace a file with the given bytes
+     * @param file file to replace, created if it does not exist
+     * @param contents the new contents, from its position to its limit
+     * @throws IOException if the file could not be replaced; it is left as it was
+     */
+    public static void write(Path file, ByteBuffer contents) throws IOException {
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (contents.hasRemaining()) {
+                channel.write(contents);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replace a file with the given text, in UTF-8
+     * @param file file to replace, created if it does not exist
+     * @param text the new contents
+     * @throws IOException if the file could not be replaced; it is left as it was
+     */
+    public static void write(Path file, String text) throws IOException {
+        write(file, ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,150 @@
+package uk.ac.soton.comp1206.score;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The best score, cached in memory and in a small fixed-size sidecar file beside the scores, so finding the high score
+ * never means scanning them.
+ *
+ * The sidecar holds the score with a checksum, so a damaged one is told apart from a low score. It is not forced to
+ * disk as it is written, so after a crash it may be behind. Working out the best score when the sidecar is missing, or
+ * checking it against scores appended since, is left to the ScoreStore, which knows where the scores are and calls
+ * force() before it deletes any it would need to check.
+ */
+class BestScoreCache {
+
+    /**
+     * Marks a valid best score record: "TBS1"
+     */
+    private static final int MAGIC = 0x54425331;
+
+    /**
+     * Size of the best score record: magic, score and a checksum of the two
+     */
+    private static final int RECORD_SIZE = 16;
+
+    private final Path file;
+
+    /**
+     * The best score, only updated on the JavaFX thread so it can be bound to the UI
+     */
+    private final ReadOnlyIntegerWrapper property = new ReadOnlyIntegerWrapper(0);
+
+    /**
+     * The best score as seen by whichever thread is appending. The property trails this by one runLater.
+     */
+    private volatile int current;
+
+    /**
+     * Create a cache backed by the given sidecar file. Nothing is read until read() is called.
+     * @param file sidecar file
+     */
+    BestScoreCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Read the best score from the sidecar
+     * @return the score, or Integer.MIN_VALUE if the sidecar is missing or damaged
+     */
+    int read() {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var record = ByteBuffer.allocate(RECORD_SIZE);
+            channel.read(record, 0);
+            if (record.position() == RECORD_SIZE && record.getInt(0) == MAGIC
+                    && record.getLong(8) == checksum(record.getInt(0), record.getInt(4))) {
+                return record.getInt(4);
+            }
+        } catch (IOException e) {
+            //No sidecar yet
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Overwrite the sidecar with a new best score
+     * @param score the best score
+     * @throws IOException if it could not be written
+     */
+    void write(int score) throws IOException {
+        var record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putInt(MAGIC).putInt(score).putLong(checksum(MAGIC, score)).flip();
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            while (record.hasRemaining()) {
+                channel.write(record, record.position());
+            }
+        }
+    }
+
+    /**
+     * Force the sidecar to disk, whichever instance last wrote it
+     * @throws IOException if it could not be forced
+     */
+    void force() throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        } catch (NoSuchFileException e) {
+            //Nothing written yet
+        }
+    }
+
+    /**
+     * Record a score, writing it to the sidecar if it beats the best
+     * @param score score
+     * @throws IOException if a new best score could not be written
+     */
+    void offer(int score) throws IOException {
+        if (score > current) {
+            write(score);
+            set(score);
+        }
+    }
+
+    /**
+     * Update the cached best score, and the property on the JavaFX thread. Asking whether this is the JavaFX thread
+     * would start the toolkit in a headless tool, so the update is always posted, and only made directly if there is
+     * no toolkit running to post it to.
+     * @param score the best score
+     */
+    void set(int score) {
+        current = score;
+        try {
+            Platform.runLater(() -> property.set(current));
+        } catch (IllegalStateException e) {
+            //No JavaFX toolkit, such as when used from a headless tool
+            property.set(score);
+        }
+    }
+
+    /**
+     * Get the cached best score. Safe to call from any thread.
+     * @return best score
+     */
+    int get() {
+        return current;
+    }
+
+    /**
+     * Get the best score as a property, updated on the JavaFX thread
+     * @return best score property
+     */
+    ReadOnlyIntegerProperty property() {
+        return property.getReadOnlyProperty();
+    }
+
+    private static long checksum(int magic, int score) {
+        var crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putInt(magic).putInt(score).array());
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,504 @@
+package uk.ac.soton.comp1206.score;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A binary table of scores, kept sorted with the highest first and accessed through a memory-mapped file.
+ *
+ * Every record is the same size (name id, score, timestamp), so the record at any rank is found by arithmetic and the
+ * position of any score by binary search. That makes rank lookups O(log n) however large the table grows, and lets any
+ * window of the table be read as a view straight onto the mapped file without copying. Names are stored once each in
+ * a separate text file and referred to by their line number.
+ *
+ * New scores are not inserted into the sorted records, which would move every record below them. They are appended
+ * after the sorted records and kept in order in memory. Ranks and pages take both into account, and once enough have
+ * been appended they are merged into the sorted records in one pass, so each score costs a share of a merge rather
+ * than a move of the table.
+ *
+ * The table is derived from scores kept elsewhere, so nothing is forced to disk as it changes. Instead the header is
+ * marked dirty, and forced, before the first change, and only marked clean again once close() has forced everything
+ * else. A table left dirty by a crash is reported by isClean() so the owner can rebuild it.
+ */
+public class BinaryScoreFile implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(BinaryScoreFile.class);
+
+    /**
+     * "TSB1"
+     */
+    private static final int MAGIC = 0x54534231;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int COUNT_OFFSET = 8;
+    private static final int CLEAN_OFFSET = 16;
+    private static final int APPENDED_OFFSET = 20;
+
+    /**
+     * Size of a single record: name id, score and timestamp
+     */
+    public static final int RECORD_SIZE = 16;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Appended scores which are merged into the sorted records at once
+     */
+    private static final int MERGE_SIZE = 4096;
+
+    private final Path file;
+    private final Path namesFile;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long capacity;
+
+    /**
+     * Whether the table was closed properly before it was opened
+     */
+    private final boolean wasClean;
+
+    /**
+     * Whether the header has been marked dirty since the table was opened
+     */
+    private boolean dirty = false;
+
+    /**
+     * Number of sorted records
+     */
+    private int count;
+
+    /**
+     * Indexes of the records appended after the sorted ones, in rank order
+     */
+    private int[] appended = new int[MERGE_SIZE];
+    private int appendedCount;
+
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> nameIds = new HashMap<>();
+    private FileChannel namesChannel;
+    private Writer namesWriter;
+
+    /**
+     * A window onto consecutive records of the table. Reads go straight to the mapped file, unless the window includes
+     * appended scores not yet merged, when it is a copy.
+     */
+    public class Page {
+        private final ByteBuffer records;
+        private final int firstRank;
+
+        private Page(ByteBuffer records, int firstRank) {
+            this.records = records;
+            this.firstRank = firstRank;
+        }
+
+        /**
+         * Get the number of records in this page
+         * @return page size
+         */
+        public int size() {
+            return records.capacity() / RECORD_SIZE;
+        }
+
+        /**
+         * Get the rank of the first record in this page
+         * @return rank, starting from 1
+         */
+        public int getFirstRank() {
+            return firstRank;
+        }
+
+        /**
+         * Get the player name of a record
+         * @param index index within the page
+         * @return name
+         */
+        public String getName(int index) {
+            return names.get(records.getInt(index * RECORD_SIZE));
+        }
+
+        /**
+         * Get the score of a record
+         * @param index index within the page
+         * @return score
+         */
+        public int getScore(int index) {
+            return records.getInt(index * RECORD_SIZE + 4);
+        }
+
+        /**
+         * Get the time a record was added
+         * @param index index within the page
+         * @return milliseconds since the epoch, or 0 if not known
+         */
+        public long getTimestamp(int index) {
+            return records.getLong(index * RECORD_SIZE + 8);
+        }
+    }
+
+    /**
+     * Open a binary score table, creating it if it does not exist
+     * @param file the table file; the names file sits alongside it
+     * @throws IOException if the file cannot be opened or is not a score table
+     */
+    public BinaryScoreFile(Path file) throws IOException {
+        this.file = file;
+        this.namesFile = file.resolveSibling(file.getFileName() + ".names");
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        if (channel.size() < HEADER_SIZE) {
+            map(INITIAL_CAPACITY);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(COUNT_OFFSET, 0);
+            buffer.putInt(CLEAN_OFFSET, 1);
+            buffer.putInt(APPENDED_OFFSET, 0);
+            count = 0;
+            wasClean = true;
+        } else {
+            map((channel.size() - HEADER_SIZE) / RECORD_SIZE);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                channel.close();
+                throw new IOException(file + " is not a score table");
+            }
+            count = (int) buffer.getLong(COUNT_OFFSET);
+            wasClean = buffer.getInt(CLEAN_OFFSET) == 1;
+            if (count + (long) buffer.getInt(APPENDED_OFFSET) <= capacity) {
+                for (int i = 0; i < buffer.getInt(APPENDED_OFFSET); i++) {
+                    addAppended(count + i);
+                }
+            }
+        }
+
+        loadNames();
+    }
+
+    /**
+     * Whether the table was closed properly after it was last changed. If not, it may be out of order or missing
+     * records and should be rebuilt.
+     * @return true if clean
+     */
+    public boolean isClean() {
+        return wasClean && count + (long) buffer.getInt(APPENDED_OFFSET) <= capacity;
+    }
+
+    /**
+     * Get the number of records
+     * @return number of scores
+     */
+    public synchronized int size() {
+        return count + appendedCount;
+    }
+
+    /**
+     * Add a score in its sorted position. Equal scores rank in the order they were added.
+     * @param name player name
+     * @param score score
+     * @param timestamp when the score was achieved, in milliseconds since the epoch
+     * @return the rank of the new score, starting from 1
+     * @throws IOException if the table could not be grown or the name stored
+     */
+    public synchronized int insert(String name, int score, long timestamp) throws IOException {
+        markDirty();
+        int nameId = nameId(name);
+        int index = count + appendedCount;
+        if (index >= capacity) {
+            map(Math.max(INITIAL_CAPACITY, capacity * 2));
+        }
+
+        //Everything with this score or better stays in front
+        int position = countAtLeast(score) + appendedAtLeast(score);
+
+        int offset = offset(index);
+        buffer.putInt(offset, nameId);
+        buffer.putInt(offset + 4, score);
+        buffer.putLong(offset + 8, timestamp);
+        addAppended(index);
+        buffer.putInt(APPENDED_OFFSET, appendedCount);
+
+        if (appendedCount >= MERGE_SIZE) {
+            merge();
+        }
+        return position + 1;
+    }
+
+    /**
+     * Replace the whole table with the given scores, which must already be sorted highest first
+     * @param sortedNames names, in rank order
+     * @param sortedScores scores, in rank order
+     * @param size number of scores
+     * @throws IOException if the table could not be written
+     */
+    public synchronized void rebuild(String[] sortedNames, int[] sortedScores, int size) throws IOException {
+        markDirty();
+        map(Math.max(INITIAL_CAPACITY, size));
+        for (int i = 0; i < size; i++) {
+            int offset = offset(i);
+            buffer.putInt(offset, nameId(sortedNames[i]));
+            buffer.putInt(offset + 4, sortedScores[i]);
+            buffer.putLong(offset + 8, 0);
+        }
+        count = size;
+        appendedCount = 0;
+        buffer.putLong(COUNT_OFFSET, count);
+        buffer.putInt(APPENDED_OFFSET, 0);
+        logger.info("Rebuilt " + file + " with " + size + " scores");
+    }
+
+    /**
+     * Get the rank a score would have: one more than the number of strictly better scores
+     * @param score score
+     * @return rank, starting from 1
+     */
+    public synchronized int rank(int score) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (scoreAt(middle) > score) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int better = low;
+        low = 0;
+        high = appendedCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (scoreAt(appended[middle]) > score) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return better + low + 1;
+    }
+
+    /**
+     * Get a window onto the table, without copying
+     * @param firstRank rank of the first record, starting from 1
+     * @param length maximum number of records
+     * @return page of records, shorter than length at the end of the table
+     */
+    public synchronized Page page(int firstRank, int length) {
+        int size = count + appendedCount;
+        int start = Math.max(0, Math.min(size, firstRank - 1));
+        int end = Math.min(size, start + Math.max(0, length));
+        if (appendedCount == 0) {
+            var view = buffer.slice(offset(start), (end - start) * RECORD_SIZE).asReadOnlyBuffer();
+            return new Page(view, start + 1);
+        }
+
+        //Find how many appended scores rank above the start, then merge the window from both
+        int low = 0;
+        int high = Math.min(start, appendedCount);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int sorted = start - middle - 1;
+            if (sorted < 0 || sorted >= count || scoreAt(sorted) < scoreAt(appended[middle])) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int next = start - low;
+        int nextAppended = low;
+        var copy = ByteBuffer.allocate((end - start) * RECORD_SIZE);
+        for (int i = start; i < end; i++) {
+            int index;
+            if (nextAppended < appendedCount
+                    && (next >= count || scoreAt(appended[nextAppended]) > scoreAt(next))) {
+                index = appended[nextAppended++];
+            } else {
+                index = next++;
+            }
+            copy.put(buffer.slice(offset(index), RECORD_SIZE));
+        }
+        return new Page(copy.flip().asReadOnlyBuffer(), start + 1);
+    }
+
+    /**
+     * Force changes to disk, mark the table clean and close it
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (namesWriter != null) {
+            namesWriter.flush();
+            namesChannel.force(false);
+            namesWriter.close();
+        }
+        if (dirty) {
+            //Everything else is on disk before the header says so
+            buffer.force();
+            buffer.putInt(CLEAN_OFFSET, 1);
+            buffer.force(0, HEADER_SIZE);
+        }
+        channel.close();
+    }
+
+    /**
+     * Count the records scoring at least the given score
+     */
+    private int countAtLeast(int score) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (scoreAt(middle) >= score) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Count the appended records scoring at least the given score
+     */
+    private int appendedAtLeast(int score) {
+        int low = 0;
+        int high = appendedCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (scoreAt(appended[middle]) >= score) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Add a record appended after the sorted ones to the rank order, after any with the same score
+     * @param index the record's index in the file
+     */
+    private void addAppended(int index) {
+        if (appendedCount == appended.length) {
+            appended = Arrays.copyOf(appended, appended.length * 2);
+        }
+        int position = appendedAtLeast(scoreAt(index));
+        System.arraycopy(appended, position, appended, position + 1, appendedCount - position);
+        appended[position] = index;
+        appendedCount++;
+    }
+
+    /**
+     * Merge the appended records into the sorted ones, working back from the end so every record is moved once
+     */
+    private void merge() {
+        var pending = ByteBuffer.allocate(appendedCount * RECORD_SIZE);
+        for (int i = 0; i < appendedCount; i++) {
+            pending.put(buffer.slice(offset(appended[i]), RECORD_SIZE));
+        }
+
+        int sorted = count - 1;
+        int next = appendedCount - 1;
+        int to = count + appendedCount - 1;
+        while (next >= 0) {
+            //Equal scores keep the sorted record in front, as it was added first
+            if (sorted >= 0 && scoreAt(sorted) < pending.getInt(next * RECORD_SIZE + 4)) {
+                buffer.put(offset(to), buffer, offset(sorted), RECORD_SIZE);
+                sorted--;
+            } else {
+                buffer.put(offset(to), pending, next * RECORD_SIZE, RECORD_SIZE);
+                next--;
+            }
+            to--;
+        }
+
+        count += appendedCount;
+        appendedCount = 0;
+        buffer.putLong(COUNT_OFFSET, count);
+        buffer.putInt(APPENDED_OFFSET, 0);
+        logger.debug("Merged scores into " + file + ", now " + count);
+    }
+
+    private int scoreAt(int index) {
+        return buffer.getInt(offset(index) + 4);
+    }
+
+    private static int offset(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    /**
+     * Mark the header dirty before the first change since the table was opened, so a crash before close() is noticed
+     */
+    private void markDirty() {
+        if (!dirty) {
+            buffer.putInt(CLEAN_OFFSET, 0);
+            buffer.force(0, HEADER_SIZE);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Map the file with room for the given number of records, growing it if needed
+     * @param records capacity in records
+     */
+    private void map(long records) throws IOException {
+        long size = HEADER_SIZE + records * RECORD_SIZE;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Score table too large");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        capacity = records;
+    }
+
+    /**
+     * Find the id of a name, adding it to the names file if it is new
+     */
+    private int nameId(String name) throws IOException {
+        var id = nameIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (namesWriter == null) {
+            namesChannel = FileChannel.open(namesFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            namesWriter = Channels.newWriter(namesChannel, StandardCharsets.UTF_8);
+        }
+        namesWriter.write(name + "\n");
+        namesWriter.flush();
+
+        id = names.size();
+        names.add(name);
+        nameIds.put(name, id);
+        return id;
+    }
+
+    private void loadNames() throws IOException {
+        if (!Files.exists(namesFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(namesFile, StandardCharsets.UTF_8)) {
+            String name;
+            while ((name = reader.readLine()) != null) {
+                nameIds.putIfAbsent(name, names.size());
+                names.add(name);
+            }
+        }
+    }
+}
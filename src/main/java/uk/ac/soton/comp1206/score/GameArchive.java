@@ -0,0 +1,549 @@
+package uk.ac.soton.comp1206.score;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * An archive of every finished game, stored by column.
+ *
+ * Games are grouped into blocks of up to 4096. Within a block each column is stored on its own, frame-of-reference
+ * encoded: every value is stored as its difference from the smallest, bit-packed into as few bits as the largest
+ * difference needs. Columns that only grow, like the start time, store the differences between consecutive values
+ * instead, which are small. Most columns take a few bits per game. Each block starts with a header giving the size and
+ * encoding of each column, so a scan reads only the columns it asks for.
+ *
+ * A block is only written once it is full. Until then games are appended to a small tail file of fixed-size rows, so
+ * each game costs one short write. A full tail is encoded as a block, appended, and the tail emptied. The tail records
+ * the first row it holds, so if a crash happens between writing a block and emptying the tail, the rows already in the
+ * block are dropped from the tail on the next start.
+ *
+ * The files are opened and the block headers read the first time the archive is used, so getInstance() is cheap and
+ * the async methods do all of the reading on the archive's I/O thread, from the first call.
+ */
+public class GameArchive {
+
+    private static final Logger logger = LogManager.getLogger(GameArchive.class);
+
+    /**
+     * Where the game history is kept by default
+     */
+    public static final String DEFAULT_FILE = "src/main/resources/history";
+
+    /**
+     * Marks the start of a block: "TGB1"
+     */
+    private static final int BLOCK_MAGIC = 0x54474231;
+
+    /**
+     * Number of games in a full block
+     */
+    static final int BLOCK_ROWS = 4096;
+
+    private static final ArchiveColumn[] COLUMNS = ArchiveColumn.values();
+
+    /**
+     * Block header: magic, rows, first row, length, checksum of the column data, then for each column its length in
+     * bytes, bit width, minimum and first value
+     */
+    private static final int COLUMN_HEADER_SIZE = 4 + 1 + 8 + 8;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8 + COLUMNS.length * COLUMN_HEADER_SIZE;
+
+    private static final int TAIL_HEADER_SIZE = 8;
+    private static final int TAIL_ROW_SIZE = COLUMNS.length * 8;
+
+    private static GameArchive instance;
+
+    private final Path file;
+    private final Path tailFile;
+
+    /**
+     * The archive file, opened on first use
+     */
+    private FileChannel channel;
+
+    /**
+     * The tail file, opened on first use and reopened once while loading if the tail is rewritten
+     */
+    private FileChannel tailChannel;
+
+    private boolean loaded = false;
+
+    private final List<Block> blocks = new ArrayList<>();
+    private final List<GameRecord> tail = new ArrayList<>();
+    private long blockRows = 0;
+
+    private final ExecutorService io = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "archive-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Where a block's columns are in the file, and how they are encoded
+     */
+    private static class Block {
+        private final long firstRow;
+        private final int rows;
+        private final long[] offsets = new long[COLUMNS.length];
+        private final int[] lengths = new int[COLUMNS.length];
+        private final int[] widths = new int[COLUMNS.length];
+        private final long[] minimums = new long[COLUMNS.length];
+        private final long[] firsts = new long[COLUMNS.length];
+
+        Block(long firstRow, int rows) {
+            this.firstRow = firstRow;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Consecutive games from a scan, holding only the columns that were asked for
+     */
+    public static class Batch {
+        private final Map<ArchiveColumn, long[]> columns;
+        private final int start;
+        private final int end;
+
+        private Batch(Map<ArchiveColumn, long[]> columns, int start, int end) {
+            this.columns = columns;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Get the number of games in this batch
+         * @return games
+         */
+        public int size() {
+            return end - start;
+        }
+
+        /**
+         * Get a value
+         * @param column a column that was asked for
+         * @param row game within the batch
+         * @return value
+         */
+        public long get(ArchiveColumn column, int row) {
+            return columns.get(column)[start + row];
+        }
+    }
+
+    /**
+     * Create an archive backed by the given file, which is created if it does not exist. Nothing is read until the
+     * archive is first used.
+     * @param file the archive file; the tail sits alongside it
+     */
+    public GameArchive(Path file) {
+        this.file = file;
+        this.tailFile = file.resolveSibling(file.getFileName() + ".tail");
+    }
+
+    /**
+     * Get the archive for the default file. Nothing is read until it is used.
+     * @return game archive
+     */
+    public static synchronized GameArchive getInstance() {
+        if (instance == null) {
+            instance = new GameArchive(Path.of(DEFAULT_FILE));
+        }
+        return instance;
+    }
+
+    /**
+     * Open the files and read the block headers and tail, if not done already
+     * @throws IOException if the archive could not be opened
+     */
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        if (channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        if (tailChannel == null) {
+            tailChannel = FileChannel.open(tailFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        //Start afresh in case an earlier attempt failed part way through
+        blocks.clear();
+        tail.clear();
+        blockRows = 0;
+        loadBlocks();
+        loadTail();
+        loaded = true;
+        logger.info("Opened game history with " + size() + " games in " + blocks.size() + " blocks");
+    }
+
+    /**
+     * Get the number of games archived
+     * @return games
+     * @throws UncheckedIOException if the archive could not be opened
+     */
+    public synchronized long size() {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return blockRows + tail.size();
+    }
+
+    /**
+     * Archive a finished game. The game is on disk when this returns.
+     * @param record the game
+     * @throws IOException if it could not be written
+     */
+    public synchronized void append(GameRecord record) throws IOException {
+        load();
+        var row = ByteBuffer.allocate(TAIL_ROW_SIZE);
+        for (ArchiveColumn column : COLUMNS) {
+            row.putLong(record.get(column));
+        }
+        row.flip();
+        long position = TAIL_HEADER_SIZE + (long) tail.size() * TAIL_ROW_SIZE;
+        while (row.hasRemaining()) {
+            position += tailChannel.write(row, position);
+        }
+        tailChannel.force(false);
+        tail.add(record);
+
+        if (tail.size() >= BLOCK_ROWS) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Archive a finished game on the archive's I/O thread
+     * @param record the game
+     * @return future completing once the game is on disk
+     */
+    public CompletableFuture<Void> appendAsync(GameRecord record) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                append(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, io);
+    }
+
+    /**
+     * Run a query on the archive's I/O thread
+     * @param query the query, given this archive
+     * @param <T> result type
+     * @return future completing with the result
+     */
+    public <T> CompletableFuture<T> queryAsync(Function<GameArchive, T> query) {
+        return CompletableFuture.supplyAsync(() -> query.apply(this), io);
+    }
+
+    /**
+     * Start building a query over the archive
+     * @return query
+     */
+    public ArchiveQuery query() {
+        return new ArchiveQuery(this);
+    }
+
+    /**
+     * Visit games in order, in batches, reading only the given columns
+     * @param fromRow index of the first game to visit
+     * @param columns columns to read
+     * @param visitor called with each batch
+     * @throws UncheckedIOException if the archive could not be read
+     */
+    public synchronized void scan(long fromRow, Set<ArchiveColumn> columns, Consumer<Batch> visitor) {
+        try {
+            load();
+            for (Block block : blocks) {
+                if (block.firstRow + block.rows <= fromRow) {
+                    continue;
+                }
+                var values = new EnumMap<ArchiveColumn, long[]>(ArchiveColumn.class);
+                for (ArchiveColumn column : columns) {
+                    values.put(column, readColumn(block, column));
+                }
+                int start = (int) Math.max(0, fromRow - block.firstRow);
+                visitor.accept(new Batch(values, start, block.rows));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        int start = (int) Math.max(0, fromRow - blockRows);
+        if (start < tail.size()) {
+            var values = new EnumMap<ArchiveColumn, long[]>(ArchiveColumn.class);
+            for (ArchiveColumn column : columns) {
+                var tailValues = new long[tail.size()];
+                for (int i = 0; i < tail.size(); i++) {
+                    tailValues[i] = tail.get(i).get(column);
+                }
+                values.put(column, tailValues);
+            }
+            visitor.accept(new Batch(values, start, tail.size()));
+        }
+    }
+
+    /**
+     * Encode the tail as a block, append it, then empty the tail
+     */
+    private void writeBlock() throws IOException {
+        int rows = tail.size();
+        var block = new Block(blockRows, rows);
+        var encoded = new ByteBuffer[COLUMNS.length];
+        long position = channel.size() + HEADER_SIZE;
+        var crc = new CRC32();
+        for (ArchiveColumn column : COLUMNS) {
+            int index = column.ordinal();
+            var values = new long[rows];
+            for (int i = 0; i < rows; i++) {
+                values[i] = tail.get(i).get(column);
+            }
+            encoded[index] = encode(values, column.isDelta(), block, index);
+            block.offsets[index] = position;
+            block.lengths[index] = encoded[index].remaining();
+            position += block.lengths[index];
+            crc.update(encoded[index].duplicate());
+        }
+
+        long start = channel.size();
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(BLOCK_MAGIC).putInt(rows).putLong(blockRows).putInt((int) (position - start))
+                .putLong(crc.getValue());
+        for (int i = 0; i < COLUMNS.length; i++) {
+            header.putInt(block.lengths[i]).put((byte) block.widths[i]).putLong(block.minimums[i])
+                    .putLong(block.firsts[i]);
+        }
+        header.flip();
+
+        long at = start;
+        while (header.hasRemaining()) {
+            at += channel.write(header, at);
+        }
+        for (ByteBuffer column : encoded) {
+            while (column.hasRemaining()) {
+                at += channel.write(column, at);
+            }
+        }
+        channel.force(false);
+        blocks.add(block);
+        blockRows += rows;
+
+        //The rows are safe in the block, so the tail can start again from the next row. The old rows are dropped
+        //before the header moves on, so a crash in between leaves rows the header still says are not in a block
+        tailChannel.truncate(TAIL_HEADER_SIZE);
+        tailChannel.force(false);
+        var tailHeader = ByteBuffer.allocate(TAIL_HEADER_SIZE).putLong(0, blockRows);
+        while (tailHeader.hasRemaining()) {
+            tailChannel.write(tailHeader, tailHeader.position());
+        }
+        tailChannel.force(false);
+        tail.clear();
+        logger.info("Archived a block of " + rows + " games, " + (position - start) + " bytes");
+    }
+
+    /**
+     * Frame-of-reference encode a column, bit-packing each value's difference from the smallest
+     * @param values the column's values
+     * @param delta whether to encode the differences between consecutive values instead
+     * @param block block to record the encoding in
+     * @param index column index
+     * @return packed bits
+     */
+    private static ByteBuffer encode(long[] values, boolean delta, Block block, int index) {
+        int rows = values.length;
+        var stored = values;
+        if (delta) {
+            stored = new long[rows];
+            for (int i = 1; i < rows; i++) {
+                stored[i] = values[i] - values[i - 1];
+            }
+            block.firsts[index] = values[0];
+        }
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (long value : stored) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        int width = 64 - Long.numberOfLeadingZeros(max - min);
+        block.minimums[index] = min;
+        block.widths[index] = width;
+
+        var words = new long[(int) (((long) rows * width + 63) / 64)];
+        for (int i = 0; i < rows && width > 0; i++) {
+            long value = stored[i] - min;
+            long bit = (long) i * width;
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            words[word] |= value << shift;
+            if (shift + width > 64) {
+                words[word + 1] |= value >>> (64 - shift);
+            }
+        }
+        var buffer = ByteBuffer.allocate(words.length * 8);
+        buffer.asLongBuffer().put(words);
+        return buffer;
+    }
+
+    /**
+     * Read and decode one column of a block
+     * @param block block
+     * @param column column
+     * @return the column's values
+     */
+    private long[] readColumn(Block block, ArchiveColumn column) throws IOException {
+        int index = column.ordinal();
+        var buffer = ByteBuffer.allocate(block.lengths[index]);
+        long at = block.offsets[index];
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, at + buffer.position());
+            if (read < 0) {
+                throw new IOException("Game history is cut short");
+            }
+        }
+        buffer.flip();
+        var words = new long[buffer.remaining() / 8];
+        buffer.asLongBuffer().get(words);
+
+        int width = block.widths[index];
+        long min = block.minimums[index];
+        long mask = width == 64 ? -1L : (1L << width) - 1;
+        var values = new long[block.rows];
+        for (int i = 0; i < block.rows; i++) {
+            long value = 0;
+            if (width > 0) {
+                long bit = (long) i * width;
+                int word = (int) (bit >>> 6);
+                int shift = (int) (bit & 63);
+                value = words[word] >>> shift;
+                if (shift + width > 64) {
+                    value |= words[word + 1] << (64 - shift);
+                }
+                value &= mask;
+            }
+            values[i] = value + min;
+        }
+
+        if (column.isDelta()) {
+            values[0] = block.firsts[index];
+            for (int i = 1; i < block.rows; i++) {
+                values[i] += values[i - 1];
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Read the header of every block. A block cut short by a crash is removed.
+     */
+    private void loadBlocks() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(16);
+            if (header.getInt(0) != BLOCK_MAGIC || length < HEADER_SIZE || position + length > size) {
+                break;
+            }
+            var block = new Block(header.getLong(8), header.getInt(4));
+            long offset = position + HEADER_SIZE;
+            header.position(28);
+            for (int i = 0; i < COLUMNS.length; i++) {
+                block.lengths[i] = header.getInt();
+                block.widths[i] = header.get();
+                block.minimums[i] = header.getLong();
+                block.firsts[i] = header.getLong();
+                block.offsets[i] = offset;
+                offset += block.lengths[i];
+            }
+            //Only the last block can have been cut short, so only its data is checked
+            if (position + length == size && !checkBlock(position + HEADER_SIZE, length - HEADER_SIZE,
+                    header.getLong(20))) {
+                break;
+            }
+            blocks.add(block);
+            blockRows += block.rows;
+            position += length;
+        }
+        if (position < size) {
+            logger.warn("Removing a damaged block from the end of the game history");
+            channel.truncate(position);
+        }
+    }
+
+    private boolean checkBlock(long position, int length, long expected) throws IOException {
+        var data = ByteBuffer.allocate(length);
+        while (data.hasRemaining() && channel.read(data, position + data.position()) > 0) {
+        }
+        var crc = new CRC32();
+        crc.update(data.flip());
+        return crc.getValue() == expected;
+    }
+
+    /**
+     * Read the tail rows, skipping any already written in a block
+     */
+    private void loadTail() throws IOException {
+        long size = tailChannel.size();
+        var header = ByteBuffer.allocate(TAIL_HEADER_SIZE);
+        long firstRow = size >= TAIL_HEADER_SIZE && tailChannel.read(header, 0) == TAIL_HEADER_SIZE
+                ? header.getLong(0) : blockRows;
+
+        int rows = (int) ((size - Math.min(size, TAIL_HEADER_SIZE)) / TAIL_ROW_SIZE);
+        var row = ByteBuffer.allocate(TAIL_ROW_SIZE);
+        for (int i = 0; i < rows; i++) {
+            if (firstRow + i < blockRows) {
+                continue;
+            }
+            row.clear();
+            tailChannel.read(row, TAIL_HEADER_SIZE + (long) i * TAIL_ROW_SIZE);
+            var values = new long[COLUMNS.length];
+            for (int c = 0; c < COLUMNS.length; c++) {
+                values[c] = row.getLong(c * 8);
+            }
+            tail.add(new GameRecord(values));
+        }
+
+        //Rewrite the tail if it held rows already in a block, a torn row, or no header
+        if (firstRow != blockRows || size != TAIL_HEADER_SIZE + (long) rows * TAIL_ROW_SIZE) {
+            var rewrite = ByteBuffer.allocate(TAIL_HEADER_SIZE + tail.size() * TAIL_ROW_SIZE);
+            rewrite.putLong(blockRows);
+            for (GameRecord record : tail) {
+                for (ArchiveColumn column : COLUMNS) {
+                    rewrite.putLong(record.get(column));
+                }
+            }
+            rewrite.flip();
+
+            //Swapped in whole, so a crash part way through keeps the old tail
+            tailChannel.close();
+            tailChannel = null;
+            AtomicFiles.write(tailFile, rewrite);
+            tailChannel = FileChannel.open(tailFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package uk.ac.soton.comp1206.score;
+
+import uk.ac.soton.comp1206.game.Game;
+import uk.ac.soton.comp1206.game.GamePiece;
+
+/**
+ * One finished game, as kept in the game history: a value for every ArchiveColumn.
+ */
+public class GameRecord {
+
+    private final long[] values;
+
+    /**
+     * Create a record from the value of every column
+     * @param values values, indexed by column ordinal
+     */
+    GameRecord(long[] values) {
+        if (values.length != ArchiveColumn.values().length) {
+            throw new IllegalArgumentException("Expected a value for every column");
+        }
+        this.values = values;
+    }
+
+    /**
+     * Describe a game
+     * @param game the game, which should be over
+     * @return record of the game
+     */
+    public static GameRecord from(Game game) {
+        var values = new long[ArchiveColumn.values().length];
+        values[ArchiveColumn.TIMESTAMP.ordinal()] = game.getStartTime();
+        values[ArchiveColumn.DURATION.ordinal()] = game.getDurationMillis();
+        values[ArchiveColumn.SCORE.ordinal()] = game.getIntScore();
+        values[ArchiveColumn.PLACEMENTS.ordinal()] = game.getPlacements();
+        values[ArchiveColumn.LINES.ordinal()] = game.getLinesCleared();
+        values[ArchiveColumn.MAX_MULTIPLIER.ordinal()] = game.getMaxMultiplier();
+        values[ArchiveColumn.LIVES_LOST.ordinal()] = game.getLivesLost();
+        values[ArchiveColumn.LEVEL.ordinal()] = game.getIntLevel();
+        for (int piece = 1; piece <= GamePiece.PIECES; piece++) {
+            values[ArchiveColumn.piece(piece).ordinal()] = game.getPieceCount(piece);
+        }
+        return new GameRecord(values);
+    }
+
+    /**
+     * Get the value of a column
+     * @param column column
+     * @return value
+     */
+    public long get(ArchiveColumn column) {
+        return values[column.ordinal()];
+    }
+}
@@ -0,0 +1,150 @@
+package uk.ac.soton.comp1206.score;
+
+import javafx.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the best K scores seen so far, however many are offered.
+ *
+ * The entries are held in a min-heap on score, so the weakest of the current top K is always at the root. A new score
+ * only gets in if it beats that one, and inserting costs O(log K). Memory stays at K entries, so a leaderboard can be
+ * built by streaming any number of historical scores through it.
+ */
+public class Leaderboard {
+
+    private final int capacity;
+    private final int[] scores;
+    private final String[] names;
+
+    /**
+     * Order entries were offered in, so that among equal scores the earliest ranks highest
+     */
+    private final long[] order;
+
+    private int size = 0;
+    private long offered = 0;
+
+    /**
+     * Create an empty leaderboard
+     * @param capacity number of top scores to keep
+     */
+    public Leaderboard(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.scores = new int[capacity];
+        this.names = new String[capacity];
+        this.order = new long[capacity];
+    }
+
+    /**
+     * Offer a score to the leaderboard
+     * @param name player name
+     * @param score score
+     * @return true if the score made it into the top K
+     */
+    public boolean offer(String name, int score) {
+        long position = offered++;
+        if (size < capacity) {
+            scores[size] = score;
+            names[size] = name;
+            order[size] = position;
+            siftUp(size++);
+            return true;
+        }
+        if (score <= scores[0]) {
+            return false;
+        }
+        scores[0] = score;
+        names[0] = name;
+        order[0] = position;
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * Get the lowest score needed to get onto a full leaderboard
+     * @return the weakest score kept, or Integer.MIN_VALUE if there is still room
+     */
+    public int getThreshold() {
+        return size < capacity ? Integer.MIN_VALUE : scores[0];
+    }
+
+    /**
+     * Get the number of scores held
+     * @return size, at most the capacity
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the scores held, highest first
+     * @return sorted scores
+     */
+    public List<Pair<String, Integer>> getScores() {
+        var indices = new ArrayList<Integer>(size);
+        for (int i = 0; i < size; i++) {
+            indices.add(i);
+        }
+        indices.sort((a, b) -> weaker(a, b) ? 1 : -1);
+
+        var sorted = new ArrayList<Pair<String, Integer>>(size);
+        for (int i : indices) {
+            sorted.add(new Pair<>(names[i], scores[i]));
+        }
+        return sorted;
+    }
+
+    /**
+     * Whether the entry at a ranks below the entry at b: a lower score, or the same score offered later
+     */
+    private boolean weaker(int a, int b) {
+        return scores[a] < scores[b] || (scores[a] == scores[b] && order[a] > order[b]);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!weaker(index, parent)) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int weakest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && weaker(left, weakest)) {
+                weakest = left;
+            }
+            if (right < size && weaker(right, weakest)) {
+                weakest = right;
+            }
+            if (weakest == index) {
+                return;
+            }
+            swap(index, weakest);
+            index = weakest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        String name = names[a];
+        names[a] = names[b];
+        names[b] = name;
+        long position = order[a];
+        order[a] = order[b];
+        order[b] = position;
+    }
+}
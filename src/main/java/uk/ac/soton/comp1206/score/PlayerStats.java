@@ -0,0 +1,112 @@
+package uk.ac.soton.comp1206.score;
+
+/**
+ * Running totals for one player, updated one game at a time.
+ *
+ * Only sums and counts are kept, so adding a game is O(1) and the mean is worked out on demand. The recent form is an
+ * exponentially weighted average of scores, so newer games count for more; comparing it with the mean gives the trend.
+ *
+ * Instances are immutable: recording a game returns new stats, so they can be shared between threads freely.
+ */
+public class PlayerStats {
+
+    /**
+     * Weight given to the newest game in the recent average
+     */
+    private static final double RECENT_WEIGHT = 0.3;
+
+    private final int gamesPlayed;
+    private final int bestScore;
+    private final long totalScore;
+    private final long totalLines;
+    private final double recentAverage;
+
+    /**
+     * Stats for a player who has not played yet
+     */
+    public static final PlayerStats EMPTY = new PlayerStats(0, 0, 0, 0, 0);
+
+    /**
+     * Create stats from stored totals
+     * @param gamesPlayed number of games played
+     * @param bestScore highest score
+     * @param totalScore sum of all scores
+     * @param totalLines total lines cleared
+     * @param recentAverage weighted average of recent scores
+     */
+    public PlayerStats(int gamesPlayed, int bestScore, long totalScore, long totalLines, double recentAverage) {
+        this.gamesPlayed = gamesPlayed;
+        this.bestScore = bestScore;
+        this.totalScore = totalScore;
+        this.totalLines = totalLines;
+        this.recentAverage = recentAverage;
+    }
+
+    /**
+     * Add the result of one game
+     * @param score score achieved
+     * @param lines lines cleared
+     * @return the updated stats
+     */
+    public PlayerStats record(int score, int lines) {
+        double recent = gamesPlayed == 0 ? score : recentAverage + RECENT_WEIGHT * (score - recentAverage);
+        return new PlayerStats(gamesPlayed + 1, Math.max(bestScore, score), totalScore + score, totalLines + lines,
+                recent);
+    }
+
+    /**
+     * Get the number of games played
+     * @return games played
+     */
+    public int getGamesPlayed() {
+        return gamesPlayed;
+    }
+
+    /**
+     * Get the highest score
+     * @return best score
+     */
+    public int getBestScore() {
+        return bestScore;
+    }
+
+    /**
+     * Get the sum of every score
+     * @return total score
+     */
+    public long getTotalScore() {
+        return totalScore;
+    }
+
+    /**
+     * Get the total number of lines cleared
+     * @return lines cleared
+     */
+    public long getTotalLines() {
+        return totalLines;
+    }
+
+    /**
+     * Get the mean score
+     * @return mean, or 0 if no games have been played
+     */
+    public double getMeanScore() {
+        return gamesPlayed == 0 ? 0 : (double) totalScore / gamesPlayed;
+    }
+
+    /**
+     * Get the weighted average of recent scores
+     * @return recent average
+     */
+    public double getRecentAverage() {
+        return recentAverage;
+    }
+
+    /**
+     * Get how recent games compare with the player's mean
+     * @return positive if improving, negative if getting worse
+     */
+    public double getTrend() {
+        return recentAverage - getMeanScore();
+    }
+}
@@ -0,0 +1,220 @@
+package uk.ac.soton.comp1206.score;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A small key-value store of PlayerStats, keyed by player name.
+ *
+ * Every player's stats are held in a hash map, so looking a player up or recording a game is O(1) and never touches
+ * the disk. Changes are written behind: recording a game marks the player dirty, and shortly afterwards a background
+ * thread appends the latest stats of every dirty player to the file in one write. When loading, the last record for a
+ * player wins. Once the file holds many more records than players it is rewritten with one record each.
+ *
+ * Anything still dirty is flushed when the program exits normally, so only a crash within the write-behind delay can
+ * lose a game.
+ */
+public class PlayerStatsStore {
+
+    private static final Logger logger = LogManager.getLogger(PlayerStatsStore.class);
+
+    /**
+     * Where player stats are kept by default
+     */
+    public static final String DEFAULT_FILE = "src/main/resources/stats";
+
+    /**
+     * How long changes wait before being written, so several can be written together
+     */
+    private static final long FLUSH_DELAY_MS = 2000;
+
+    /**
+     * Records the file may hold beyond one per player before it is rewritten
+     */
+    private static final int REWRITE_SLACK = 64;
+
+    private static PlayerStatsStore instance;
+
+    private final Path file;
+    private final Map<String, PlayerStats> stats = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    /**
+     * Number of records in the file, including ones superseded by later records
+     */
+    private int records;
+
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "stats-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Open a stats store backed by the given file, loading every player's stats into memory. Call flush() before
+     * exiting, as getInstance() arranges for the shared store.
+     * @param file the stats file
+     */
+    public PlayerStatsStore(Path file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Get the shared store for the default stats file, which is flushed when the program exits
+     * @return stats store
+     */
+    public static synchronized PlayerStatsStore getInstance() {
+        if (instance == null) {
+            instance = new PlayerStatsStore(Path.of(DEFAULT_FILE));
+            Runtime.getRuntime().addShutdownHook(new Thread(instance::flush, "stats-shutdown"));
+        }
+        return instance;
+    }
+
+    /**
+     * Get a player's stats
+     * @param name player name
+     * @return stats, empty if the player has not played
+     */
+    public PlayerStats get(String name) {
+        return stats.getOrDefault(ScoreStore.clean(name), PlayerStats.EMPTY);
+    }
+
+    /**
+     * Get the number of players with stats
+     * @return number of players
+     */
+    public int size() {
+        return stats.size();
+    }
+
+    /**
+     * Add the result of a game to a player's stats. The change is written to disk in the background.
+     * @param name player name
+     * @param score score achieved
+     * @param lines lines cleared
+     * @return the player's updated stats
+     */
+    public PlayerStats record(String name, int score, int lines) {
+        var key = ScoreStore.clean(name);
+        var updated = stats.merge(key, PlayerStats.EMPTY.record(score, lines),
+                (previous, ignored) -> previous.record(score, lines));
+        dirty.add(key);
+        if (flushScheduled.compareAndSet(false, true)) {
+            writer.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+        return updated;
+    }
+
+    /**
+     * Write every dirty player's stats to disk now
+     */
+    public synchronized void flush() {
+        flushScheduled.set(false);
+        if (dirty.isEmpty()) {
+            return;
+        }
+
+        var builder = new StringBuilder();
+        var written = new ArrayList<String>();
+        for (String name : dirty) {
+            dirty.remove(name);
+            written.add(name);
+            appendRecord(builder, name, stats.get(name));
+        }
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            var buffer = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            records += written.size();
+        } catch (IOException e) {
+            logger.error("Unable to write player stats: " + e.getMessage());
+            //Try again next time
+            dirty.addAll(written);
+            return;
+        }
+
+        if (records > stats.size() + REWRITE_SLACK) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Replace the file with a single record per player
+     */
+    private void rewrite() {
+        var builder = new StringBuilder();
+        for (var entry : stats.entrySet()) {
+            appendRecord(builder, entry.getKey(), entry.getValue());
+        }
+        try {
+            AtomicFiles.write(file, builder.toString());
+            logger.info("Rewrote player stats: " + records + " records down to " + stats.size());
+            records = stats.size();
+        } catch (IOException e) {
+            logger.error("Unable to rewrite player stats: " + e.getMessage());
+        }
+    }
+
+    private static void appendRecord(StringBuilder builder, String name, PlayerStats player) {
+        builder.append(name).append(',')
+                .append(player.getGamesPlayed()).append(',')
+                .append(player.getBestScore()).append(',')
+                .append(player.getTotalScore()).append(',')
+                .append(player.getTotalLines()).append(',')
+                .append(player.getRecentAverage()).append('\n');
+    }
+
+    /**
+     * Read the file into memory. Later records for a player replace earlier ones.
+     */
+    private void load() {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                var fields = line.split(",");
+                if (fields.length != 6) {
+                    //A record cut short by a crash
+                    logger.warn("Skipping bad stats record: " + line);
+                    continue;
+                }
+                try {
+                    stats.put(fields[0], new PlayerStats(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                            Long.parseLong(fields[3]), Long.parseLong(fields[4]), Double.parseDouble(fields[5])));
+                    records++;
+                } catch (NumberFormatException e) {
+                    logger.warn("Skipping bad stats record: " + line);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            //No stats yet
+        } catch (IOException e) {
+            logger.error("Unable to read player stats: " + e.getMessage());
+        }
+        logger.info("Loaded stats for " + stats.size() + " players");
+    }
+}
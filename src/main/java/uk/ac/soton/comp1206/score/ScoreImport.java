@@ -0,0 +1,82 @@
+package uk.ac.soton.comp1206.score;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch of scores being handed over to a ScoreStore as logs already sorted highest first, such as by ScoreImporter.
+ *
+ * The importer writes each log at a path from newLog(), starting with SORTED_HEADER, and tells the import what it
+ * wrote with added(). commit() then moves every log into the store as if it were a log moved aside for compaction, so
+ * the next compaction streams them into the snapshot however large they are. Logs of an import which is never
+ * committed are left beside the scores and never read.
+ */
+public class ScoreImport {
+
+    /**
+     * First line of a log whose records are already sorted, highest score first
+     */
+    public static final String SORTED_HEADER = "#sorted";
+
+    private final ScoreStore store;
+    private final Path snapshot;
+    private final List<Path> logs = new ArrayList<>();
+    private final ScoreSketch sketch = new ScoreSketch();
+    private int best = Integer.MIN_VALUE;
+
+    /**
+     * Start an import into a store
+     * @param store the store
+     * @param snapshot the store's snapshot file, which logs are written beside
+     */
+    ScoreImport(ScoreStore store, Path snapshot) {
+        this.store = store;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Get a path for another log of the import, on the same file system as the scores
+     * @return path to write the log to
+     */
+    public synchronized Path newLog() {
+        var log = snapshot.resolveSibling(snapshot.getFileName() + ".import." + logs.size());
+        logs.add(log);
+        return log;
+    }
+
+    /**
+     * Record what was written to the logs, for the store's sketch and best score
+     * @param written sketch of the scores written
+     * @param writtenBest best score written
+     */
+    public synchronized void added(ScoreSketch written, int writtenBest) {
+        sketch.merge(written);
+        best = Math.max(best, writtenBest);
+    }
+
+    /**
+     * Move every log into the store. Other instances sharing the files see the imported scores in their rank index
+     * once restarted.
+     * @throws IOException if the logs could not be moved into place
+     */
+    public synchronized void commit() throws IOException {
+        store.adoptImport(logs, sketch, best);
+    }
+
+    /**
+     * Whether a log was written already sorted, highest score first
+     * @param file log
+     * @return true if its first line is the sorted marker
+     */
+    static boolean isSorted(Path file) {
+        try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return SORTED_HEADER.equals(reader.readLine());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
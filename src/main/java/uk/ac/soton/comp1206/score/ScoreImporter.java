@@ -0,0 +1,576 @@
+package uk.ac.soton.comp1206.score;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges large files of name,score records into a score store, such as exports from many machines.
+ *
+ * Each input is memory-mapped and cut into chunks, which are parsed in parallel. A chunk owns every line that starts
+ * inside it, so chunks need no coordination at their edges. Lines are parsed straight from the mapped bytes: no String
+ * is made for a line, only a 64-bit fingerprint of its cleaned name and score, and where it is. Fingerprints go into
+ * sharded hash sets that already hold every stored score, so a record is imported only if neither the store nor an
+ * earlier line has it.
+ *
+ * The new records are then written out in parallel, each writer sorting its share into a log the score store can
+ * stream straight into its snapshot. Names are only decoded by the store when it merges them.
+ *
+ * Run from the command line with the files to import:
+ * ScoreImporter [--store scores] [--threads n] file...
+ */
+public class ScoreImporter {
+
+    private static final Logger logger = LogManager.getLogger(ScoreImporter.class);
+
+    /**
+     * Each mapping of an input covers this much, plus an overlap so a line starting near its end can be read whole
+     */
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    /**
+     * Longest line guaranteed to be read. Longer lines are only skipped if they cross the edge of a segment.
+     */
+    private static final int MAX_LINE = 64 * 1024;
+
+    private static final long CHUNK_SIZE = 32L << 20;
+
+    private static final int SHARDS = 256;
+
+    /**
+     * Position marking a fingerprint that is already in the store
+     */
+    private static final long EXISTING = -1;
+
+    private final ScoreStore store;
+    private final int threads;
+    private final Shard[] shards = new Shard[SHARDS];
+
+    private final List<Input> inputs = new ArrayList<>();
+    private final AtomicLong linesRead = new AtomicLong();
+    private final AtomicLong badLines = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /**
+     * An input file, mapped in segments
+     */
+    private static class Input implements AutoCloseable {
+        private final FileChannel channel;
+        private final long size;
+        private final MappedByteBuffer[] segments;
+
+        Input(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.size = channel.size();
+            this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = segmentStart(i);
+                long end = Math.min(size, (i + 1) * SEGMENT_SIZE + MAX_LINE);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            }
+        }
+
+        /**
+         * Where a segment's mapping starts: one byte early, so the first chunk can see the end of the previous line
+         */
+        static long segmentStart(int segment) {
+            return Math.max(0, segment * SEGMENT_SIZE - 1);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * An open-addressing hash set of fingerprints, each with the position of the line it came from
+     */
+    private static class Shard {
+        private long[] keys = new long[1024];
+        private long[] positions = new long[1024];
+        private int size = 0;
+
+        /**
+         * Add a fingerprint
+         * @param key fingerprint, not 0
+         * @param position where the line is
+         * @return false if the fingerprint was already present
+         */
+        synchronized boolean add(long key, long position) {
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            positions[slot] = position;
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldPositions = positions;
+            keys = new long[oldKeys.length * 2];
+            positions = new long[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    add(oldKeys[i], oldPositions[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * A line's cleaned name and score, as found by parse()
+     */
+    private static class Line {
+        private MappedByteBuffer segment;
+        private int nameStart;
+        private int nameEnd;
+        private int score;
+        private long fingerprint;
+    }
+
+    /**
+     * Create an importer
+     * @param store score store to import into
+     * @param threads number of threads to parse and write with
+     */
+    public ScoreImporter(ScoreStore store, int threads) {
+        this.store = store;
+        this.threads = threads;
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i], args[++i]);
+            } else {
+                files.add(Path.of(args[i]));
+            }
+        }
+        if (files.isEmpty()) {
+            logger.error("Usage: ScoreImporter [--store scores] [--threads n] file...");
+            return;
+        }
+
+        var store = new ScoreStore(Path.of(options.getOrDefault("--store", ScoreStore.DEFAULT_FILE)),
+                Boolean.getBoolean("tetrecs.sharedScores"));
+        var importer = new ScoreImporter(store,
+                Integer.parseInt(options.getOrDefault("--threads",
+                        String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        importer.run(files);
+    }
+
+    /**
+     * Import the given files and log a report
+     * @param files files of name,score records
+     * @throws IOException if a file could not be read or the import could not be written
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public void run(List<Path> files) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long existing = markExisting();
+        long marked = System.nanoTime();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "score-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long bytes = 0;
+        try {
+            var tasks = new ArrayList<Future<?>>();
+            for (Path file : files) {
+                var input = new Input(file);
+                int index = inputs.size();
+                inputs.add(input);
+                bytes += input.size;
+                for (long from = 0; from < input.size; from += CHUNK_SIZE) {
+                    long chunkStart = from;
+                    tasks.add(pool.submit(() -> parseChunk(index, chunkStart,
+                            Math.min(input.size, chunkStart + CHUNK_SIZE))));
+                }
+            }
+            await(tasks);
+            long parsed = System.nanoTime();
+
+            var batch = store.startImport();
+            var sketches = new ArrayList<ScoreSketch>();
+            var best = new int[threads];
+            var written = new long[threads];
+            tasks.clear();
+            for (int i = 0; i < threads; i++) {
+                int writer = i;
+                var log = batch.newLog();
+                var sketch = new ScoreSketch();
+                sketches.add(sketch);
+                tasks.add(pool.submit(() -> {
+                    var result = writeLog(writer, log, sketch);
+                    best[writer] = (int) (result >> 32);
+                    written[writer] = (int) result;
+                    return null;
+                }));
+            }
+            await(tasks);
+
+            long imported = 0;
+            for (int i = 0; i < threads; i++) {
+                batch.added(sketches.get(i), best[i]);
+                imported += written[i];
+            }
+            batch.commit();
+            long handedOver = System.nanoTime();
+
+            store.compact();
+            long end = System.nanoTime();
+
+            double megabytes = bytes / (1024.0 * 1024.0);
+            double parseSeconds = (parsed - marked) / 1e9;
+            double totalSeconds = (end - start) / 1e9;
+            logger.info("==== Import report ====");
+            logger.info(String.format("Read %d files, %.1f MB, %,d lines (%,d bad) with %d threads", files.size(),
+                    megabytes, linesRead.get(), badLines.get(), threads));
+            logger.info(String.format("%,d scores already stored, %,d duplicates skipped, %,d imported", existing,
+                    duplicates.get(), imported));
+            logger.info(String.format("Indexed existing scores in %.2fs", (marked - start) / 1e9));
+            logger.info(String.format("Parsed in %.2fs: %.1f MB/s", parseSeconds, megabytes / parseSeconds));
+            logger.info(String.format("Wrote new scores in %.2fs, merged into the store in %.2fs",
+                    (handedOver - parsed) / 1e9, (end - handedOver) / 1e9));
+            logger.info(String.format("Total %.2fs: %.1f MB/s", totalSeconds, megabytes / totalSeconds));
+        } finally {
+            pool.shutdownNow();
+            for (Input input : inputs) {
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * Add the fingerprint of every score already stored, so they are not imported again
+     * @return number of stored scores
+     */
+    private long markExisting() {
+        var count = new long[1];
+        store.forEach((name, score) -> {
+            var bytes = name.getBytes(StandardCharsets.UTF_8);
+            long key = fingerprint(bytes, 0, bytes.length, score);
+            shards[shard(key)].add(key, EXISTING);
+            count[0]++;
+        });
+        return count[0];
+    }
+
+    /**
+     * Parse every line starting in a chunk of an input
+     * @param index which input
+     * @param from start of the chunk
+     * @param to end of the chunk
+     */
+    private void parseChunk(int index, long from, long to) {
+        var input = inputs.get(index);
+        int segmentIndex = (int) (from / SEGMENT_SIZE);
+        var segment = input.segments[segmentIndex];
+        long base = Input.segmentStart(segmentIndex);
+        int limit = segment.limit();
+
+        //Start at the first line beginning in this chunk
+        int position = (int) (from - base);
+        if (from > 0) {
+            while (position - 1 < limit && segment.get(position - 1) != '\n') {
+                position++;
+            }
+        }
+
+        var line = new Line();
+        long lines = 0;
+        long bad = 0;
+        long duplicate = 0;
+        int end = (int) (to - base);
+        while (position < end) {
+            int lineEnd = position;
+            while (lineEnd < limit && segment.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == limit && base + limit < input.size) {
+                //Runs past the overlap, so it cannot be read whole
+                bad++;
+                break;
+            }
+
+            lines++;
+            int result = parse(segment, position, lineEnd, line);
+            if (result < 0) {
+                bad++;
+            } else if (result > 0) {
+                long at = ((long) index << 48) | (base + position);
+                if (!shards[shard(line.fingerprint)].add(line.fingerprint, at)) {
+                    duplicate++;
+                }
+            }
+            position = lineEnd + 1;
+        }
+
+        linesRead.addAndGet(lines);
+        badLines.addAndGet(bad);
+        duplicates.addAndGet(duplicate);
+    }
+
+    /**
+     * Parse a line the way ScoreStore reads records: split at the last comma, trimming the name and score, then clean
+     * the name as ScoreStore.clean() does
+     * @param segment bytes holding the line
+     * @param start start of the line
+     * @param end end of the line, not including the newline
+     * @param line where to put the result
+     * @return 1 for a record, 0 for a metadata line, -1 for a line that is not a record
+     */
+    private static int parse(MappedByteBuffer segment, int start, int end, Line line) {
+        if (end > start && segment.get(end - 1) == '\r') {
+            end--;
+        }
+        if (end == start) {
+            return -1;
+        }
+        if (segment.get(start) == '#') {
+            return 0;
+        }
+        int comma = end - 1;
+        while (comma >= start && segment.get(comma) != ',') {
+            comma--;
+        }
+        if (comma < start) {
+            return -1;
+        }
+
+        //Score
+        int digits = comma + 1;
+        int digitsEnd = end;
+        while (digits < digitsEnd && isSpace(segment.get(digits))) {
+            digits++;
+        }
+        while (digitsEnd > digits && isSpace(segment.get(digitsEnd - 1))) {
+            digitsEnd--;
+        }
+        boolean negative = digits < digitsEnd && segment.get(digits) == '-';
+        if (negative || (digits < digitsEnd && segment.get(digits) == '+')) {
+            digits++;
+        }
+        if (digits == digitsEnd || digitsEnd - digits > 10) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = digits; i < digitsEnd; i++) {
+            int digit = segment.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return -1;
+        }
+
+        //Name
+        int nameStart = start;
+        int nameEnd = comma;
+        while (nameStart < nameEnd && isSpace(segment.get(nameStart))) {
+            nameStart++;
+        }
+        while (nameEnd > nameStart && isSpace(segment.get(nameEnd - 1))) {
+            nameEnd--;
+        }
+        if (nameStart < nameEnd && segment.get(nameStart) == '#') {
+            nameStart++;
+        }
+
+        line.segment = segment;
+        line.nameStart = nameStart;
+        line.nameEnd = nameEnd;
+        line.score = (int) value;
+        line.fingerprint = fingerprint(segment, nameStart, nameEnd, line.score);
+        return 1;
+    }
+
+    /**
+     * Write the new records of this writer's shards to a log, sorted highest score first
+     * @param writer writer number
+     * @param log where to write
+     * @param sketch sketch to add the scores to
+     * @return the best score in the top 32 bits and the number of records in the bottom 32
+     * @throws IOException if the log could not be written
+     */
+    private long writeLog(int writer, Path log, ScoreSketch sketch) throws IOException {
+        //Collect this writer's new records, with their scores
+        int count = 0;
+        for (int s = writer; s < SHARDS; s += threads) {
+            count += shards[s].size;
+        }
+        long[] positions = new long[count];
+        int[] scores = new int[count];
+        long[] order = new long[count];
+        var line = new Line();
+        int records = 0;
+        for (int s = writer; s < SHARDS; s += threads) {
+            var shard = shards[s];
+            for (int i = 0; i < shard.keys.length; i++) {
+                if (shard.keys[i] != 0 && shard.positions[i] != EXISTING) {
+                    reparse(shard.positions[i], line);
+                    positions[records] = shard.positions[i];
+                    scores[records] = line.score;
+                    //Highest score first: flip the sign bit so the unsigned order of the scores sorts as signed
+                    long key = (long) (Integer.MAX_VALUE - line.score) + Integer.MIN_VALUE;
+                    order[records] = (key << 32) | records;
+                    records++;
+                }
+            }
+        }
+        order = Arrays.copyOf(order, records);
+        Arrays.sort(order);
+
+        int best = Integer.MIN_VALUE;
+        try (OutputStream out = Files.newOutputStream(log)) {
+            out.write((ScoreImport.SORTED_HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+
+            //Records are built straight into one buffer, written out whenever it might not fit the next
+            byte[] buffer = new byte[1 << 20];
+            int length = 0;
+            for (long entry : order) {
+                int record = (int) entry;
+                reparse(positions[record], line);
+                if (length + (line.nameEnd - line.nameStart) + 13 > buffer.length) {
+                    out.write(buffer, 0, length);
+                    length = 0;
+                }
+                for (int i = line.nameStart; i < line.nameEnd; i++) {
+                    byte b = line.segment.get(i);
+                    buffer[length++] = b == ',' || b == '\r' ? (byte) ' ' : b;
+                }
+                buffer[length++] = ',';
+                if (line.score < 0) {
+                    buffer[length++] = '-';
+                }
+                long value = Math.abs((long) line.score);
+                int digits = value == 0 ? 1 : (int) Math.log10(value) + 1;
+                for (int i = length + digits - 1; i >= length; i--) {
+                    buffer[i] = (byte) ('0' + value % 10);
+                    value /= 10;
+                }
+                length += digits;
+                buffer[length++] = '\n';
+
+                sketch.add(line.score);
+                best = Math.max(best, line.score);
+            }
+            out.write(buffer, 0, length);
+        }
+        try (var channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        return ((long) best << 32) | records;
+    }
+
+    /**
+     * Parse the line at a position recorded while parsing chunks
+     */
+    private void reparse(long at, Line line) {
+        var input = inputs.get((int) (at >>> 48));
+        long position = at & ((1L << 48) - 1);
+        int segmentIndex = (int) (position / SEGMENT_SIZE);
+        var segment = input.segments[segmentIndex];
+        long base = Input.segmentStart(segmentIndex);
+        int start = (int) (position - base);
+        int end = start;
+        while (end < segment.limit() && segment.get(end) != '\n') {
+            end++;
+        }
+        parse(segment, start, end, line);
+    }
+
+    private static boolean isSpace(byte b) {
+        return (b & 0xFF) <= ' ';
+    }
+
+    /**
+     * FNV-1a over the cleaned name bytes, mixed with the score. Commas and carriage returns hash as spaces, as
+     * ScoreStore.clean() replaces them.
+     */
+    private static long fingerprint(MappedByteBuffer bytes, int start, int end, int score) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            byte b = bytes.get(i);
+            hash = (hash ^ (b == ',' || b == '\r' ? ' ' : b & 0xFF)) * 0x100000001b3L;
+        }
+        return finish(hash, score);
+    }
+
+    private static long fingerprint(byte[] bytes, int start, int end, int score) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            hash = (hash ^ (b == ',' || b == '\r' ? ' ' : b & 0xFF)) * 0x100000001b3L;
+        }
+        return finish(hash, score);
+    }
+
+    private static long finish(long hash, int score) {
+        hash ^= score * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        //0 marks an empty slot
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static int shard(long key) {
+        return (int) (key >>> 56);
+    }
+
+    private static void await(List<Future<?>> tasks) throws IOException, InterruptedException {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package uk.ac.soton.comp1206.score;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A compact summary of how scores are distributed, from which the percentile of any score can be estimated without
+ * looking at the scores themselves.
+ *
+ * Scores are counted in log-scaled buckets: every score below 16 has a bucket of its own, and each power of two above
+ * that is split into 16 buckets, so a bucket never spans more than 1/16 of the scores in it. That bounds the error of
+ * an estimate to about 6% of the score, whatever the range of scores, with under 500 buckets. Two sketches merge by
+ * adding their counts, so sketches built separately describe their combined scores exactly as one sketch would.
+ */
+public class ScoreSketch {
+
+    private static final int SUB_BUCKETS = 16;
+
+    /**
+     * Enough buckets for any non-negative int
+     */
+    private static final int BUCKETS = (31 - 3) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total = 0;
+
+    /**
+     * Create an empty sketch
+     */
+    public ScoreSketch() {
+    }
+
+    /**
+     * Count a score. Negative scores are counted as 0.
+     * @param score score
+     */
+    public void add(int score) {
+        counts[bucket(Math.max(0, score))]++;
+        total++;
+    }
+
+    /**
+     * Add all the scores counted by another sketch
+     * @param other sketch to merge in
+     */
+    public void merge(ScoreSketch other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    /**
+     * Get the number of scores counted
+     * @return number of scores
+     */
+    public long getCount() {
+        return total;
+    }
+
+    /**
+     * Estimate how many scores were at least the given score. Scores within a bucket are taken to be spread evenly.
+     * @param score score
+     * @return estimated count
+     */
+    public double countAtLeast(int score) {
+        if (score <= 0) {
+            return total;
+        }
+        int bucket = bucket(score);
+        double count = 0;
+        for (int i = bucket + 1; i < BUCKETS; i++) {
+            count += counts[i];
+        }
+        long low = lowerBound(bucket);
+        long width = lowerBound(bucket + 1) - low;
+        return count + counts[bucket] * (double) (low + width - score) / width;
+    }
+
+    /**
+     * Estimate what percentage of scores were at least as good as the given score, so 5 means the score is in the top
+     * 5%
+     * @param score score
+     * @return percentage from 0 to 100, or 100 if no scores have been counted
+     */
+    public double topPercent(int score) {
+        if (total == 0) {
+            return 100;
+        }
+        return Math.max(0, Math.min(100, 100 * countAtLeast(score) / total));
+    }
+
+    /**
+     * Write the sketch as a varint per bucket. Most buckets are empty and take a single byte.
+     * @param buffer buffer to write to, which needs up to 10 bytes per bucket
+     */
+    public void write(ByteBuffer buffer) {
+        for (long count : counts) {
+            while ((count & ~0x7FL) != 0) {
+                buffer.put((byte) ((count & 0x7F) | 0x80));
+                count >>>= 7;
+            }
+            buffer.put((byte) count);
+        }
+    }
+
+    /**
+     * Read a sketch written by write()
+     * @param buffer buffer to read from
+     * @return the sketch
+     * @throws IllegalArgumentException if the buffer does not hold a whole sketch
+     */
+    public static ScoreSketch read(ByteBuffer buffer) {
+        var sketch = new ScoreSketch();
+        try {
+            for (int i = 0; i < BUCKETS; i++) {
+                long count = 0;
+                int shift = 0;
+                byte next;
+                do {
+                    next = buffer.get();
+                    count |= (long) (next & 0x7F) << shift;
+                    shift += 7;
+                } while (next < 0 && shift < 64);
+                sketch.counts[i] = count;
+                sketch.total += count;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Sketch is cut short");
+        }
+        return sketch;
+    }
+
+    /**
+     * Get the largest size write() can produce
+     * @return size in bytes
+     */
+    public static int maxSize() {
+        return BUCKETS * 10;
+    }
+
+    private static int bucket(int value) {
+        int exponent = 31 - Integer.numberOfLeadingZeros(value);
+        if (exponent < 4) {
+            return value;
+        }
+        int mantissa = (value >>> (exponent - 4)) & (SUB_BUCKETS - 1);
+        return (exponent - 3) * SUB_BUCKETS + mantissa;
+    }
+
+    private static long lowerBound(int bucket) {
+        int exponent = bucket / SUB_BUCKETS + 3;
+        if (exponent < 4) {
+            return bucket;
+        }
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 4);
+    }
+}
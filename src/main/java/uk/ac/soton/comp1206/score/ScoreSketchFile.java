@@ -0,0 +1,109 @@
+package uk.ac.soton.comp1206.score;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The small sidecar file a ScoreSketch of every score is kept in: a header of magic, length, a checksum of the sketch
+ * and a clean flag, then the sketch itself. A file which is missing, torn or damaged reads as no sketch, so the owner
+ * can build it again from the scores.
+ *
+ * The sketch is derived from the scores, so it is only forced to disk by a clean write when the owner is done with it.
+ * Writes in between are marked dirty, and a dirty file is only trusted by an owner which has already checked it once,
+ * as one left dirty by a crash may be missing the last few scores.
+ */
+class ScoreSketchFile {
+
+    private static final Logger logger = LogManager.getLogger(ScoreSketchFile.class);
+
+    /**
+     * Marks a valid sketch file: "TSK2"
+     */
+    private static final int MAGIC = 0x54534B32;
+
+    /**
+     * Size of the header: magic, length of the sketch, its checksum and the clean flag
+     */
+    private static final int HEADER_SIZE = 20;
+    private static final int CLEAN_OFFSET = 16;
+
+    private final Path file;
+
+    /**
+     * Create a sketch file at the given path. Nothing is read or written until asked.
+     * @param file sketch file
+     */
+    ScoreSketchFile(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Read the sketch
+     * @param trustDirty whether to accept a sketch which was not written clean, such as one this owner wrote itself
+     * @return the sketch, or null if the file is missing, damaged or not trusted
+     */
+    ScoreSketch read(boolean trustDirty) {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            int length = header.getInt(4);
+            if (header.position() == HEADER_SIZE && header.getInt(0) == MAGIC && !trustDirty
+                    && header.getInt(CLEAN_OFFSET) != 1) {
+                logger.info("Score sketch was not closed cleanly, rebuilding it");
+                return null;
+            }
+            if (header.position() == HEADER_SIZE && header.getInt(0) == MAGIC
+                    && length >= 0 && length <= ScoreSketch.maxSize()) {
+                var body = ByteBuffer.allocate(length);
+                channel.read(body, HEADER_SIZE);
+                var crc = new CRC32();
+                crc.update(body.array(), 0, body.position());
+                if (body.position() == length && crc.getValue() == header.getLong(8)) {
+                    return ScoreSketch.read(body.flip());
+                }
+            }
+            logger.warn("Score sketch is damaged, rebuilding it");
+        } catch (NoSuchFileException e) {
+            //No sketch yet
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Unable to read score sketch, rebuilding it: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Overwrite the file with a sketch
+     * @param sketch sketch to write
+     * @param clean whether this is the owner's last write, which is forced to disk and trusted after a restart
+     */
+    void write(ScoreSketch sketch, boolean clean) {
+        var body = ByteBuffer.allocate(ScoreSketch.maxSize());
+        sketch.write(body);
+        body.flip();
+        var crc = new CRC32();
+        crc.update(body.array(), 0, body.limit());
+
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(body.limit()).putLong(crc.getValue()).putInt(clean ? 1 : 0).flip();
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            var buffers = new ByteBuffer[] {header, body};
+            while (body.hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.truncate(HEADER_SIZE + body.limit());
+            if (clean) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            logger.error("Unable to write score sketch: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,1220 @@
+package uk.ac.soton.comp1206.score;
+
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.util.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+/**
+ * Stores local scores as a sorted snapshot file plus an append-only log of newer scores.
+ *
+ * Submitting a score appends a single name,score record to the log and syncs it to disk, so the cost does not grow with
+ * the number of scores and a crash can lose at most the record being written. When the log gets large it is compacted
+ * in the background: the log is renamed aside, merged with the snapshot into a new sorted file, and that file is
+ * atomically renamed over the snapshot. The snapshot's first line records which renamed logs it already contains, so a
+ * crash at any point during compaction neither loses nor duplicates scores.
+ *
+ * The snapshot keeps the original name,score format, with lines starting with # treated as metadata.
+ *
+ * The best score is kept by a BestScoreCache, in memory and in a small sidecar file updated whenever a higher score is
+ * appended, so finding the high score never means scanning the scores.
+ *
+ * Every score is also indexed in a memory-mapped BinaryScoreFile sorted by score, so the rank of any score among all
+ * of them can be found in O(log n). The index is rebuilt from the scores if it is missing or was left mid-update.
+ *
+ * A ScoreSketch of every score is kept in another small sidecar, a ScoreSketchFile, updated with each append, so the
+ * percentile of a score can be estimated in microseconds without reading the scores. It is rebuilt from the scores if
+ * it is missing or damaged.
+ *
+ * Only the log is forced to disk on each append. The best score, index and sketch are all derived from the scores, so
+ * they are left to the operating system until close(), and after a crash are checked against or rebuilt from the
+ * scores. The default store is closed when the game exits.
+ *
+ * In shared mode several instances of the game can use the same files at once. Appends take an exclusive lock on a
+ * lock file for just the few bytes they write, and moving the log aside for compaction takes the same lock. Reads take
+ * no lock: they check afterwards that no compaction replaced the files they were reading, and read again if one did.
+ * Each instance remembers how far through the log it has read, so scores appended by other instances are picked up
+ * incrementally by reading just the new bytes. As the instances cannot all write the same rank index, each keeps its
+ * own private index in a temporary file.
+ *
+ * The async methods run on a dedicated I/O thread and return futures, so the UI never waits on the disk. Because that
+ * thread runs one task at a time, requests complete in the order they were made.
+ */
+public final class ScoreStore {
+
+    private static final Logger logger = LogManager.getLogger(ScoreStore.class);
+
+    /**
+     * Where local scores are kept by default
+     */
+    public static final String DEFAULT_FILE = "src/main/resources/scores";
+
+    /**
+     * Size the log can reach before it is compacted into the snapshot, in bytes
+     */
+    private static final long COMPACT_THRESHOLD = 64 * 1024;
+
+    private static final String GENERATION_HEADER = "#compacted=";
+
+    private static ScoreStore instance;
+
+    private final Path snapshot;
+    private final Path log;
+    private final Path rankFile;
+    private final ScoreSketchFile sketchFile;
+    private final Path lockFile;
+
+    /**
+     * Distribution of every score, loaded on first use
+     */
+    private ScoreSketch sketch;
+
+    /**
+     * Whether the sketch file has been read once, after which it is trusted even if an instance still running has
+     * written to it since
+     */
+    private boolean sketchChecked = false;
+
+    /**
+     * Whether other instances may be using the same files
+     */
+    private final boolean shared;
+
+    /**
+     * Shared mode: lock file, opened on first use. Its first byte guards appends, its second byte compaction.
+     */
+    private FileChannel lockChannel;
+
+    /**
+     * Shared mode: the log file this instance is reading, and how far through it every record has been taken in
+     */
+    private Object logKey;
+    private long logOffset;
+
+    /**
+     * Shared mode: whether the persistent rank index has been deleted, as it will not have this instance's scores
+     */
+    private boolean persistentIndexDropped = false;
+
+    /**
+     * Sorted binary index of every score, opened on first use
+     */
+    private BinaryScoreFile rankTable;
+
+    /**
+     * The best score, cached in memory and in a sidecar file
+     */
+    private final BestScoreCache best;
+
+    /**
+     * Appends go through this channel, opened on first use
+     */
+    private FileChannel logChannel;
+
+    /**
+     * The generation of the newest renamed log. Renamed logs up to the snapshot's generation are already merged.
+     */
+    private long generation;
+
+    private boolean compacting = false;
+
+    /**
+     * Held for the whole of a compaction so two never run at once
+     */
+    private final Object compactLock = new Object();
+
+    /**
+     * Runs the async score operations, one at a time
+     */
+    private final ExecutorService io = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "score-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "score-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Open a score store backed by the given snapshot file, for use by this instance only. Any compaction interrupted
+     * by a crash is finished off in the background.
+     * @param snapshot path of the snapshot file; the log sits alongside it
+     */
+    public ScoreStore(Path snapshot) {
+        this(snapshot, false);
+    }
+
+    /**
+     * Open a score store backed by the given snapshot file. Any compaction interrupted by a crash is finished off in
+     * the background.
+     * @param snapshot path of the snapshot file; the log sits alongside it
+     * @param shared whether other instances may use the same files at the same time
+     */
+    public ScoreStore(Path snapshot, boolean shared) {
+        this.snapshot = snapshot;
+        this.shared = shared;
+        this.lockFile = snapshot.resolveSibling(snapshot.getFileName() + ".lock");
+        this.log = snapshot.resolveSibling(snapshot.getFileName() + ".log");
+        this.best = new BestScoreCache(snapshot.resolveSibling(snapshot.getFileName() + ".best"));
+        this.rankFile = snapshot.resolveSibling(snapshot.getFileName() + ".bin");
+        this.sketchFile = new ScoreSketchFile(snapshot.resolveSibling(snapshot.getFileName() + ".sketch"));
+
+        long merged = readGeneration();
+        generation = merged;
+        for (long pending : renamedLogs()) {
+            if (pending <= merged) {
+                //Already in the snapshot, the crash happened before it was deleted
+                deleteQuietly(renamedLog(pending));
+            } else {
+                generation = Math.max(generation, pending);
+            }
+        }
+        if (generation > merged) {
+            scheduleCompaction();
+        }
+
+        loadBestScore();
+    }
+
+    /**
+     * Get the store for the default scores file. Setting the system property tetrecs.sharedScores to true lets several
+     * instances of the game share the file.
+     * @return score store
+     */
+    public static synchronized ScoreStore getInstance() {
+        if (instance == null) {
+            instance = new ScoreStore(Path.of(DEFAULT_FILE), Boolean.getBoolean("tetrecs.sharedScores"));
+            Runtime.getRuntime().addShutdownHook(new Thread(instance::close, "score-shutdown"));
+        }
+        return instance;
+    }
+
+    /**
+     * Record a new score. The record is on disk when this returns.
+     * @param name player name
+     * @param score score
+     * @return the rank of the new score among all scores, starting from 1, or 0 if the rank index is unavailable
+     * @throws IOException if the record could not be written
+     */
+    public synchronized int append(String name, int score) throws IOException {
+        name = clean(name);
+        var record = (name + "," + score + "\n").getBytes(StandardCharsets.UTF_8);
+
+        //Open the index and sketch first, so if they have to be rebuilt from the scores they do not already contain
+        //this one
+        BinaryScoreFile table = null;
+        try {
+            table = rankTable();
+        } catch (IOException e) {
+            logger.error("Unable to open score index: " + e.getMessage());
+        }
+        var distribution = shared ? null : sketch();
+
+        long logSize;
+        if (shared) {
+            logSize = appendShared(record, score);
+        } else {
+            if (logChannel == null) {
+                logChannel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            write(logChannel, record);
+            best.offer(score);
+            distribution.add(score);
+            writeSketch();
+            logSize = logChannel.size();
+        }
+
+        if (logSize >= COMPACT_THRESHOLD) {
+            scheduleCompaction();
+        }
+
+        if (table == null) {
+            return 0;
+        }
+        try {
+            return table.insert(name, score, System.currentTimeMillis());
+        } catch (IOException e) {
+            logger.error("Unable to index score: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Append a record while holding the append lock, first taking in anything other instances appended so the new
+     * score is ranked against them
+     * @param record the encoded record
+     * @param score its score
+     * @return the size of the log afterwards
+     * @throws IOException if the record could not be written
+     */
+    private long appendShared(byte[] record, int score) throws IOException {
+        FileLock lock = lockAppends();
+        try {
+            catchUp();
+            if (!persistentIndexDropped) {
+                deleteQuietly(rankFile);
+                deleteQuietly(rankFile.resolveSibling(rankFile.getFileName() + ".names"));
+                persistentIndexDropped = true;
+            }
+
+            //The log may have been moved aside by another instance, so it is opened afresh each time
+            long size;
+            try (var channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                write(channel, record);
+                size = channel.size();
+            }
+            //Nobody else can append while we hold the lock, so everything up to here has been taken in
+            logKey = fileKey(log);
+            logOffset = size;
+
+            best.offer(score);
+            //The file is the copy every instance shares, so it is updated under the lock rather than from memory
+            sketch = loadSketch();
+            sketch.add(score);
+            writeSketch();
+            return size;
+        } finally {
+            lock.release();
+        }
+    }
+
+    private static void write(FileChannel channel, byte[] record) throws IOException {
+        var buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Get the rank a score would have among all stored scores
+     * @param score score
+     * @return rank, starting from 1, or 0 if the rank index is unavailable
+     */
+    public synchronized int rank(int score) {
+        try {
+            return rankTable().rank(score);
+        } catch (IOException e) {
+            logger.error("Unable to open score index: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Get the total number of scores stored
+     * @return number of scores, or 0 if the rank index is unavailable
+     */
+    public synchronized int getScoreCount() {
+        try {
+            return rankTable().size();
+        } catch (IOException e) {
+            logger.error("Unable to open score index: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Get a window of the full sorted score table, read straight from the memory-mapped index
+     * @param firstRank rank of the first score, starting from 1
+     * @param length maximum number of scores
+     * @return page of scores
+     * @throws IOException if the index could not be opened
+     */
+    public synchronized BinaryScoreFile.Page page(int firstRank, int length) throws IOException {
+        return rankTable().page(firstRank, length);
+    }
+
+    /**
+     * Open the rank index, rebuilding it from the scores if it is new or was not closed cleanly
+     * @return rank index
+     * @throws IOException if it could not be opened or rebuilt
+     */
+    private BinaryScoreFile rankTable() throws IOException {
+        if (rankTable != null) {
+            catchUp();
+            return rankTable;
+        }
+        if (shared) {
+            return sharedRankTable();
+        }
+
+        var table = new BinaryScoreFile(rankFile);
+        if (!table.isClean() || table.size() == 0) {
+            var scores = loadScores();
+            var names = new String[scores.size()];
+            var values = new int[scores.size()];
+            for (int i = 0; i < scores.size(); i++) {
+                names[i] = scores.get(i).getKey();
+                values[i] = scores.get(i).getValue();
+            }
+            table.rebuild(names, values, scores.size());
+        }
+        rankTable = table;
+        return rankTable;
+    }
+
+    /**
+     * Build this instance's private rank index. The snapshot and moved-aside logs are read as a consistent set, and
+     * then the live log is read from the start as new records would be, so no record is indexed twice.
+     * @return rank index
+     * @throws IOException if it could not be created
+     */
+    private BinaryScoreFile sharedRankTable() throws IOException {
+        var file = Files.createTempFile("tetrecs-scores", ".bin");
+        file.toFile().deleteOnExit();
+        file.resolveSibling(file.getFileName() + ".names").toFile().deleteOnExit();
+
+        var scores = new ArrayList<Pair<String, Integer>>();
+        Object key;
+        while (true) {
+            scores.clear();
+            key = fileKey(log);
+            long merged = readGeneration();
+            var logs = renamedLogs();
+            readRecords(snapshot, (name, score) -> scores.add(new Pair<>(name, score)));
+            for (long pending : logs) {
+                if (pending > merged) {
+                    readRecords(renamedLog(pending), (name, score) -> scores.add(new Pair<>(name, score)));
+                }
+            }
+            if (readGeneration() == merged && renamedLogs().equals(logs)) {
+                break;
+            }
+        }
+        scores.sort((pair1, pair2) -> pair2.getValue().compareTo(pair1.getValue()));
+
+        var names = new String[scores.size()];
+        var values = new int[scores.size()];
+        for (int i = 0; i < scores.size(); i++) {
+            names[i] = scores.get(i).getKey();
+            values[i] = scores.get(i).getValue();
+        }
+        var table = new BinaryScoreFile(file);
+        table.rebuild(names, values, scores.size());
+
+        rankTable = table;
+        logKey = key;
+        logOffset = 0;
+        catchUp();
+        return rankTable;
+    }
+
+    /**
+     * Shared mode: take in any records appended to the log since this instance last looked. Only the new bytes are
+     * read. If another instance has moved the log aside, the rest of it is read from where it was moved to.
+     */
+    private synchronized void catchUp() {
+        if (!shared) {
+            return;
+        }
+        try {
+            var key = fileKey(log);
+            if (logKey != null && !logKey.equals(key)) {
+                var moved = findRenamedLog(logKey);
+                if (moved == null) {
+                    //Already merged and deleted, so we cannot tell which of its records we have seen
+                    resync();
+                    return;
+                }
+                readFrom(moved, logOffset);
+                logOffset = 0;
+            }
+            logKey = key;
+            if (key != null) {
+                logOffset = readFrom(log, logOffset);
+            }
+        } catch (IOException e) {
+            logger.error("Unable to read new scores: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Take in the complete records of a log from the given offset
+     * @param file log to read
+     * @param offset where to start
+     * @return the offset just past the last complete record
+     * @throws IOException if the log could not be read
+     */
+    private long readFrom(Path file, long offset) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= offset) {
+                return offset;
+            }
+            var bytes = ByteBuffer.allocate((int) (size - offset));
+            while (bytes.hasRemaining() && channel.read(bytes, offset + bytes.position()) > 0) {
+            }
+
+            //A record is only complete once its newline is written
+            int end = bytes.position();
+            while (end > 0 && bytes.get(end - 1) != '\n') {
+                end--;
+            }
+            var text = new String(bytes.array(), 0, end, StandardCharsets.UTF_8);
+            for (String line : text.split("\n")) {
+                parseRecord(line, this::takeIn);
+            }
+            return offset + end;
+        } catch (NoSuchFileException e) {
+            return offset;
+        }
+    }
+
+    /**
+     * Take in a record another instance appended
+     */
+    private void takeIn(String name, int score) {
+        if (score > best.get()) {
+            best.set(score);
+        }
+        if (rankTable != null) {
+            try {
+                rankTable.insert(name, score, 0);
+            } catch (IOException e) {
+                logger.error("Unable to index score: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Shared mode: start again from the files as they are now, after losing track of the log
+     */
+    private void resync() throws IOException {
+        logger.warn("Lost track of the score log, rebuilding the rank index");
+        if (rankTable != null) {
+            rankTable.close();
+            rankTable = null;
+        }
+        logKey = null;
+        logOffset = 0;
+        loadBestScore();
+    }
+
+    /**
+     * Find where a log was moved to when it was compacted
+     * @param key file key of the log
+     * @return the renamed log, or null if it no longer exists
+     */
+    private Path findRenamedLog(Object key) throws IOException {
+        for (long pending : renamedLogs()) {
+            if (key.equals(fileKey(renamedLog(pending)))) {
+                return renamedLog(pending);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the key identifying a file, which stays the same when it is renamed
+     * @param file file
+     * @return key, or null if the file does not exist
+     */
+    private static Object fileKey(Path file) throws IOException {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Shared mode: take the append lock, waiting for any other instance holding it
+     * @return the lock, to be released once the append is done
+     */
+    private FileLock lockAppends() throws IOException {
+        return lockChannel().lock(0, 1, false);
+    }
+
+    private synchronized FileChannel lockChannel() throws IOException {
+        if (lockChannel == null) {
+            lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        return lockChannel;
+    }
+
+    /**
+     * Estimate what percentage of all scores were at least as good as the given score
+     * @param score score
+     * @return percentage from 0 to 100, so 5 means the top 5%
+     */
+    public synchronized double topPercent(int score) {
+        return sketch().topPercent(score);
+    }
+
+    /**
+     * Get the sketch of every score, reading it from its file on first use. In shared mode the file is read every time
+     * under the append lock, as any instance may have updated it.
+     * @return sketch
+     */
+    private ScoreSketch sketch() {
+        if (!shared) {
+            if (sketch == null) {
+                sketch = loadSketch();
+            }
+            return sketch;
+        }
+        try {
+            FileLock lock = lockAppends();
+            try {
+                sketch = loadSketch();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            logger.error("Unable to lock scores: " + e.getMessage());
+            sketch = loadSketch();
+        }
+        return sketch;
+    }
+
+    /**
+     * Read the sketch file, or if it is missing or damaged, build the sketch from every score and write it
+     * @return sketch
+     */
+    private ScoreSketch loadSketch() {
+        var read = sketchFile.read(sketchChecked);
+        sketchChecked = true;
+        if (read != null) {
+            return read;
+        }
+        while (true) {
+            var built = new ScoreSketch();
+            if (forEachOnce((name, score) -> built.add(score))) {
+                sketch = built;
+                writeSketch();
+                return built;
+            }
+        }
+    }
+
+    /**
+     * Overwrite the sketch file with the current sketch, without forcing it to disk
+     */
+    private void writeSketch() {
+        sketchFile.write(sketch, false);
+    }
+
+    /**
+     * Close the rank index and write the sketch clean, so neither has to be rebuilt next time. The store can still be
+     * used afterwards, reopening them as needed.
+     */
+    public synchronized void close() {
+        if (rankTable != null) {
+            try {
+                rankTable.close();
+            } catch (IOException e) {
+                logger.error("Unable to close score index: " + e.getMessage());
+            }
+            rankTable = null;
+        }
+        if (sketch == null) {
+            return;
+        }
+        try {
+            FileLock lock = shared ? lockAppends() : null;
+            try {
+                if (shared) {
+                    //Other instances may have added to the file since this one last read it
+                    sketch = loadSketch();
+                }
+                sketchFile.write(sketch, true);
+            } finally {
+                if (lock != null) {
+                    lock.release();
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Unable to lock scores: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Record a new score on the I/O thread
+     * @param name player name
+     * @param score score
+     * @return future completing with the rank of the new score, or failing if it could not be written
+     */
+    public CompletableFuture<Integer> appendAsync(String name, int score) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return append(name, score);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, io);
+    }
+
+    /**
+     * Find the best scores on the I/O thread
+     * @param count number of top scores to keep
+     * @return future completing with the leaderboard
+     */
+    public CompletableFuture<Leaderboard> topScoresAsync(int count) {
+        return CompletableFuture.supplyAsync(() -> topScores(count), io);
+    }
+
+    /**
+     * Estimate the percentage of scores at least as good as the given score, on the I/O thread
+     * @param score score
+     * @return future completing with a percentage from 0 to 100
+     */
+    public CompletableFuture<Double> topPercentAsync(int score) {
+        return CompletableFuture.supplyAsync(() -> topPercent(score), io);
+    }
+
+    /**
+     * Count the stored scores on the I/O thread. Opening the rank index the first time can mean building it.
+     * @return future completing with the number of scores
+     */
+    public CompletableFuture<Integer> getScoreCountAsync() {
+        return CompletableFuture.supplyAsync(this::getScoreCount, io);
+    }
+
+    /**
+     * Get the best score stored. Safe to call from any thread.
+     * @return best score, or 0 if there are no scores
+     */
+    public int getBestScore() {
+        return best.get();
+    }
+
+    /**
+     * Get the best score as a property, updated on the JavaFX thread whenever a new high score is appended
+     * @return best score property
+     */
+    public ReadOnlyIntegerProperty bestScoreProperty() {
+        return best.property();
+    }
+
+    /**
+     * Read the best score from the sidecar file. Anything appended since is also in the log, so the log is checked
+     * too in case the sidecar was not updated before a crash. If the sidecar is missing or damaged, the best score is
+     * worked out from the scores once and the sidecar rewritten.
+     */
+    private synchronized void loadBestScore() {
+        int sidecar = best.read();
+        int found = sidecar;
+        if (found == Integer.MIN_VALUE) {
+            found = topScores(1).getThreshold();
+        } else {
+            var max = new int[] {found};
+            BiConsumer<String, Integer> check = (name, score) -> max[0] = Math.max(max[0], score);
+            for (long pending : renamedLogs()) {
+                readRecords(renamedLog(pending), check);
+            }
+            readRecords(log, check);
+            found = max[0];
+        }
+
+        found = Math.max(found, 0);
+        if (found != sidecar) {
+            try {
+                best.write(found);
+            } catch (IOException e) {
+                logger.error("Unable to write best score: " + e.getMessage());
+            }
+        }
+        best.set(found);
+    }
+
+    /**
+     * Find the best scores by streaming every stored score through a bounded leaderboard. Only the top scores are
+     * ever held in memory, and because a compacted snapshot is sorted, only its first few records are read.
+     * @param count number of top scores to keep
+     * @return leaderboard of the best scores
+     */
+    public synchronized Leaderboard topScores(int count) {
+        while (true) {
+            var leaderboard = new Leaderboard(count);
+            BiConsumer<String, Integer> offer = leaderboard::offer;
+            var logs = renamedLogs();
+            long merged = readRecords(snapshot, offer, count);
+            for (long pending : logs) {
+                if (pending > merged) {
+                    readRecords(renamedLog(pending), offer);
+                }
+            }
+            readRecords(log, offer);
+            if (unchanged(merged, logs)) {
+                return leaderboard;
+            }
+        }
+    }
+
+    /**
+     * Read every score, highest first
+     * @return all scores
+     */
+    public List<Pair<String, Integer>> loadScores() {
+        var scores = new ArrayList<Pair<String, Integer>>();
+        while (!forEachOnce((name, score) -> scores.add(new Pair<>(name, score)))) {
+            scores.clear();
+        }
+        scores.sort((pair1, pair2) -> pair2.getValue().compareTo(pair1.getValue()));
+        return scores;
+    }
+
+    /**
+     * Visit every stored score: first the snapshot, in order, then any newer scores in the order they were added. In
+     * shared mode, if another instance compacts the files part way through, some scores may be visited twice or missed.
+     * @param visitor called with each name and score
+     */
+    public synchronized void forEach(BiConsumer<String, Integer> visitor) {
+        forEachOnce(visitor);
+    }
+
+    /**
+     * Visit every stored score once, without taking a lock
+     * @param visitor called with each name and score
+     * @return false if another instance compacted the files during the read, so it should be done again
+     */
+    private synchronized boolean forEachOnce(BiConsumer<String, Integer> visitor) {
+        var logs = renamedLogs();
+        long merged = readRecords(snapshot, visitor);
+        for (long pending : logs) {
+            if (pending > merged) {
+                readRecords(renamedLog(pending), visitor);
+            }
+        }
+        readRecords(log, visitor);
+        return unchanged(merged, logs);
+    }
+
+    /**
+     * Check that no compaction happened during a read. Compaction either moves the log aside, adding a renamed log, or
+     * replaces the snapshot, changing its generation, so a read is consistent if neither changed.
+     * @param merged generation of the snapshot that was read
+     * @param logs renamed logs listed before the read
+     * @return true if the read saw a consistent set of files
+     */
+    private boolean unchanged(long merged, List<Long> logs) {
+        return !shared || (readGeneration() == merged && renamedLogs().equals(logs));
+    }
+
+    /**
+     * Compact the log into the snapshot now, on the calling thread
+     * @throws IOException if compaction fails; the existing files are left intact
+     */
+    public void compact() throws IOException {
+        synchronized (compactLock) {
+            if (!shared) {
+                compactLocked();
+                return;
+            }
+            try (FileLock lock = lockChannel().tryLock(1, 1, false)) {
+                if (lock == null) {
+                    logger.debug("Another instance is compacting the scores");
+                    return;
+                }
+                compactLocked();
+            }
+        }
+    }
+
+    private void compactLocked() throws IOException {
+        long target;
+        synchronized (this) {
+            //Move the live log aside so appends can carry on into a fresh one while we merge
+            FileLock appends = shared ? lockAppends() : null;
+            try {
+                catchUp();
+                if (logChannel != null) {
+                    logChannel.close();
+                    logChannel = null;
+                }
+                if (Files.exists(log) && Files.size(log) > 0) {
+                    //Other instances may have moved logs aside too
+                    generation = Math.max(generation, readGeneration());
+                    for (long pending : renamedLogs()) {
+                        generation = Math.max(generation, pending);
+                    }
+                    generation++;
+                    Files.move(log, renamedLog(generation), StandardCopyOption.ATOMIC_MOVE);
+                    //Everything in the moved log has been taken in, so start on the next one from the beginning
+                    logKey = null;
+                    logOffset = 0;
+                }
+            } finally {
+                if (appends != null) {
+                    appends.release();
+                }
+            }
+            target = generation;
+        }
+
+        long merged = readGeneration();
+        if (target <= merged) {
+            return;
+        }
+
+        //Snapshot and renamed logs do not change until we replace them, so they can be merged without the lock.
+        //The newer scores in ordinary logs are few enough to sort in memory. Imported logs are already sorted and may
+        //be large, so they are streamed, and everything is merged into the sorted snapshot as it streams
+        var newer = new ArrayList<Pair<String, Integer>>();
+        var runs = new ArrayList<SortedRun>();
+        var mergedLogs = new ArrayList<Path>();
+        var temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try {
+            runs.add(new SortedRun(snapshot, 0));
+            for (long pending : renamedLogs()) {
+                if (pending > merged && pending <= target) {
+                    var renamed = renamedLog(pending);
+                    if (ScoreImport.isSorted(renamed)) {
+                        runs.add(new SortedRun(renamed, runs.size()));
+                    } else {
+                        readRecords(renamed, (name, score) -> newer.add(new Pair<>(name, score)));
+                    }
+                    mergedLogs.add(renamed);
+                }
+            }
+            newer.sort((pair1, pair2) -> pair2.getValue().compareTo(pair1.getValue()));
+            runs.add(new SortedRun(newer.iterator(), runs.size()));
+
+            try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                var writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+                writer.write(GENERATION_HEADER + target + "\n");
+
+                //Highest score first; among equal scores, the snapshot first and then the logs in order
+                var queue = new PriorityQueue<SortedRun>((run1, run2) -> run1.score != run2.score
+                        ? Integer.compare(run2.score, run1.score) : Integer.compare(run1.order, run2.order));
+                for (SortedRun run : runs) {
+                    if (run.advance()) {
+                        queue.add(run);
+                    }
+                }
+                while (!queue.isEmpty()) {
+                    var run = queue.poll();
+                    writeRecord(writer, new Pair<>(run.name, run.score));
+                    if (run.advance()) {
+                        queue.add(run);
+                    }
+                }
+                writer.flush();
+                channel.force(true);
+            }
+        } finally {
+            for (SortedRun run : runs) {
+                run.close();
+            }
+        }
+
+        //The best score is checked against the logs at startup in case the sidecar fell behind, so it must be on disk
+        //before they go
+        best.force();
+        synchronized (this) {
+            Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            for (Path mergedLog : mergedLogs) {
+                deleteQuietly(mergedLog);
+            }
+        }
+        logger.info("Compacted scores up to generation " + target);
+    }
+
+    private static void writeRecord(BufferedWriter writer, Pair<String, Integer> record) throws IOException {
+        writer.write(record.getKey() + "," + record.getValue() + "\n");
+    }
+
+    /**
+     * Records sorted highest score first, read one at a time, for merging
+     */
+    private static class SortedRun implements AutoCloseable {
+        private final BufferedReader reader;
+        private final Iterator<Pair<String, Integer>> records;
+        private final int order;
+        private String name;
+        private int score;
+
+        SortedRun(Path file, int order) throws IOException {
+            BufferedReader opened = null;
+            try {
+                opened = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+            } catch (NoSuchFileException e) {
+                //No snapshot yet
+            }
+            this.reader = opened;
+            this.records = null;
+            this.order = order;
+        }
+
+        SortedRun(Iterator<Pair<String, Integer>> records, int order) {
+            this.reader = null;
+            this.records = records;
+            this.order = order;
+        }
+
+        /**
+         * Move to the next record
+         * @return false once there are no more records
+         */
+        boolean advance() throws IOException {
+            if (records != null) {
+                if (!records.hasNext()) {
+                    return false;
+                }
+                var record = records.next();
+                name = record.getKey();
+                score = record.getValue();
+                return true;
+            }
+            if (reader == null) {
+                return false;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                int comma = line.lastIndexOf(',');
+                if (comma < 0) {
+                    continue;
+                }
+                try {
+                    score = Integer.parseInt(line.substring(comma + 1).trim());
+                } catch (NumberFormatException e) {
+                    logger.warn("Skipping bad score record: " + line);
+                    continue;
+                }
+                name = line.substring(0, comma).trim();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Start handing a batch of sorted logs over to the store
+     * @return the import
+     */
+    public ScoreImport startImport() {
+        return new ScoreImport(this, snapshot);
+    }
+
+    /**
+     * Take the logs of an import as if they were logs moved aside for compaction, so the next compaction streams them
+     * into the snapshot
+     * @param logs the logs, which are moved into place
+     * @param added sketch of the imported scores
+     * @param best best imported score
+     * @throws IOException if the logs could not be moved into place
+     */
+    synchronized void adoptImport(List<Path> logs, ScoreSketch added, int best) throws IOException {
+        FileLock lock = shared ? lockAppends() : null;
+        try {
+            generation = Math.max(generation, readGeneration());
+            for (long pending : renamedLogs()) {
+                generation = Math.max(generation, pending);
+            }
+            for (Path imported : logs) {
+                generation++;
+                Files.move(imported, renamedLog(generation), StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            var combined = shared ? loadSketch() : sketch();
+            combined.merge(added);
+            sketch = combined;
+            writeSketch();
+
+            this.best.offer(best);
+
+            //Rebuilt with the imported scores on next use
+            if (rankTable != null) {
+                rankTable.close();
+                rankTable = null;
+            }
+            if (!shared) {
+                deleteQuietly(rankFile);
+                deleteQuietly(rankFile.resolveSibling(rankFile.getFileName() + ".names"));
+            }
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+        }
+        logger.info("Imported " + logs.size() + " logs up to generation " + generation);
+    }
+
+    /**
+     * Compact on the background thread, unless a compaction is already queued
+     */
+    private synchronized void scheduleCompaction() {
+        if (compacting) {
+            return;
+        }
+        compacting = true;
+        compactor.execute(() -> {
+            synchronized (this) {
+                compacting = false;
+            }
+            try {
+                compact();
+            } catch (IOException e) {
+                logger.error("Score compaction failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Read name,score records from a file. Metadata lines and a torn final record with no newline are skipped.
+     * @param file file to read
+     * @param visitor called with each record
+     * @return the generation recorded in the file's header, or 0 if it has none
+     */
+    private long readRecords(Path file, BiConsumer<String, Integer> visitor) {
+        return readRecords(file, visitor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Read name,score records from a file, stopping early if it is a sorted snapshot
+     * @param file file to read
+     * @param visitor called with each record
+     * @param sortedLimit how many records to read if the file has a generation header, and so is sorted
+     * @return the generation recorded in the file's header, or 0 if it has none
+     */
+    private long readRecords(Path file, BiConsumer<String, Integer> visitor, int sortedLimit) {
+        long fileGeneration = 0;
+        int records = 0;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ);
+             var reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8))) {
+            //A record is only complete once its newline is written
+            var last = ByteBuffer.allocate(1);
+            boolean complete = channel.size() == 0 || (channel.read(last, channel.size() - 1) == 1 && last.get(0) == '\n');
+
+            //Read one line ahead so we know which line is the last
+            String line = reader.readLine();
+            while (line != null) {
+                String following = reader.readLine();
+                if (following == null && !complete) {
+                    break;
+                }
+                if (line.startsWith(GENERATION_HEADER)) {
+                    fileGeneration = Long.parseLong(line.substring(GENERATION_HEADER.length()).trim());
+                } else {
+                    parseRecord(line, visitor);
+                    if (++records >= sortedLimit && fileGeneration > 0) {
+                        break;
+                    }
+                }
+                line = following;
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException | NumberFormatException e) {
+            logger.error("Unable to read scores from " + file + ": " + e.getMessage());
+        }
+        return fileGeneration;
+    }
+
+    private static void parseRecord(String line, BiConsumer<String, Integer> visitor) {
+        if (line.startsWith("#")) {
+            return;
+        }
+        int comma = line.lastIndexOf(',');
+        if (comma < 0) {
+            return;
+        }
+        try {
+            visitor.accept(line.substring(0, comma).trim(), Integer.parseInt(line.substring(comma + 1).trim()));
+        } catch (NumberFormatException e) {
+            logger.warn("Skipping bad score record: " + line);
+        }
+    }
+
+    /**
+     * Get the generation of renamed logs already merged into the snapshot
+     * @return snapshot generation
+     */
+    private long readGeneration() {
+        try (var reader = Files.newBufferedReader(snapshot, StandardCharsets.UTF_8)) {
+            var first = reader.readLine();
+            if (first != null && first.startsWith(GENERATION_HEADER)) {
+                return Long.parseLong(first.substring(GENERATION_HEADER.length()).trim());
+            }
+        } catch (IOException | NumberFormatException e) {
+            //No snapshot yet, or an old one without a header
+        }
+        return 0;
+    }
+
+    /**
+     * Find the generations of all renamed logs waiting to be merged, oldest first
+     * @return generations
+     */
+    private List<Long> renamedLogs() {
+        var generations = new ArrayList<Long>();
+        var prefix = log.getFileName() + ".";
+        var directory = snapshot.toAbsolutePath().getParent();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path file : files) {
+                try {
+                    generations.add(Long.parseLong(file.getFileName().toString().substring(prefix.length())));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Unable to list score logs: " + e.getMessage());
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private Path renamedLog(long generation) {
+        return log.resolveSibling(log.getFileName() + "." + generation);
+    }
+
+    /**
+     * Make a name safe to store: no separators or line breaks
+     * @param name player name
+     * @return cleaned name
+     */
+    static String clean(String name) {
+        var cleaned = name.replace(',', ' ').replace('\n', ' ').replace('\r', ' ').trim();
+        return cleaned.startsWith("#") ? cleaned.substring(1) : cleaned;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Unable to delete " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -11,7 +11,10 @@ import javafx.stage.Stage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import uk.ac.soton.comp1206.App;
+import uk.ac.soton.comp1206.game.BotPlayer;
+import uk.ac.soton.comp1206.game.Game;
 import uk.ac.soton.comp1206.network.Communicator;
+import uk.ac.soton.comp1206.network.LocalServer;
 import uk.ac.soton.comp1206.scene.*;
 
 /**
@@ -26,6 +29,16 @@ public class GameWindow {
 
     private static final Logger logger = LogManager.getLogger(GameWindow.class);
 
+    /**
+     * The TetrECS server used unless overridden by the tetrecs.server system property
+     */
+    private static final String DEFAULT_SERVER = "ws://ofb-labs.soton.ac.uk:9700";
+
+    /**
+     * Whether challenges run their game on a thread of their own, set with the tetrecs.engineThread system property
+     */
+    private static final boolean ENGINE_THREAD = Boolean.getBoolean("tetrecs.engineThread");
+
     private final int width;
     private final int height;
 
@@ -36,6 +49,11 @@ public class GameWindow {
 
     final Communicator communicator;
 
+    /**
+     * The embedded stand-in server, when running with -Dtetrecs.server=local
+     */
+    private LocalServer localServer;
+
     /**
      * Create a new GameWindow attached to the given stage with the specified width and height
      * @param stage stage
@@ -59,8 +77,8 @@ public class GameWindow {
         setupDefaultScene();
         gameActive=false;
 
-        //Setup communicator
-        communicator = new Communicator("ws://ofb-labs.soton.ac.uk:9700");
+        //Setup communicator. This does not connect until an online feature needs it
+        communicator = new Communicator(serverUrl());
 
         //Go to menu
         startMenu();
@@ -80,6 +98,27 @@ public class GameWindow {
 
     }
 
+    /**
+     * Work out which server to talk to. The tetrecs.server system property can give another server URL, or "local" to
+     * start the embedded stand-in server and use that.
+     * @return server URL
+     */
+    private String serverUrl() {
+        var server = System.getProperty("tetrecs.server", DEFAULT_SERVER);
+        if (!server.equals("local")) {
+            return server;
+        }
+
+        try {
+            localServer = new LocalServer(0);
+            localServer.start();
+            return localServer.getUrl();
+        } catch (Exception e) {
+            logger.error("Unable to start local server, using " + DEFAULT_SERVER + ": " + e.getMessage());
+            return DEFAULT_SERVER;
+        }
+    }
+
     public void close() {
         stage.close();
     }
@@ -97,7 +136,35 @@ public class GameWindow {
      * Display the single player challenge
      */
     public void startChallenge() {
-        ChallengeScene gameScene = new ChallengeScene(this);
+        ChallengeScene gameScene = ENGINE_THREAD ? new ThreadedChallengeScene(this) : new ChallengeScene(this);
+        gameActive = true;
+        loadScene(gameScene);
+    }
+
+    /**
+     * Display single player practice, where moves can be undone
+     */
+    public void startPractice() {
+        gameActive = true;
+        loadScene(new PracticeScene(this));
+    }
+
+    /**
+     * Display a race against a bot dealt the same pieces
+     * @param difficulty how hard the bot plays
+     */
+    public void startRace(BotPlayer.Difficulty difficulty) {
+        gameActive = true;
+        loadScene(new RaceScene(this, difficulty));
+    }
+
+    /**
+     * Carry on a single player challenge which was left part way through
+     * @param game the game to carry on
+     */
+    public void resumeChallenge(Game game) {
+        ChallengeScene gameScene = ENGINE_THREAD ? new ThreadedChallengeScene(this, game)
+                : new ChallengeScene(this, game);
         gameActive = true;
         loadScene(gameScene);
     }
@@ -109,7 +176,13 @@ public class GameWindow {
         stage.setTitle("TetrECS");
         stage.setMinWidth(width);
         stage.setMinHeight(height + 20);
-        stage.setOnCloseRequest(ev -> App.getInstance().shutdown());
+        stage.setOnCloseRequest(ev -> {
+            cleanup();
+            if (localServer != null) {
+                localServer.close();
+            }
+            App.getInstance().shutdown();
+        });
 
         stage.addEventHandler(
             KeyEvent.KEY_PRESSED,
@@ -154,6 +227,9 @@ public class GameWindow {
         if (currentScene != null && currentScene.getMusicPlayer() != null)  {
             currentScene.getMusicPlayer().stop();
         }
+        if (currentScene != null) {
+            currentScene.cleanup();
+        }
 
         logger.info("Clearing up previous scene");
         communicator.clearListeners();